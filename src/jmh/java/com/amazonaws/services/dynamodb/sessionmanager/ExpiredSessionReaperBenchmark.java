@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.session.StandardManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.dynamodb.sessionmanager.converters.ClassResolutionCache;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionConverter;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionDataCompression;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.TestSessionFactory;
+import com.amazonaws.services.dynamodb.sessionmanager.util.DynamoUtils;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+
+/**
+ * Measures one full pass of {@link ExpiredSessionReaper} over a table in {@link InMemoryDynamoDB}
+ * where some of the sessions have expired, either loading every session or filtering on the
+ * expiry attribute. The table is refilled before each pass.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExpiredSessionReaperBenchmark {
+
+    private static final String TABLE_NAME = "sessions";
+
+    /**
+     * Simulated DynamoDB round trip time, in microseconds.
+     */
+    @Param({ "0", "1000" })
+    public int latencyMicros;
+
+    @Param({ "1", "4" })
+    public int totalSegments;
+
+    @Param({ "false", "true" })
+    public boolean useExpiryAttribute;
+
+    @Param({ "2000" })
+    public int sessionCount;
+
+    /**
+     * Percentage of the sessions that have expired.
+     */
+    @Param({ "25" })
+    public int expiredPercent;
+
+    private DynamoDBMapper mapper;
+    private List<DynamoSessionItem> sessionItems;
+    private ExpiredSessionReaper reaper;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        InMemoryDynamoDB dynamo = new InMemoryDynamoDB(latencyMicros, TimeUnit.MICROSECONDS);
+        DynamoUtils.createSessionTable(dynamo, TABLE_NAME, 10L, 10L);
+        mapper = DynamoUtils.createDynamoMapper(dynamo, TABLE_NAME);
+        // A real manager rather than the factory's default mock, which would record every call
+        StandardManager manager = new StandardManager();
+        manager.setContext(new StandardContext());
+        SessionConverter converter = SessionConverter.createDefaultSessionConverter(manager,
+                new ClassResolutionCache(getClass().getClassLoader()), SessionDataCompression.createDecompressOnly(),
+                false);
+        reaper = new ExpiredSessionReaper.Builder(new DynamoSessionStorage(mapper, converter))
+                .withTotalSegments(totalSegments).withExpiryAttribute(useExpiryAttribute).build();
+
+        long now = System.currentTimeMillis();
+        TestSessionFactory sessionFactory = new TestSessionFactory().withManager(manager).withMaxInactiveInterval(60);
+        sessionItems = new ArrayList<DynamoSessionItem>(sessionCount);
+        for (int i = 0; i < sessionCount; i++) {
+            boolean expired = i * 100 < sessionCount * expiredPercent;
+            sessionItems.add(converter.toSessionItem(sessionFactory.withSessionId("session-" + i)
+                    .withLastAccessedTime(expired ? now - TimeUnit.HOURS.toMillis(1) : now)
+                    .createStandardSession()));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void fillTable() {
+        mapper.batchSave(sessionItems);
+    }
+
+    @Benchmark
+    public void reap() {
+        reaper.run();
+    }
+}
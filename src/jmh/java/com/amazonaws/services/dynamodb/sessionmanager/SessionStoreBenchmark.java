@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.session.StandardManager;
+import org.apache.catalina.session.StandardSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.dynamodb.sessionmanager.converters.ClassResolutionCache;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionConverter;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionDataCompression;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.TestSessionFactory;
+import com.amazonaws.services.dynamodb.sessionmanager.util.DynamoUtils;
+
+/**
+ * Measures session loads, saves and removals end to end through {@link DynamoDBSessionStore},
+ * either over {@link DynamoSessionStorage} against {@link InMemoryDynamoDB} with a simulated round
+ * trip latency, through the DynamoDB mapper or {@link SessionItemTable}, or over
+ * {@link InMemorySessionStorage} to measure the store and conversion alone. Several threads share the table, the way request threads share a manager.
+ * Run with {@code -bm sample} to see the latency distribution rather than throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class SessionStoreBenchmark {
+
+    private static final long SEED = 42;
+    private static final String TABLE_NAME = "sessions";
+
+    /**
+     * Session storage: DynamoDB through the mapper, DynamoDB through the low-level client, or in
+     * memory.
+     */
+    @Param({ "mapper", "client", "memory" })
+    public String storage;
+
+    /**
+     * Simulated DynamoDB round trip time, in microseconds. Not used with in memory storage.
+     */
+    @Param({ "0", "1000" })
+    public int latencyMicros;
+
+    /**
+     * Approximate size of each session's data, in bytes.
+     */
+    @Param({ "1024", "65536" })
+    public int sessionSize;
+
+    @Param({ "1000" })
+    public int sessionCount;
+
+    private DynamoDBSessionStore store;
+    private StandardSession[] sessions;
+    private final AtomicLong nextSessionId = new AtomicLong();
+    private TestSessionFactory sessionFactory;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        InMemoryDynamoDB dynamo = new InMemoryDynamoDB(latencyMicros, TimeUnit.MICROSECONDS);
+        DynamoUtils.createSessionTable(dynamo, TABLE_NAME, 10L, 10L);
+        // A real manager rather than the factory's default mock, which would record every call
+        StandardManager manager = new StandardManager();
+        manager.setContext(new StandardContext());
+        SessionConverter converter = SessionConverter.createDefaultSessionConverter(manager,
+                new ClassResolutionCache(getClass().getClassLoader()), SessionDataCompression.createDecompressOnly(),
+                false);
+        SessionStorage sessionStorage;
+        if ("memory".equals(storage)) {
+            sessionStorage = new InMemorySessionStorage(converter);
+        } else {
+            SessionItemTable itemTable = "client".equals(storage) ? new SessionItemTable(dynamo, TABLE_NAME) : null;
+            sessionStorage = new DynamoSessionStorage.Builder(DynamoUtils.createDynamoMapper(dynamo, TABLE_NAME),
+                    converter).withItemTable(itemTable).build();
+        }
+        store = new DynamoDBSessionStore(sessionStorage, true);
+
+        Random random = new Random(SEED);
+        sessionFactory = new TestSessionFactory().withManager(manager)
+                .withSessionAttributes(Collections.<String, Object> singletonMap("data", randomString(random)));
+        sessions = new StandardSession[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            sessions[i] = sessionFactory.withSessionId("session-" + i).createStandardSession();
+            store.save(sessions[i]);
+        }
+    }
+
+    @Benchmark
+    public Session load(ThreadState threadState) throws ClassNotFoundException, IOException {
+        return store.load(sessions[threadState.random.nextInt(sessions.length)].getId());
+    }
+
+    @Benchmark
+    public void save(ThreadState threadState) throws IOException {
+        store.save(sessions[threadState.random.nextInt(sessions.length)]);
+    }
+
+    /**
+     * Saves a new session and removes it again, so the table stays the same size.
+     */
+    @Benchmark
+    public void saveAndRemove(ThreadState threadState) throws IOException {
+        StandardSession session = threadState.newSession;
+        session.setId("new-session-" + nextSessionId.incrementAndGet(), false);
+        store.save(session);
+        store.remove(session.getId());
+    }
+
+    private String randomString(Random random) {
+        StringBuilder builder = new StringBuilder(sessionSize);
+        while (builder.length() < sessionSize) {
+            builder.append((char) ('a' + random.nextInt(16)));
+        }
+        return builder.toString();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private final Random random = new Random(SEED);
+
+        /**
+         * Session this thread saves under a new ID each time, since the session factory can't be
+         * shared between threads.
+         */
+        private StandardSession newSession;
+
+        @Setup(Level.Trial)
+        public void setup(SessionStoreBenchmark benchmark) {
+            synchronized (benchmark) {
+                newSession = benchmark.sessionFactory.createStandardSession();
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.session.StandardManager;
+import org.apache.catalina.session.StandardSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.dynamodb.sessionmanager.CustomSessionClass;
+import com.amazonaws.services.dynamodb.sessionmanager.DynamoSessionItem;
+
+/**
+ * Measures how fast sessions are converted to and from their stored form, for each storage
+ * format and compression setting, across session shapes. Sessions are generated from a fixed seed
+ * so every run converts the same data. Run with {@code -prof gc} to see bytes allocated per
+ * operation; the stored size of each session shape is printed when its trial starts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionConverterBenchmark {
+
+    private static final long SEED = 42;
+
+    /**
+     * Storage format: Java serialization or the compact tagged format.
+     */
+    @Param({ "java", "compact" })
+    public String format;
+
+    @Param({ "none", "deflate" })
+    public String compression;
+
+    /**
+     * Kind of attribute values: strings only, application classes only, or a mix of boxed
+     * primitives, dates, collections, byte arrays and application classes.
+     */
+    @Param({ "string", "custom", "mixed" })
+    public String attributeType;
+
+    @Param({ "4", "32" })
+    public int attributeCount;
+
+    /**
+     * Approximate size of each attribute value, in bytes.
+     */
+    @Param({ "16", "1024" })
+    public int valueSize;
+
+    private SessionConverter converter;
+    private StandardSession session;
+    private DynamoSessionItem sessionItem;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // A real manager rather than the factory's default mock, which would record every call
+        StandardManager manager = new StandardManager();
+        manager.setContext(new StandardContext());
+        TestSessionFactory sessionFactory = new TestSessionFactory().withManager(manager)
+                .withSessionAttributes(createAttributes(new Random(SEED)));
+        SessionDataCompression sessionDataCompression = "deflate".equals(compression)
+                ? new SessionDataCompression(new DeflateCompressionCodec(), 0)
+                : SessionDataCompression.createDecompressOnly();
+        converter = SessionConverter.createDefaultSessionConverter(sessionFactory.getManager(),
+                new ClassResolutionCache(getClass().getClassLoader()), sessionDataCompression,
+                "compact".equals(format));
+        session = sessionFactory.createStandardSession();
+        sessionItem = converter.toSessionItem(session);
+        System.out.println("Stored session size: " + sessionItem.getSessionData().remaining() + " bytes");
+    }
+
+    @Benchmark
+    public DynamoSessionItem serialize() {
+        return converter.toSessionItem(session);
+    }
+
+    @Benchmark
+    public Session deserialize() {
+        return converter.toSession(sessionItem);
+    }
+
+    private Map<String, Object> createAttributes(Random random) {
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        for (int i = 0; i < attributeCount; i++) {
+            attributes.put("attribute" + i, createValue(random, i));
+        }
+        return attributes;
+    }
+
+    private Object createValue(Random random, int index) {
+        if ("string".equals(attributeType)) {
+            return randomString(random, valueSize);
+        }
+        if ("custom".equals(attributeType)) {
+            return new CustomSessionClass(randomString(random, valueSize));
+        }
+        switch (index % 6) {
+        case 0:
+            return randomString(random, valueSize);
+        case 1:
+            return random.nextLong();
+        case 2:
+            return new Date(random.nextLong());
+        case 3:
+            List<String> list = new ArrayList<String>();
+            for (int i = 0; i < Math.max(1, valueSize / 16); i++) {
+                list.add(randomString(random, 16));
+            }
+            return list;
+        case 4:
+            byte[] bytes = new byte[valueSize];
+            random.nextBytes(bytes);
+            return bytes;
+        default:
+            return new CustomSessionClass(randomString(random, valueSize));
+        }
+    }
+
+    /**
+     * Builds text with some repetition in it, like real attribute values, so compression has
+     * something to find.
+     */
+    private static String randomString(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        while (builder.length() < length) {
+            builder.append((char) ('a' + random.nextInt(16)));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.catalina.Session;
+
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+
+/**
+ * Runs {@link SessionStorage} operations on an executor so a single caller can keep many of them
+ * in flight at once. Each operation still makes blocking DynamoDB calls, but on one of the
+ * executor's threads rather than the caller's.
+ */
+public class AsyncSessionStorage {
+
+    /**
+     * Operations that can be queued per executor thread before callers run them themselves.
+     */
+    private static final int QUEUED_OPERATIONS_PER_THREAD = 16;
+    private static final String THREAD_NAME_PREFIX = "dynamo-session-manager-persistence-";
+
+    private final SessionStorage sessionStorage;
+    private final ExecutorService executor;
+
+    public AsyncSessionStorage(SessionStorage sessionStorage, ExecutorService executor) {
+        ValidatorUtils.nonNull(sessionStorage, "SessionStorage");
+        ValidatorUtils.nonNull(executor, "ExecutorService");
+        this.sessionStorage = sessionStorage;
+        this.executor = executor;
+    }
+
+    /**
+     * Creates an executor with a fixed number of daemon threads and a bounded queue. Once the
+     * queue is full, operations run on the thread submitting them, which slows that thread down
+     * instead of queueing without limit.
+     */
+    public static ExecutorService createExecutor(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be at least 1");
+        }
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * QUEUED_OPERATIONS_PER_THREAD),
+                new PersistenceThreadFactory(), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * @return The session with the given ID, or null if there is no such session
+     */
+    public Future<Session> loadSessionAsync(final String sessionId) {
+        return executor.submit(new Callable<Session>() {
+            @Override
+            public Session call() {
+                return sessionStorage.loadSession(sessionId);
+            }
+        });
+    }
+
+    public Future<Void> saveSessionAsync(final Session session) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                sessionStorage.saveSession(session);
+                return null;
+            }
+        });
+    }
+
+    public Future<Void> deleteSessionAsync(final String sessionId) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                sessionStorage.deleteSession(sessionId);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Deletes the session, telling the listener about the write capacity consumed if the storage
+     * is a {@link CapacityReportingSessionStorage}.
+     */
+    public Future<Void> deleteSessionAsync(final String sessionId,
+            final CapacityReportingSessionStorage.CapacityListener writeCapacityListener) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                if (sessionStorage instanceof CapacityReportingSessionStorage) {
+                    ((CapacityReportingSessionStorage) sessionStorage).deleteSession(sessionId, writeCapacityListener);
+                } else {
+                    sessionStorage.deleteSession(sessionId);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * ThreadFactory for creating the daemon persistence threads.
+     */
+    private static final class PersistenceThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            thread.setName(THREAD_NAME_PREFIX + threadCount.getAndIncrement());
+            return thread;
+        }
+    }
+}
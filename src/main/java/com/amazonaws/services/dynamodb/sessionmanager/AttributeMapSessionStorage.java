@@ -0,0 +1,495 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.catalina.Session;
+
+import com.amazonaws.services.dynamodb.sessionmanager.converters.AttributeMapSessionConverter;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionConverter;
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.Md5Utils;
+import com.amazonaws.util.StringUtils;
+
+/**
+ * Session storage that keeps each session attribute as its own entry in a DynamoDB map (see
+ * {@link AttributeMapSessionConverter}). Once a session has been written or read, later saves only
+ * send the attributes that were added, changed or removed since then in a single UpdateItem call
+ * rather than rewriting the whole item.
+ * <p>
+ * Items written with the single blob layout of {@link DynamoSessionItem} can still be read and are
+ * rewritten in the attribute map layout the next time they are saved.
+ */
+public class AttributeMapSessionStorage extends DynamoSessionStorage {
+
+    /**
+     * Beyond this many changed attributes a full PutItem is cheaper to build and send than an
+     * update expression, and keeps the expression well within DynamoDB's size limit.
+     */
+    private static final int MAX_PARTIAL_UPDATE_ATTRIBUTES = 100;
+
+    private final AmazonDynamoDB dynamo;
+    private final String tableName;
+    private final SessionConverter sessionConverter;
+    private final AttributeMapSessionConverter attributeMapConverter;
+    private final boolean skipUnchangedWrites;
+    private final ConcurrentMap<String, PersistedState> persistedStates = new ConcurrentHashMap<String, PersistedState>();
+
+    /**
+     * @param sessionConverter
+     *            Used to read sessions still stored in the single blob layout
+     * @param skipUnchangedWrites
+     *            If true, saving a session none of whose fields or attributes have changed since
+     *            they were last written or read is a no-op
+     */
+    public AttributeMapSessionStorage(AmazonDynamoDB dynamo, String tableName, DynamoDBMapper dynamoMapper,
+            SessionConverter sessionConverter, AttributeMapSessionConverter attributeMapConverter,
+            boolean skipUnchangedWrites) {
+        super(dynamoMapper, sessionConverter);
+        ValidatorUtils.nonNull(dynamo, "AmazonDynamoDB");
+        ValidatorUtils.nonNull(tableName, "TableName");
+        ValidatorUtils.nonNull(attributeMapConverter, "AttributeMapSessionConverter");
+        this.dynamo = dynamo;
+        this.tableName = tableName;
+        this.sessionConverter = sessionConverter;
+        this.attributeMapConverter = attributeMapConverter;
+        this.skipUnchangedWrites = skipUnchangedWrites;
+    }
+
+    @Override
+    public Session loadSession(String sessionId) {
+        Map<String, AttributeValue> item = dynamo.getItem(
+                new GetItemRequest().withTableName(tableName).withKey(toKey(sessionId)).withConsistentRead(true))
+                .getItem();
+        if (item == null) {
+            return null;
+        }
+        Session session = toSession(item);
+        if (isAttributeMapItem(item)) {
+            persistedStates.put(sessionId, new PersistedState(item));
+        } else {
+            persistedStates.remove(sessionId);
+        }
+        return session;
+    }
+
+    /**
+     * Sessions are read one GetItem at a time, since the mapper's batch reads don't understand
+     * the attribute map layout.
+     */
+    @Override
+    public Map<String, Session> loadSessions(Collection<String> sessionIds) {
+        Map<String, Session> sessions = new HashMap<String, Session>();
+        for (String sessionId : sessionIds) {
+            Session session = loadSession(sessionId);
+            if (session != null) {
+                sessions.put(sessionId, session);
+            }
+        }
+        return sessions;
+    }
+
+    @Override
+    public void release(String sessionId) {
+        persistedStates.remove(sessionId);
+        super.release(sessionId);
+    }
+
+    @Override
+    public void deleteSession(String sessionId) {
+        persistedStates.remove(sessionId);
+        super.deleteSession(sessionId);
+    }
+
+    @Override
+    public void deleteSession(String sessionId, CapacityListener writeCapacityListener) {
+        persistedStates.remove(sessionId);
+        super.deleteSession(sessionId, writeCapacityListener);
+    }
+
+    @Override
+    public void deleteSessions(Collection<String> sessionIds) {
+        for (String sessionId : sessionIds) {
+            persistedStates.remove(sessionId);
+        }
+        super.deleteSessions(sessionIds);
+    }
+
+    @Override
+    public void saveSession(Session session) {
+        Map<String, AttributeValue> item = attributeMapConverter.toItem(session);
+        PersistedState state = new PersistedState(item);
+        PersistedState previousState = persistedStates.get(session.getIdInternal());
+        if (previousState == null || !updateItem(item, state, previousState)) {
+            dynamo.putItem(new PutItemRequest().withTableName(tableName).withItem(item));
+        }
+        persistedStates.put(session.getIdInternal(), state);
+    }
+
+    @Override
+    public Iterable<Session> listSessions() {
+        return new Iterable<Session>() {
+            @Override
+            public Iterator<Session> iterator() {
+                return new SessionScanIterator(new ScanRequest().withTableName(tableName), null);
+            }
+        };
+    }
+
+    @Override
+    public Iterable<Session> listSessions(int segment, int totalSegments) {
+        return scanSessions(segment, totalSegments, null);
+    }
+
+    @Override
+    public Iterable<Session> listSessions(int segment, int totalSegments, CapacityListener readCapacityListener) {
+        ValidatorUtils.nonNull(readCapacityListener, "ReadCapacityListener");
+        return scanSessions(segment, totalSegments, readCapacityListener);
+    }
+
+    private Iterable<Session> scanSessions(final int segment, final int totalSegments,
+            final CapacityListener readCapacityListener) {
+        return new Iterable<Session>() {
+            @Override
+            public Iterator<Session> iterator() {
+                return new SessionScanIterator(new ScanRequest().withTableName(tableName).withSegment(segment)
+                        .withTotalSegments(totalSegments), readCapacityListener);
+            }
+        };
+    }
+
+    @Override
+    public Iterable<String> listExpiredSessionIds(int segment, int totalSegments, long now) {
+        return scanExpiredSessionIds(segment, totalSegments, now, null);
+    }
+
+    @Override
+    public Iterable<String> listExpiredSessionIds(int segment, int totalSegments, long now,
+            CapacityListener readCapacityListener) {
+        ValidatorUtils.nonNull(readCapacityListener, "ReadCapacityListener");
+        return scanExpiredSessionIds(segment, totalSegments, now, readCapacityListener);
+    }
+
+    private Iterable<String> scanExpiredSessionIds(final int segment, final int totalSegments, final long now,
+            final CapacityListener readCapacityListener) {
+        return new Iterable<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                DynamoDBScanExpression expression = createExpiredSessionsScanExpression(now);
+                return new ScanIterator<String>(new ScanRequest().withTableName(tableName).withSegment(segment)
+                        .withTotalSegments(totalSegments)
+                        .withFilterExpression(expression.getFilterExpression())
+                        .withProjectionExpression(expression.getProjectionExpression())
+                        .withExpressionAttributeNames(expression.getExpressionAttributeNames())
+                        .withExpressionAttributeValues(expression.getExpressionAttributeValues()),
+                        readCapacityListener) {
+                    @Override
+                    protected String convert(Map<String, AttributeValue> item) {
+                        return item.get(DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME).getS();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Sends only the differences between the previously persisted state of the session and its
+     * current state.
+     *
+     * @return False if the item no longer exists in the attribute map layout and must be written
+     *         in full instead, true otherwise.
+     */
+    private boolean updateItem(Map<String, AttributeValue> item, PersistedState state, PersistedState previousState) {
+        Map<String, AttributeValue> sessionAttributes = item
+                .get(AttributeMapSessionConverter.SESSION_ATTRIBUTES_ATTRIBUTE_NAME).getM();
+        List<String> changedAttributes = state.getChangedAttributes(previousState);
+        List<String> removedAttributes = previousState.getRemovedAttributes(state);
+
+        boolean metadataChanged = !Arrays.equals(state.metadataFingerprint, previousState.metadataFingerprint);
+        if (!metadataChanged && changedAttributes.isEmpty() && removedAttributes.isEmpty() && skipUnchangedWrites) {
+            return true;
+        }
+        if (changedAttributes.size() + removedAttributes.size() > MAX_PARTIAL_UPDATE_ATTRIBUTES) {
+            return false;
+        }
+
+        Map<String, String> names = new HashMap<String, String>();
+        Map<String, AttributeValue> values = new HashMap<String, AttributeValue>();
+        names.put("#attrs", AttributeMapSessionConverter.SESSION_ATTRIBUTES_ATTRIBUTE_NAME);
+
+        List<String> setActions = new ArrayList<String>();
+        int i = 0;
+        for (Entry<String, AttributeValue> attribute : item.entrySet()) {
+            if (isMetadataAttribute(attribute.getKey())) {
+                names.put("#m" + i, attribute.getKey());
+                values.put(":m" + i, attribute.getValue());
+                setActions.add("#m" + i + " = :m" + i);
+                i++;
+            }
+        }
+        i = 0;
+        for (String name : changedAttributes) {
+            names.put("#a" + i, name);
+            values.put(":a" + i, sessionAttributes.get(name));
+            setActions.add("#attrs.#a" + i + " = :a" + i);
+            i++;
+        }
+        List<String> removeActions = new ArrayList<String>();
+        if (!item.containsKey(DynamoSessionItem.EXPIRES_AT_ATTRIBUTE_NAME)) {
+            names.put("#expiresAt", DynamoSessionItem.EXPIRES_AT_ATTRIBUTE_NAME);
+            removeActions.add("#expiresAt");
+        }
+        i = 0;
+        for (String name : removedAttributes) {
+            names.put("#r" + i, name);
+            removeActions.add("#attrs.#r" + i);
+            i++;
+        }
+
+        String updateExpression = "SET " + StringUtils.join(", ", setActions.toArray(new String[0]));
+        if (!removeActions.isEmpty()) {
+            updateExpression += " REMOVE " + StringUtils.join(", ", removeActions.toArray(new String[0]));
+        }
+
+        try {
+            dynamo.updateItem(new UpdateItemRequest().withTableName(tableName)
+                    .withKey(toKey(item.get(DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME).getS()))
+                    .withUpdateExpression(updateExpression)
+                    .withConditionExpression("attribute_exists(#attrs)")
+                    .withExpressionAttributeNames(names)
+                    .withExpressionAttributeValues(values));
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            // Item was deleted or is still in the blob layout
+            return false;
+        }
+    }
+
+    private Session toSession(Map<String, AttributeValue> item) {
+        if (isAttributeMapItem(item)) {
+            return attributeMapConverter.toSession(item);
+        }
+        DynamoSessionItem sessionItem = new DynamoSessionItem(
+                item.get(DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME).getS());
+        AttributeValue sessionData = item.get(DynamoSessionItem.SESSION_DATA_ATTRIBUTE_NAME);
+        if (sessionData != null) {
+            sessionItem.setSessionData(sessionData.getB());
+        }
+        return sessionConverter.toSession(sessionItem);
+    }
+
+    private static boolean isAttributeMapItem(Map<String, AttributeValue> item) {
+        return item.containsKey(AttributeMapSessionConverter.SESSION_ATTRIBUTES_ATTRIBUTE_NAME);
+    }
+
+    private static boolean isMetadataAttribute(String attributeName) {
+        return !DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME.equals(attributeName)
+                && !AttributeMapSessionConverter.SESSION_ATTRIBUTES_ATTRIBUTE_NAME.equals(attributeName);
+    }
+
+    private static Map<String, AttributeValue> toKey(String sessionId) {
+        return Collections.singletonMap(DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME, new AttributeValue(sessionId));
+    }
+
+    /**
+     * Fingerprints of the session fields and of each session attribute as last written to or read
+     * from DynamoDB.
+     */
+    private static final class PersistedState {
+
+        private final byte[] metadataFingerprint;
+        private final Map<String, byte[]> attributeFingerprints = new HashMap<String, byte[]>();
+
+        private PersistedState(Map<String, AttributeValue> item) {
+            Map<String, AttributeValue> metadata = new HashMap<String, AttributeValue>();
+            for (Entry<String, AttributeValue> attribute : item.entrySet()) {
+                if (isMetadataAttribute(attribute.getKey())) {
+                    metadata.put(attribute.getKey(), attribute.getValue());
+                }
+            }
+            this.metadataFingerprint = fingerprint(new AttributeValue().withM(metadata));
+
+            Map<String, AttributeValue> sessionAttributes = item
+                    .get(AttributeMapSessionConverter.SESSION_ATTRIBUTES_ATTRIBUTE_NAME).getM();
+            if (sessionAttributes != null) {
+                for (Entry<String, AttributeValue> attribute : sessionAttributes.entrySet()) {
+                    attributeFingerprints.put(attribute.getKey(), fingerprint(attribute.getValue()));
+                }
+            }
+        }
+
+        /**
+         * @return Names of attributes in this state that are new or different in the other state
+         */
+        private List<String> getChangedAttributes(PersistedState other) {
+            List<String> changed = new ArrayList<String>();
+            for (Entry<String, byte[]> attribute : attributeFingerprints.entrySet()) {
+                if (!Arrays.equals(attribute.getValue(), other.attributeFingerprints.get(attribute.getKey()))) {
+                    changed.add(attribute.getKey());
+                }
+            }
+            return changed;
+        }
+
+        /**
+         * @return Names of attributes in this state that no longer exist in the other state
+         */
+        private List<String> getRemovedAttributes(PersistedState other) {
+            List<String> removed = new ArrayList<String>();
+            for (String name : attributeFingerprints.keySet()) {
+                if (!other.attributeFingerprints.containsKey(name)) {
+                    removed.add(name);
+                }
+            }
+            return removed;
+        }
+
+        private static byte[] fingerprint(AttributeValue value) {
+            try {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bos);
+                writeCanonical(value, out);
+                out.close();
+                return Md5Utils.computeMD5Hash(bos.toByteArray());
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to fingerprint attribute value", e);
+            }
+        }
+
+        /**
+         * Writes a representation of the value that is the same for equal values, independent of
+         * map ordering.
+         */
+        private static void writeCanonical(AttributeValue value, DataOutputStream out) throws IOException {
+            if (value.getS() != null) {
+                out.writeByte('S');
+                writeBytes(value.getS().getBytes(StringUtils.UTF8), out);
+            } else if (value.getN() != null) {
+                out.writeByte('N');
+                writeBytes(value.getN().getBytes(StringUtils.UTF8), out);
+            } else if (value.getB() != null) {
+                out.writeByte('B');
+                writeBytes(BinaryUtils.copyAllBytesFrom(value.getB()), out);
+            } else if (value.getBOOL() != null) {
+                out.writeByte('Z');
+                out.writeBoolean(value.getBOOL());
+            } else if (value.getM() != null) {
+                out.writeByte('M');
+                out.writeInt(value.getM().size());
+                for (Entry<String, AttributeValue> entry : new TreeMap<String, AttributeValue>(value.getM())
+                        .entrySet()) {
+                    writeBytes(entry.getKey().getBytes(StringUtils.UTF8), out);
+                    writeCanonical(entry.getValue(), out);
+                }
+            } else {
+                throw new IllegalArgumentException("Unsupported attribute value " + value);
+            }
+        }
+
+        private static void writeBytes(byte[] bytes, DataOutputStream out) throws IOException {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Lazily scans the session table, or the part of it matched by the scan request, page by page,
+     * converting each item as it is returned. Reports the read capacity each page consumed if
+     * given a listener. A page that was throttled is requested again the next time the iterator is
+     * asked for more.
+     */
+    private abstract class ScanIterator<T> implements Iterator<T> {
+
+        private final ScanRequest scanRequest;
+        private final CapacityListener readCapacityListener;
+        private Iterator<Map<String, AttributeValue>> page = Collections.<Map<String, AttributeValue>> emptyList()
+                .iterator();
+        private Map<String, AttributeValue> lastEvaluatedKey;
+        private boolean lastPage;
+
+        private ScanIterator(ScanRequest scanRequest, CapacityListener readCapacityListener) {
+            this.scanRequest = readCapacityListener == null ? scanRequest
+                    : scanRequest.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+            this.readCapacityListener = readCapacityListener;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!page.hasNext() && !lastPage) {
+                ScanResult result = dynamo.scan(scanRequest.withExclusiveStartKey(lastEvaluatedKey));
+                reportConsumedCapacity(readCapacityListener, result.getConsumedCapacity());
+                page = result.getItems().iterator();
+                lastEvaluatedKey = result.getLastEvaluatedKey();
+                lastPage = lastEvaluatedKey == null;
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return convert(page.next());
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        protected abstract T convert(Map<String, AttributeValue> item);
+    }
+
+    private class SessionScanIterator extends ScanIterator<Session> {
+
+        private SessionScanIterator(ScanRequest scanRequest, CapacityListener readCapacityListener) {
+            super(scanRequest, readCapacityListener);
+        }
+
+        @Override
+        protected Session convert(Map<String, AttributeValue> item) {
+            return toSession(item);
+        }
+    }
+}
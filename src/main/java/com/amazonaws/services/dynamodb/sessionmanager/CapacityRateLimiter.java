@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+
+/**
+ * Token bucket that paces background work to a number of DynamoDB capacity units per second. The
+ * capacity a request will consume usually isn't known until it returns, so callers
+ * {@link #acquire()} before each request, which waits until the bucket is no longer in debt, and
+ * then {@link #consume(ConsumedCapacity)} what the request reports it used. Up to one second of
+ * unused capacity can be saved up for bursts.
+ * <p>
+ * When DynamoDB reports that throughput was exceeded the rate is halved, then recovers gradually
+ * back to the configured rate.
+ */
+public class CapacityRateLimiter {
+
+    /**
+     * Backoff between retries of throttled requests when no rate is configured.
+     */
+    private static final long UNLIMITED_THROTTLE_BACKOFF_MILLIS = 1000;
+
+    /**
+     * Throttling never slows the limiter below this fraction of its configured rate.
+     */
+    private static final double MIN_RATE_FRACTION = 1.0 / 16;
+
+    /**
+     * Fraction of the configured rate recovered each second after throttling.
+     */
+    private static final double RECOVERY_FRACTION_PER_SECOND = 0.05;
+
+    private final double maxUnitsPerSecond;
+    private double unitsPerSecond;
+    private double availableUnits;
+    private long lastRefillNanos;
+
+    /**
+     * @param maxUnitsPerSecond
+     *            Capacity units that may be consumed per second. Zero or less means capacity is
+     *            not limited.
+     */
+    public CapacityRateLimiter(double maxUnitsPerSecond) {
+        this.maxUnitsPerSecond = maxUnitsPerSecond;
+        this.unitsPerSecond = maxUnitsPerSecond;
+        this.availableUnits = maxUnitsPerSecond;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * @return A limiter that never waits for capacity
+     */
+    public static CapacityRateLimiter unlimited() {
+        return new CapacityRateLimiter(0);
+    }
+
+    /**
+     * Waits until capacity consumed by earlier requests has been paid back.
+     *
+     * @throws AbortedException
+     *             If the thread is interrupted while waiting
+     */
+    public synchronized void acquire() {
+        if (isUnlimited()) {
+            return;
+        }
+        refill();
+        while (availableUnits < 0) {
+            long waitMillis = (long) Math.ceil(-availableUnits / unitsPerSecond * 1000);
+            try {
+                wait(Math.max(1, waitMillis));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AbortedException("Interrupted while waiting for DynamoDB capacity", e);
+            }
+            refill();
+        }
+    }
+
+    /**
+     * Records capacity units used by a request.
+     */
+    public synchronized void consume(double units) {
+        if (isUnlimited()) {
+            return;
+        }
+        refill();
+        availableUnits -= units;
+    }
+
+    /**
+     * Records the capacity reported by a request made with ReturnConsumedCapacity set. Does
+     * nothing if no capacity was reported.
+     */
+    public void consume(ConsumedCapacity consumedCapacity) {
+        if (consumedCapacity != null && consumedCapacity.getCapacityUnits() != null) {
+            consume(consumedCapacity.getCapacityUnits());
+        }
+    }
+
+    /**
+     * Slows down after DynamoDB rejected a request because the table's provisioned throughput was
+     * exceeded. The caller should {@link #acquire()} again before retrying.
+     */
+    public void onThrottled() {
+        if (isUnlimited()) {
+            sleep(UNLIMITED_THROTTLE_BACKOFF_MILLIS);
+            return;
+        }
+        synchronized (this) {
+            refill();
+            unitsPerSecond = Math.max(unitsPerSecond / 2, maxUnitsPerSecond * MIN_RATE_FRACTION);
+            // Skip a second's worth of capacity to give the table room to recover
+            availableUnits = Math.min(availableUnits, 0) - unitsPerSecond;
+        }
+    }
+
+    /**
+     * @return Capacity units per second currently allowed, which is below the configured rate
+     *         while recovering from throttling. Zero or less if capacity is not limited.
+     */
+    public synchronized double getUnitsPerSecond() {
+        if (!isUnlimited()) {
+            refill();
+        }
+        return unitsPerSecond;
+    }
+
+    private boolean isUnlimited() {
+        return maxUnitsPerSecond <= 0;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double elapsedSeconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        lastRefillNanos = now;
+        unitsPerSecond = Math.min(maxUnitsPerSecond,
+                unitsPerSecond + maxUnitsPerSecond * RECOVERY_FRACTION_PER_SECOND * elapsedSeconds);
+        availableUnits = Math.min(unitsPerSecond, availableUnits + unitsPerSecond * elapsedSeconds);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while backing off from DynamoDB throttling", e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import org.apache.catalina.Session;
+
+/**
+ * Implemented by {@link SessionStorage}s backed by a table with provisioned capacity. These
+ * variants of the bulk operations report the capacity each of their requests consumed, so that
+ * {@link ExpiredSessionReaper} can pace itself to a share of the table's throughput. Storage
+ * without provisioned capacity only needs to implement {@link SessionStorage}.
+ * <p>
+ * Requests rejected because the table's provisioned throughput was exceeded throw
+ * {@link com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException}. Listing
+ * iterators can carry on from where they were once such an exception has been caught.
+ */
+public interface CapacityReportingSessionStorage extends SessionStorage {
+
+    /**
+     * Told about the capacity consumed by each request made on behalf of an operation.
+     */
+    interface CapacityListener {
+
+        void consumed(double capacityUnits);
+    }
+
+    /**
+     * @param writeCapacityListener
+     *            Told about the write capacity consumed, which depends on the size of the deleted
+     *            item
+     * @see SessionStorage#deleteSession(String)
+     */
+    void deleteSession(String sessionId, CapacityListener writeCapacityListener);
+
+    /**
+     * @param readCapacityListener
+     *            Told about the read capacity consumed by each page of the listing
+     * @see SessionStorage#listSessions(int, int)
+     */
+    Iterable<Session> listSessions(int segment, int totalSegments, CapacityListener readCapacityListener);
+
+    /**
+     * @param readCapacityListener
+     *            Told about the read capacity consumed by each page of the listing
+     * @see SessionStorage#listExpiredSessionIds(int, int, long)
+     */
+    Iterable<String> listExpiredSessionIds(int segment, int totalSegments, long now,
+            CapacityListener readCapacityListener);
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import com.amazonaws.services.dynamodb.sessionmanager.converters.CompressionDictionary;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.CompressionDictionaryLoader;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.CompressionDictionaryTrainer;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionDataCompression;
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig.ConsistentReads;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ConditionalOperator;
+import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+
+/**
+ * Keeps the preset compression dictionaries in the session table. Dictionary version {@code n} is
+ * stored in the session data attribute of the item {@code #compressionDictionary#<n>}, and the
+ * item {@code #compressionDictionary} holds the current version in its version attribute. Their
+ * IDs contain {@value SessionItemChunker#CHUNK_ID_SEPARATOR}, so, like chunks, they're never listed
+ * or counted as sessions, and having no expiry attribute they're never reaped.
+ * <p>
+ * Dictionaries are written once and never changed, so items compressed with any version stay
+ * readable. Nodes publishing a dictionary at the same time agree on a single one through
+ * conditional writes.
+ */
+public class CompressionDictionaryTable implements CompressionDictionaryLoader {
+
+    private static final Log logger = LogFactory.getLog(CompressionDictionaryTable.class);
+
+    static final String CURRENT_DICTIONARY_ID = SessionItemChunker.CHUNK_ID_SEPARATOR + "compressionDictionary";
+
+    /**
+     * Default size of trained dictionaries. Half of what Deflate can use, which captures most of
+     * what sessions share without making each compression noticeably slower.
+     */
+    public static final int DEFAULT_DICTIONARY_SIZE_BYTES = 16 * 1024;
+
+    /**
+     * Bounds the number of pages a sample is gathered from when most of the table isn't suitable.
+     */
+    private static final int MAX_SAMPLE_PAGES = 20;
+
+    private static final DynamoDBMapperConfig CONSISTENT_READ = new DynamoDBMapperConfig(
+            ConsistentReads.CONSISTENT);
+
+    private final DynamoDBMapper mapper;
+
+    public CompressionDictionaryTable(DynamoDBMapper mapper) {
+        ValidatorUtils.nonNull(mapper, "DynamoDBMapper");
+        this.mapper = mapper;
+    }
+
+    /**
+     * @return The dictionary currently in use, or null if none has been published
+     */
+    public CompressionDictionary loadCurrent() {
+        DynamoSessionItem current = mapper.load(DynamoSessionItem.class, CURRENT_DICTIONARY_ID, CONSISTENT_READ);
+        if (current == null || current.getVersion() == null) {
+            return null;
+        }
+        return loadDictionary(current.getVersion().intValue());
+    }
+
+    @Override
+    public CompressionDictionary loadDictionary(int version) {
+        DynamoSessionItem item = mapper.load(DynamoSessionItem.class, getDictionaryId(version), CONSISTENT_READ);
+        if (item == null || item.getSessionData() == null) {
+            return null;
+        }
+        ByteBuffer data = item.getSessionData();
+        byte[] dictionary = new byte[data.remaining()];
+        data.duplicate().get(dictionary);
+        return new CompressionDictionary(version, dictionary);
+    }
+
+    /**
+     * Stores the dictionary content as the next version and makes it current. If another node
+     * publishes the same version first, its dictionary is returned instead.
+     *
+     * @return The dictionary now in use
+     */
+    public CompressionDictionary publish(byte[] dictionaryData) {
+        CompressionDictionary current = loadCurrent();
+        int version = current == null ? 1 : current.getVersion() + 1;
+        CompressionDictionary dictionary = new CompressionDictionary(version, dictionaryData);
+
+        DynamoSessionItem item = new DynamoSessionItem(getDictionaryId(version));
+        item.setSessionData(ByteBuffer.wrap(dictionaryData));
+        item.setVersion((long) version);
+        try {
+            mapper.save(item, new DynamoDBSaveExpression().withExpectedEntry(
+                    DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME, new ExpectedAttributeValue(false)));
+        } catch (ConditionalCheckFailedException e) {
+            logger.debug("Compression dictionary version " + version + " was published by another node");
+            return loadDictionary(version);
+        }
+
+        DynamoSessionItem currentItem = new DynamoSessionItem(CURRENT_DICTIONARY_ID);
+        currentItem.setVersion((long) version);
+        Map<String, ExpectedAttributeValue> expected = new HashMap<String, ExpectedAttributeValue>();
+        expected.put(DynamoSessionItem.VERSION_ATTRIBUTE_NAME,
+                new ExpectedAttributeValue().withComparisonOperator(ComparisonOperator.LT)
+                        .withValue(new AttributeValue().withN(Integer.toString(version))));
+        expected.put(DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME, new ExpectedAttributeValue(false));
+        try {
+            mapper.save(currentItem, new DynamoDBSaveExpression().withExpected(expected)
+                    .withConditionalOperator(ConditionalOperator.OR));
+        } catch (ConditionalCheckFailedException e) {
+            // A later version has been made current already, this one can still be read
+        }
+        logger.info("Published compression dictionary version " + version + " of " + dictionaryData.length
+                + " bytes");
+        return dictionary;
+    }
+
+    /**
+     * Returns the current dictionary, training and publishing the first one from a sample of the
+     * stored sessions if there is none yet.
+     *
+     * @param sampleSize
+     *            Number of sessions to train a new dictionary on
+     * @param compression
+     *            Used to undo any compression of the sampled session data
+     * @return The dictionary in use, or null if there aren't yet enough sessions to train one
+     */
+    public CompressionDictionary loadOrTrain(int sampleSize, SessionDataCompression compression) {
+        CompressionDictionary current = loadCurrent();
+        if (current != null) {
+            return current;
+        }
+        List<byte[]> samples = sampleSessionData(sampleSize, compression);
+        byte[] dictionaryData = CompressionDictionaryTrainer.train(samples, DEFAULT_DICTIONARY_SIZE_BYTES);
+        if (dictionaryData.length == 0) {
+            logger.info("Not enough stored sessions to train a compression dictionary from, found "
+                    + samples.size());
+            return null;
+        }
+        return publish(dictionaryData);
+    }
+
+    /**
+     * @return Uncompressed session data of up to the given number of stored sessions. Chunked
+     *         sessions and session data that can't be decompressed are left out.
+     */
+    List<byte[]> sampleSessionData(int sampleSize, SessionDataCompression compression) {
+        List<byte[]> samples = new ArrayList<byte[]>(sampleSize);
+        DynamoDBScanExpression scanExpression = createSampleScanExpression().withLimit(sampleSize);
+        for (int page = 0; page < MAX_SAMPLE_PAGES && samples.size() < sampleSize; page++) {
+            ScanResultPage<DynamoSessionItem> result = mapper.scanPage(DynamoSessionItem.class, scanExpression);
+            for (DynamoSessionItem item : result.getResults()) {
+                if (samples.size() < sampleSize) {
+                    addSample(samples, item, compression);
+                }
+            }
+            if (result.getLastEvaluatedKey() == null) {
+                break;
+            }
+            scanExpression.setExclusiveStartKey(result.getLastEvaluatedKey());
+        }
+        return samples;
+    }
+
+    private static void addSample(List<byte[]> samples, DynamoSessionItem item, SessionDataCompression compression) {
+        try {
+            ByteBuffer sessionData = compression.decompress(item.getSessionData());
+            byte[] sample = new byte[sessionData.remaining()];
+            sessionData.duplicate().get(sample);
+            samples.add(sample);
+        } catch (IOException e) {
+            logger.debug("Leaving session " + item.getSessionId() + " out of the dictionary sample", e);
+        }
+    }
+
+    /**
+     * Scan expression matching unchunked session items.
+     */
+    private static DynamoDBScanExpression createSampleScanExpression() {
+        Map<String, String> names = new HashMap<String, String>();
+        names.put("#id", DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME);
+        names.put("#data", DynamoSessionItem.SESSION_DATA_ATTRIBUTE_NAME);
+        return new DynamoDBScanExpression()
+                .withFilterExpression("NOT contains(#id, :chunkSeparator) AND attribute_exists(#data)")
+                .withExpressionAttributeNames(names)
+                .withExpressionAttributeValues(Collections.singletonMap(":chunkSeparator",
+                        new AttributeValue(SessionItemChunker.CHUNK_ID_SEPARATOR)));
+    }
+
+    static String getDictionaryId(int version) {
+        return CURRENT_DICTIONARY_ID + SessionItemChunker.CHUNK_ID_SEPARATOR + version;
+    }
+}
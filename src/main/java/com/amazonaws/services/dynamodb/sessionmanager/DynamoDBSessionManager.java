@@ -22,19 +22,41 @@ import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.auth.PropertiesCredentials;
 import com.amazonaws.internal.StaticCredentialsProvider;
 import com.amazonaws.regions.RegionUtils;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.AttributeMapSessionConverter;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.ClassResolutionCache;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.CompressionDictionary;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.DeflateCompressionCodec;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.PresetDictionaryCompressionCodec;
 import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionConverter;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionDataCompression;
 import com.amazonaws.services.dynamodb.sessionmanager.util.DynamoUtils;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputDescription;
 import com.amazonaws.services.dynamodbv2.util.Tables;
 import com.amazonaws.util.StringUtils;
 
+import org.apache.catalina.Globals;
 import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Session;
+import org.apache.catalina.Valve;
 import org.apache.catalina.session.PersistentManagerBase;
+import org.apache.catalina.session.StandardSession;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.modeler.Registry;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
 
 /**
  * Tomcat persistent session manager implementation that uses Amazon DynamoDB to store HTTP session
@@ -45,6 +67,13 @@ public class DynamoDBSessionManager extends PersistentManagerBase {
     public static final String DEFAULT_TABLE_NAME = "Tomcat_SessionState";
 
     private static final String USER_AGENT = "DynamoSessionManager/2.0.1";
+    /**
+     * Same setting {@link StandardSession} reads to decide which access time idleness is measured
+     * from.
+     */
+    private static final boolean LAST_ACCESS_AT_START = Boolean.valueOf(System.getProperty(
+            "org.apache.catalina.session.StandardSession.LAST_ACCESS_AT_START",
+            String.valueOf(Globals.STRICT_SERVLET_COMPLIANCE)));
     private static final String name = "AmazonDynamoDBSessionManager";
     private static final String info = name + "/2.0.1";
 
@@ -60,6 +89,38 @@ public class DynamoDBSessionManager extends PersistentManagerBase {
     private String proxyHost;
     private Integer proxyPort;
     private boolean deleteCorruptSessions = false;
+    private boolean skipUnchangedSessionWrites;
+    private boolean attributeMapLayout = false;
+    private boolean writeBehind = false;
+    private long writeBehindFlushIntervalMillis = 1000;
+    private int reaperScanSegments = 1;
+    private boolean reapUsingExpiryAttribute = false;
+    private int reaperMaxReadCapacityPercent = 25;
+    private int reaperMaxWriteCapacityPercent = 25;
+    private int sessionCountRefreshIntervalSeconds = 300;
+    private boolean exactSessionCount = false;
+    private boolean compressSessionData = false;
+    private int compressionThresholdBytes = 1024;
+    private boolean compactSessionData = false;
+    private boolean compressionDictionary = false;
+    private int compressionDictionarySampleSize = 200;
+    private int nearCacheSize = 0;
+    private SessionConflictPolicy conflictPolicy;
+    private boolean metricsEnabled;
+    private boolean requestMetricsEnabled = false;
+    private int persistenceThreads = 0;
+    private int missingSessionCacheSeconds = 0;
+    private int missingSessionCacheSize = 10000;
+
+    private WriteBehindExecutor writeBehindExecutor;
+    private ExecutorService persistenceExecutor;
+    private SessionCountCache sessionCountCache;
+    private SessionConflictCounters conflictCounters;
+    private DynamoSessionStorage sessionStorage;
+    private SessionVersionReader versionReader;
+    private ClassResolutionCache classResolutionCache;
+    private SessionStorageMetrics metrics;
+    private ObjectName metricsObjectName;
 
     private static final Log logger = LogFactory.getLog(DynamoDBSessionManager.class);
 
@@ -127,19 +188,525 @@ public class DynamoDBSessionManager extends PersistentManagerBase {
         this.deleteCorruptSessions = deleteCorruptSessions;
     }
 
+    /**
+     * Sessions are backed up to DynamoDB periodically whether or not they have been modified. When
+     * enabled, a backup is only written if the serialized session differs from the copy last
+     * written to or read from DynamoDB by this manager. Disabled by default, so every backup is
+     * written.
+     */
+    public void setSkipUnchangedSessionWrites(boolean skipUnchangedSessionWrites) {
+        this.skipUnchangedSessionWrites = skipUnchangedSessionWrites;
+    }
+
+    /**
+     * When enabled each session attribute is stored as its own entry in a DynamoDB map and saves
+     * only update the attributes that changed, instead of rewriting the whole serialized session.
+     * Sessions previously stored as a single serialized blob can still be read.
+     */
+    public void setAttributeMapLayout(boolean attributeMapLayout) {
+        this.attributeMapLayout = attributeMapLayout;
+    }
+
+    /**
+     * When enabled saves return as soon as the session is queued, and queued sessions are written
+     * to DynamoDB in batches by a background thread. Sessions saved more than once between flushes
+     * are only written once. Sessions still queued when the manager stops are written out before
+     * it finishes stopping, but queued writes are lost if the JVM exits abruptly. Not supported
+     * together with the attribute map layout.
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    /**
+     * How often, in milliseconds, queued sessions are flushed to DynamoDB when write behind is
+     * enabled.
+     */
+    public void setWriteBehindFlushIntervalMillis(long writeBehindFlushIntervalMillis) {
+        this.writeBehindFlushIntervalMillis = writeBehindFlushIntervalMillis;
+    }
+
+    /**
+     * Number of segments the expired session reaper divides the session table into. Each segment
+     * is scanned concurrently by its own worker thread, so large tables are reaped faster at the
+     * cost of consuming read capacity faster.
+     */
+    public void setReaperScanSegments(int reaperScanSegments) {
+        this.reaperScanSegments = reaperScanSegments;
+    }
+
+    /**
+     * Every session is saved with an {@value DynamoSessionItem#EXPIRES_AT_ATTRIBUTE_NAME} attribute
+     * holding the time, in epoch seconds, after which it has expired. When enabled the expired
+     * session reaper filters on that attribute instead of downloading and deserializing every
+     * session, so sessions saved by versions that didn't write the attribute are never reaped.
+     * <p>
+     * The attribute can also be used as the table's DynamoDB TTL attribute so expired sessions are
+     * deleted by DynamoDB itself. TTL has to be enabled on the table outside of the session manager,
+     * e.g. from the DynamoDB console or the AWS CLI.
+     */
+    public void setReapUsingExpiryAttribute(boolean reapUsingExpiryAttribute) {
+        this.reapUsingExpiryAttribute = reapUsingExpiryAttribute;
+    }
+
+    /**
+     * Percentage, from 1 to 100, of the session table's provisioned read capacity the expired
+     * session reaper may consume. The reaper slows down further whenever requests are throttled.
+     */
+    public void setReaperMaxReadCapacityPercent(int reaperMaxReadCapacityPercent) {
+        this.reaperMaxReadCapacityPercent = reaperMaxReadCapacityPercent;
+    }
+
+    /**
+     * Percentage, from 1 to 100, of the session table's provisioned write capacity the expired
+     * session reaper may consume deleting sessions.
+     */
+    public void setReaperMaxWriteCapacityPercent(int reaperMaxWriteCapacityPercent) {
+        this.reaperMaxWriteCapacityPercent = reaperMaxWriteCapacityPercent;
+    }
+
+    /**
+     * How long, in seconds, the number of sessions in the session table is cached before it is
+     * fetched again.
+     */
+    public void setSessionCountRefreshIntervalSeconds(int sessionCountRefreshIntervalSeconds) {
+        this.sessionCountRefreshIntervalSeconds = sessionCountRefreshIntervalSeconds;
+    }
+
+    /**
+     * By default the number of sessions reported by the store is approximated from the table's
+     * ItemCount, which DynamoDB updates every few hours and which also counts the chunk items of
+     * large sessions and the compression dictionary's items. When enabled the sessions are counted
+     * exactly with a parallel scan, using the same number of segments as the expired session
+     * reaper, which consumes read capacity for the whole table each time the count is refreshed.
+     */
+    public void setExactSessionCount(boolean exactSessionCount) {
+        this.exactSessionCount = exactSessionCount;
+    }
+
+    /**
+     * When enabled serialized sessions at least {@link #setCompressionThresholdBytes(int)} long
+     * are compressed with Deflate before being stored. Compressed and uncompressed sessions can
+     * always be read, whether or not this is enabled.
+     */
+    public void setCompressSessionData(boolean compressSessionData) {
+        this.compressSessionData = compressSessionData;
+    }
+
+    /**
+     * Serialized sessions smaller than this many bytes are stored uncompressed even when
+     * compression is enabled.
+     */
+    public void setCompressionThresholdBytes(int compressionThresholdBytes) {
+        this.compressionThresholdBytes = compressionThresholdBytes;
+    }
+
+    /**
+     * When enabled along with {@link #setCompressSessionData(boolean)}, sessions are compressed
+     * with a preset dictionary of the class names, field names and attribute names that sessions
+     * have in common, which shrinks small sessions far more than compressing each on its own. The
+     * dictionary is kept in the session table. If there is none yet, one is trained at startup from
+     * a sample of the stored sessions; until there are enough sessions to train on, sessions are
+     * compressed without a dictionary. Not supported together with the attribute map layout.
+     */
+    public void setCompressionDictionary(boolean compressionDictionary) {
+        this.compressionDictionary = compressionDictionary;
+    }
+
+    /**
+     * Number of stored sessions a new compression dictionary is trained on.
+     */
+    public void setCompressionDictionarySampleSize(int compressionDictionarySampleSize) {
+        this.compressionDictionarySampleSize = compressionDictionarySampleSize;
+    }
+
+    /**
+     * When enabled sessions are stored in a compact binary format in which strings, boxed
+     * primitives, dates, byte arrays and simple collections of them are written without Java
+     * serialization's class descriptors. Other attributes are still Java serialized, one by one.
+     * Sessions in either format can always be read, whether or not this is enabled.
+     */
+    public void setCompactSessionData(boolean compactSessionData) {
+        this.compactSessionData = compactSessionData;
+    }
+
+    /**
+     * Number of recently saved or loaded sessions to keep serialized in memory, or 0 to disable the
+     * cache. When a request for a session that isn't in memory arrives, e.g. in a non-sticky
+     * deployment, only the session's version is read from DynamoDB and the cached copy is used if
+     * the session hasn't been saved since. This saves network transfer, not read capacity, which
+     * DynamoDB charges for the whole item even when only its version is read. Not supported
+     * together with the attribute map layout.
+     */
+    public void setNearCacheSize(int nearCacheSize) {
+        this.nearCacheSize = nearCacheSize;
+    }
+
+    /**
+     * By default sessions are saved unconditionally, so two nodes saving the same session at once
+     * silently overwrite each other. When a policy is set, each save is a conditional write that
+     * only succeeds if the stored session is still the version this node last saved or loaded, and
+     * the policy decides what happens when it isn't: "retryMerge" merges in attributes added by the
+     * other node and saves again, "lastWriterWins" saves again as is, and "reject" fails the save.
+     * Not supported together with write behind or the attribute map layout.
+     */
+    public void setConflictPolicy(String conflictPolicy) {
+        this.conflictPolicy = SessionConflictPolicy.fromName(conflictPolicy);
+    }
+
+    /**
+     * @return Counts of the conflicting saves this manager has run into, or null if the manager
+     *         hasn't been initialized
+     */
+    public SessionConflictCounters getConflictCounters() {
+        return conflictCounters;
+    }
+
+    /**
+     * Set to true to record the latency of session loads, saves, removals, counts and reaper
+     * passes, the size of session data, the time spent converting sessions, and corrupt session
+     * and conflict counts, and register them as an MBean of type
+     * {@value SessionStorageMetrics#MBEAN_TYPE} alongside the manager's own. Off by default, in
+     * which case nothing is recorded.
+     */
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    /**
+     * Set to true to also record the time taken by each DynamoDB request and how often requests
+     * are throttled and retried, which are otherwise reported as 0. These come from the AWS SDK's
+     * per-request metrics, which make the SDK allocate and fill in a full set of timings and
+     * counters for every request, so they are off by default. Has no effect unless metrics are
+     * enabled.
+     */
+    public void setRequestMetricsEnabled(boolean requestMetricsEnabled) {
+        this.requestMetricsEnabled = requestMetricsEnabled;
+    }
+
+    /**
+     * Number of threads used to write and delete sessions concurrently when idle sessions are
+     * backed up, when sessions are saved on shutdown and when expired sessions are reaped. The
+     * default of 0 does these one session at a time on the thread running them, as Tomcat does.
+     */
+    public void setPersistenceThreads(int persistenceThreads) {
+        this.persistenceThreads = persistenceThreads;
+    }
+
+    /**
+     * Number of seconds to remember session IDs that were looked up and not found, or 0 to look
+     * every such ID up in DynamoDB each time. While an ID is remembered, requests carrying it are
+     * treated as having no session without reading the table or logging a warning, unless this
+     * node saves a session with that ID. In a non-sticky deployment, a session another node creates
+     * with an ID this node remembers as missing is only found once the ID has been forgotten.
+     */
+    public void setMissingSessionCacheSeconds(int missingSessionCacheSeconds) {
+        this.missingSessionCacheSeconds = missingSessionCacheSeconds;
+    }
+
+    /**
+     * Maximum number of missing session IDs to remember. Defaults to 10000.
+     */
+    public void setMissingSessionCacheSize(int missingSessionCacheSize) {
+        this.missingSessionCacheSize = missingSessionCacheSize;
+    }
+
+    /**
+     * @return Metrics recorded by this manager, or null if metrics are disabled or the manager
+     *         hasn't been initialized
+     */
+    public SessionStorageMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     protected void initInternal() throws LifecycleException {
+        if (writeBehind && attributeMapLayout) {
+            throw new AmazonClientException("Write behind can't be used with the attribute map layout. "
+                    + "Disable one of them in context.xml");
+        }
+        if (conflictPolicy != null && (writeBehind || attributeMapLayout)) {
+            throw new AmazonClientException("A conflict policy can't be used with write behind or the attribute "
+                    + "map layout. Disable one of them in context.xml");
+        }
+        if (nearCacheSize > 0 && attributeMapLayout) {
+            throw new AmazonClientException("The near cache can't be used with the attribute map layout. "
+                    + "Disable one of them in context.xml");
+        }
+        if (compressionDictionary && attributeMapLayout) {
+            throw new AmazonClientException("The compression dictionary can't be used with the attribute map "
+                    + "layout. Disable one of them in context.xml");
+        }
+        if ((writeBehind || attributeMapLayout) && hasSessionValve()) {
+            throw new AmazonClientException("DynamoDBSessionValve can't be used with write behind or the attribute "
+                    + "map layout. Disable one of them in context.xml");
+        }
+        if (!isValidPercent(reaperMaxReadCapacityPercent) || !isValidPercent(reaperMaxWriteCapacityPercent)) {
+            throw new AmazonClientException("Reaper capacity percentages specified in context.xml "
+                    + "must be between 1 and 100");
+        }
+        if (missingSessionCacheSeconds > 0 && missingSessionCacheSize < 2) {
+            throw new AmazonClientException("Missing session cache size specified in context.xml "
+                    + "must be at least 2");
+        }
+        if (persistenceThreads < 0) {
+            throw new AmazonClientException("Persistence threads specified in context.xml can't be negative");
+        }
+        if (metricsEnabled) {
+            metrics = new SessionStorageMetrics();
+        }
+        if (persistenceThreads > 0) {
+            persistenceExecutor = AsyncSessionStorage.createExecutor(persistenceThreads);
+        }
         AmazonDynamoDBClient dynamoClient = createDynamoClient();
         initDynamoTable(dynamoClient);
-        DynamoSessionStorage sessionStorage = createSessionStorage(dynamoClient);
-        setStore(new DynamoDBSessionStore(sessionStorage, deleteCorruptSessions));
-        new ExpiredSessionReaperExecutor(new ExpiredSessionReaper(sessionStorage));
+        classResolutionCache = new ClassResolutionCache(getWebappClassLoader());
+        sessionStorage = createSessionStorage(dynamoClient);
+        versionReader = new SessionVersionReader(dynamoClient, tableName);
+        SessionStorage storeStorage = sessionStorage;
+        Runnable reaper = createExpiredSessionReaper(dynamoClient, sessionStorage);
+        if (metrics != null) {
+            metrics.setConflictCounters(conflictCounters);
+            storeStorage = new InstrumentedSessionStorage(sessionStorage, metrics);
+            reaper = metrics.timeReaper(reaper);
+            registerMetrics();
+        }
+        sessionCountCache = new SessionCountCache(dynamoClient, tableName, storeStorage,
+                TimeUnit.SECONDS.toMillis(sessionCountRefreshIntervalSeconds),
+                exactSessionCount ? reaperScanSegments : 0);
+        MissingSessionCache missingSessionCache = null;
+        if (missingSessionCacheSeconds > 0) {
+            missingSessionCache = new MissingSessionCache(TimeUnit.SECONDS.toMillis(missingSessionCacheSeconds),
+                    missingSessionCacheSize);
+        }
+        setStore(new DynamoDBSessionStore.Builder(storeStorage).withDeleteCorruptSessions(deleteCorruptSessions)
+                .withSessionCountCache(sessionCountCache)
+                .withAsyncSessionStorage(createAsyncSessionStorage(storeStorage))
+                .withMissingSessionCache(missingSessionCache).build());
+        new ExpiredSessionReaperExecutor(reaper);
+    }
+
+    /**
+     * The valve detects stale sessions by comparing the version this node last saved or loaded
+     * with the stored one. With write behind the stored version lags behind until queued writes
+     * are flushed, and the attribute map layout stores no version at all.
+     */
+    private boolean hasSessionValve() {
+        if (getContext() == null) {
+            return false;
+        }
+        for (Valve valve : getContext().getPipeline().getValves()) {
+            if (valve instanceof DynamoDBSessionValve) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Registers the metrics MBean under the same context and host keys as the manager's own MBean.
+     * Failing to register isn't fatal since sessions can be stored without it.
+     */
+    private void registerMetrics() {
+        try {
+            metricsObjectName = new ObjectName(getDomain() + ":" + getObjectNameKeyProperties()
+                    .replaceFirst("type=Manager", "type=" + SessionStorageMetrics.MBEAN_TYPE));
+            Registry.getRegistry(null, null).getMBeanServer().registerMBean(metrics, metricsObjectName);
+        } catch (Exception e) {
+            logger.warn("Unable to register session storage metrics MBean", e);
+            metricsObjectName = null;
+        }
+    }
+
+    /**
+     * Checks whether another node has saved or removed the session since this node last saved or
+     * loaded it, in which case this node's in-memory copy should be released so the next lookup
+     * reads it from DynamoDB. Only the session's version is read from DynamoDB to find out.
+     *
+     * @return True if this node holds a stale copy of the session in memory
+     */
+    boolean isStale(String sessionId) {
+        if (sessions.get(sessionId) == null) {
+            return false;
+        }
+        Long storedVersion = versionReader.readVersion(sessionId);
+        Long localVersion = sessionStorage.getVersion(sessionId);
+        return storedVersion == null ? localVersion != null : !storedVersion.equals(localVersion);
+    }
+
+    /**
+     * Drops this node's in-memory copy of the session without expiring it or removing it from the
+     * store.
+     */
+    void releaseSession(String sessionId) {
+        sessions.remove(sessionId);
+        sessionStorage.release(sessionId);
+    }
+
+    /**
+     * Also lets the session storage forget what it recorded about the session once it's no longer
+     * held in memory.
+     */
+    @Override
+    protected void swapOut(Session session) throws IOException {
+        String sessionId = session.getIdInternal();
+        super.swapOut(session);
+        // Not if the session was left in memory, or has just been swapped back in
+        if (sessions.get(sessionId) == null) {
+            sessionStorage.release(sessionId);
+        }
+    }
+
+    /**
+     * Backs up idle sessions the same way {@link PersistentManagerBase} does, except that they're
+     * written concurrently when persistence threads are enabled. As there, each session is locked
+     * while it's checked and written, so it can't be accessed, expired or recycled meanwhile.
+     */
+    @Override
+    protected void processMaxIdleBackups() {
+        if (persistenceExecutor == null) {
+            super.processMaxIdleBackups();
+            return;
+        }
+        if (!getState().isAvailable() || maxIdleBackup < 0) {
+            return;
+        }
+        List<Session> idleSessions = new ArrayList<Session>();
+        List<Future<Void>> backups = new ArrayList<Future<Void>>();
+        for (final Session session : findSessions()) {
+            if (!isBackupDue(session)) {
+                continue;
+            }
+            idleSessions.add(session);
+            backups.add(persistenceExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    synchronized (session) {
+                        // The session may have been used or invalidated since it was found idle
+                        if (isBackupDue(session)) {
+                            writeSession(session);
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (int i = 0; i < backups.size(); i++) {
+            try {
+                backups.get(i).get();
+            } catch (ExecutionException e) {
+                logger.error("Unable to save session with id " + idleSessions.get(i).getIdInternal(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private boolean isBackupDue(Session session) {
+        if (!session.isValid()) {
+            return false;
+        }
+        long accessedTime = LAST_ACCESS_AT_START ? session.getLastAccessedTimeInternal()
+                : session.getThisAccessedTimeInternal();
+        return (System.currentTimeMillis() - accessedTime) / 1000 > maxIdleBackup;
+    }
+
+    /**
+     * Saves and releases all sessions the same way {@link PersistentManagerBase} does, except that
+     * they're written concurrently when persistence threads are enabled. Sessions that fail to
+     * save are left in memory.
+     */
+    @Override
+    public void unload() {
+        if (persistenceExecutor == null || getStore() == null) {
+            super.unload();
+            return;
+        }
+        List<Session> validSessions = new ArrayList<Session>();
+        for (Session session : findSessions()) {
+            if (session.isValid()) {
+                ((StandardSession) session).passivate();
+                validSessions.add(session);
+            }
+        }
+        for (Session session : getDynamoStore().saveAll(validSessions)) {
+            String sessionId = session.getIdInternal();
+            removeSuper(session);
+            session.recycle();
+            sessionStorage.release(sessionId);
+        }
+    }
+
+    private DynamoDBSessionStore getDynamoStore() {
+        return (DynamoDBSessionStore) getStore();
+    }
+
+    private AsyncSessionStorage createAsyncSessionStorage(SessionStorage sessionStorage) {
+        return persistenceExecutor == null ? null : new AsyncSessionStorage(sessionStorage, persistenceExecutor);
+    }
+
+    private static boolean isValidPercent(int percent) {
+        return percent > 0 && percent <= 100;
+    }
+
+    /**
+     * Creates a reaper limited to the configured share of the table's provisioned throughput.
+     */
+    private ExpiredSessionReaper createExpiredSessionReaper(AmazonDynamoDBClient dynamoClient,
+            DynamoSessionStorage sessionStorage) {
+        ProvisionedThroughputDescription throughput = dynamoClient.describeTable(tableName).getTable()
+                .getProvisionedThroughput();
+        CapacityRateLimiter readLimiter = new CapacityRateLimiter(
+                throughput.getReadCapacityUnits() * reaperMaxReadCapacityPercent / 100.0);
+        CapacityRateLimiter writeLimiter = new CapacityRateLimiter(
+                throughput.getWriteCapacityUnits() * reaperMaxWriteCapacityPercent / 100.0);
+        return new ExpiredSessionReaper.Builder(sessionStorage).withTotalSegments(reaperScanSegments)
+                .withExpiryAttribute(reapUsingExpiryAttribute).withRateLimiters(readLimiter, writeLimiter)
+                .withAsyncSessionStorage(createAsyncSessionStorage(sessionStorage)).build();
+    }
+
+    /**
+     * The webapp ClassLoader is replaced when the context reloads, which restarts the manager, so
+     * classes resolved through the previous one are forgotten.
+     */
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        ClassLoader webappClassLoader = getWebappClassLoader();
+        if (classResolutionCache.getClassLoader() != webappClassLoader) {
+            classResolutionCache.reset(webappClassLoader);
+        }
+        super.startInternal();
+    }
+
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+        sessionCountCache.shutdown();
+    }
+
+    @Override
+    protected void destroyInternal() throws LifecycleException {
+        if (writeBehindExecutor != null) {
+            writeBehindExecutor.shutdown();
+        }
+        if (persistenceExecutor != null) {
+            persistenceExecutor.shutdown();
+        }
+        if (metricsObjectName != null) {
+            Registry.getRegistry(null, null).unregisterComponent(metricsObjectName);
+            metricsObjectName = null;
+        }
+        super.destroyInternal();
     }
 
     private AmazonDynamoDBClient createDynamoClient() {
         AWSCredentialsProvider credentialsProvider = initCredentials();
         ClientConfiguration clientConfiguration = initClientConfiguration();
-        AmazonDynamoDBClient dynamoClient = new AmazonDynamoDBClient(credentialsProvider, clientConfiguration);
+        AmazonDynamoDBClient dynamoClient = metrics == null || !requestMetricsEnabled
+                ? new AmazonDynamoDBClient(credentialsProvider, clientConfiguration)
+                : new AmazonDynamoDBClient(credentialsProvider, clientConfiguration,
+                        new SessionMetricsRequestCollector(metrics));
         if (this.regionId != null) {
             dynamoClient.setRegion(RegionUtils.getRegion(this.regionId));
         }
@@ -238,12 +805,55 @@ public class DynamoDBSessionManager extends PersistentManagerBase {
 
     private DynamoSessionStorage createSessionStorage(AmazonDynamoDBClient dynamoClient) {
         DynamoDBMapper dynamoMapper = DynamoUtils.createDynamoMapper(dynamoClient, tableName);
-        return new DynamoSessionStorage(dynamoMapper, getSessionConverter());
+        if (attributeMapLayout) {
+            return new AttributeMapSessionStorage(dynamoClient, tableName, dynamoMapper,
+                    getSessionConverter(dynamoMapper),
+                    new AttributeMapSessionConverter(this, classResolutionCache), skipUnchangedSessionWrites);
+        }
+        WriteBehindQueue writeBehindQueue = null;
+        if (writeBehind) {
+            writeBehindQueue = new WriteBehindQueue(dynamoMapper);
+            writeBehindExecutor = new WriteBehindExecutor(writeBehindQueue, writeBehindFlushIntervalMillis);
+        }
+        SessionNearCache nearCache = null;
+        if (nearCacheSize > 0) {
+            nearCache = new SessionNearCache(dynamoClient, tableName, nearCacheSize);
+        }
+        DynamoSessionStorage sessionStorage = new DynamoSessionStorage.Builder(dynamoMapper,
+                getSessionConverter(dynamoMapper)).withSkipUnchangedWrites(skipUnchangedSessionWrites)
+                .withWriteBehindQueue(writeBehindQueue).withNearCache(nearCache).withConflictPolicy(conflictPolicy)
+                .withItemTable(new SessionItemTable(dynamoClient, tableName)).build();
+        conflictCounters = sessionStorage.getConflictCounters();
+        return sessionStorage;
+    }
+
+    private SessionConverter getSessionConverter(DynamoDBMapper dynamoMapper) {
+        // Sessions compressed by other nodes can always be read, whatever this node is configured with
+        CompressionDictionaryTable dictionaryTable = new CompressionDictionaryTable(dynamoMapper);
+        SessionDataCompression compression = new SessionDataCompression(null, Integer.MAX_VALUE,
+                new DeflateCompressionCodec(), new PresetDictionaryCompressionCodec(null, dictionaryTable));
+        if (compressSessionData) {
+            CompressionDictionary dictionary = null;
+            if (compressionDictionary) {
+                dictionary = dictionaryTable.loadOrTrain(compressionDictionarySampleSize, compression);
+            }
+            if (dictionary != null) {
+                compression = new SessionDataCompression(
+                        new PresetDictionaryCompressionCodec(dictionary, dictionaryTable), compressionThresholdBytes,
+                        new DeflateCompressionCodec());
+            } else {
+                compression = new SessionDataCompression(new DeflateCompressionCodec(), compressionThresholdBytes,
+                        new PresetDictionaryCompressionCodec(null, dictionaryTable));
+            }
+        }
+        SessionConverter sessionConverter = SessionConverter.createDefaultSessionConverter(this,
+                classResolutionCache, compression, compactSessionData);
+        return metrics == null ? sessionConverter
+                : InstrumentedSessionConverter.instrument(sessionConverter, metrics);
     }
 
-    private SessionConverter getSessionConverter() {
-        ClassLoader classLoader = getContext().getLoader().getClassLoader();
-        return SessionConverter.createDefaultSessionConverter(this, classLoader);
+    private ClassLoader getWebappClassLoader() {
+        return getContext().getLoader().getClassLoader();
     }
 
 }
@@ -15,10 +15,21 @@
 package com.amazonaws.services.dynamodb.sessionmanager;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
+import org.apache.catalina.LifecycleException;
 import org.apache.catalina.Session;
 import org.apache.catalina.session.StoreBase;
 import org.apache.juli.logging.Log;
@@ -28,22 +39,101 @@ import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionConversi
 import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
 
 /**
- * Session store implementation that loads and stores HTTP sessions from Amazon DynamoDB.
+ * Session store implementation that loads and stores HTTP sessions from Amazon DynamoDB. Sessions
+ * are read and written through a {@link SessionStorage}, normally a {@link DynamoSessionStorage}.
  */
 public class DynamoDBSessionStore extends StoreBase {
 
     private static final Log logger = LogFactory.getLog(DynamoDBSessionStore.class);
     private static final String name = "AmazonDynamoDBSessionStore";
     private static final String info = name + "/1.0";
+    /**
+     * Sessions deleted per call to the session storage when clearing the store.
+     */
+    private static final int CLEAR_BATCH_SIZE = 100;
 
     private final Set<String> sessionIds = Collections.synchronizedSet(new HashSet<String>());
-    private final DynamoSessionStorage sessionStorage;
+    private final SessionStorage sessionStorage;
     private final boolean deleteCorruptSessions;
+    private final SessionCountCache sessionCountCache;
+    private final AsyncSessionStorage asyncSessionStorage;
+    private final MissingSessionCache missingSessionCache;
+    private final ConcurrentMap<String, FutureTask<Session>> inFlightLoads =
+            new ConcurrentHashMap<String, FutureTask<Session>>();
+
+    public DynamoDBSessionStore(SessionStorage sessionStorage, boolean deleteCorruptSessions) {
+        this(new Builder(sessionStorage).withDeleteCorruptSessions(deleteCorruptSessions));
+    }
+
+    private DynamoDBSessionStore(Builder builder) {
+        ValidatorUtils.nonNull(builder.sessionStorage, "SessionStorage");
+        this.sessionStorage = builder.sessionStorage;
+        this.deleteCorruptSessions = builder.deleteCorruptSessions;
+        this.sessionCountCache = builder.sessionCountCache;
+        this.asyncSessionStorage = builder.asyncSessionStorage;
+        this.missingSessionCache = builder.missingSessionCache;
+    }
 
-    public DynamoDBSessionStore(DynamoSessionStorage sessionStorage, boolean deleteCorruptSessions) {
-        ValidatorUtils.nonNull(sessionStorage, "SessionStorage");
-        this.sessionStorage = sessionStorage;
-        this.deleteCorruptSessions = deleteCorruptSessions;
+    /**
+     * Builds a {@link DynamoDBSessionStore}. Everything not set is disabled.
+     */
+    public static class Builder {
+
+        private final SessionStorage sessionStorage;
+        private boolean deleteCorruptSessions;
+        private SessionCountCache sessionCountCache;
+        private AsyncSessionStorage asyncSessionStorage;
+        private MissingSessionCache missingSessionCache;
+
+        public Builder(SessionStorage sessionStorage) {
+            this.sessionStorage = sessionStorage;
+        }
+
+        /**
+         * @param deleteCorruptSessions
+         *            If true, sessions that can't be deserialized are deleted from the session
+         *            storage when they fail to load
+         */
+        public Builder withDeleteCorruptSessions(boolean deleteCorruptSessions) {
+            this.deleteCorruptSessions = deleteCorruptSessions;
+            return this;
+        }
+
+        /**
+         * @param sessionCountCache
+         *            If not null, {@link DynamoDBSessionStore#getSize()} is served from this cache
+         *            instead of counting the session table with a full scan
+         */
+        public Builder withSessionCountCache(SessionCountCache sessionCountCache) {
+            this.sessionCountCache = sessionCountCache;
+            return this;
+        }
+
+        /**
+         * @param asyncSessionStorage
+         *            If not null, {@link DynamoDBSessionStore#saveAll(Collection)} writes sessions
+         *            concurrently through this rather than one after another. It should wrap the
+         *            same storage.
+         */
+        public Builder withAsyncSessionStorage(AsyncSessionStorage asyncSessionStorage) {
+            this.asyncSessionStorage = asyncSessionStorage;
+            return this;
+        }
+
+        /**
+         * @param missingSessionCache
+         *            If not null, loads of sessions recently found to be missing return null
+         *            without reading the session storage or logging again, until the session is
+         *            saved
+         */
+        public Builder withMissingSessionCache(MissingSessionCache missingSessionCache) {
+            this.missingSessionCache = missingSessionCache;
+            return this;
+        }
+
+        public DynamoDBSessionStore build() {
+            return new DynamoDBSessionStore(this);
+        }
     }
 
     public String getInfo() {
@@ -62,17 +152,46 @@ public class DynamoDBSessionStore extends StoreBase {
             new Thread("dynamodb-session-manager-clear") {
                 @Override
                 public void run() {
-                    for (String sessionId : sessionsToDelete) {
-                        sessionStorage.deleteSession(sessionId);
-                    }
+                    deleteAll(sessionsToDelete);
                 }
             }.start();
             sessionIds.clear();
+            if (sessionCountCache != null) {
+                sessionCountCache.sessionsRemoved(sessionsToDelete.size());
+            }
+        }
+    }
+
+    /**
+     * Deletes the sessions in batches, logging any batch that fails and carrying on with the rest.
+     */
+    private void deleteAll(Collection<String> sessionIds) {
+        List<String> batch = new ArrayList<String>(CLEAR_BATCH_SIZE);
+        for (String sessionId : sessionIds) {
+            batch.add(sessionId);
+            if (batch.size() == CLEAR_BATCH_SIZE) {
+                deleteBatch(batch);
+                batch = new ArrayList<String>(CLEAR_BATCH_SIZE);
+            }
+        }
+        if (!batch.isEmpty()) {
+            deleteBatch(batch);
+        }
+    }
+
+    private void deleteBatch(List<String> sessionIds) {
+        try {
+            sessionStorage.deleteSessions(sessionIds);
+        } catch (RuntimeException e) {
+            logger.error("Unable to delete " + sessionIds.size() + " sessions while clearing the store", e);
         }
     }
 
     @Override
     public int getSize() throws IOException {
+        if (sessionCountCache != null) {
+            return sessionCountCache.getCount();
+        }
         return sessionStorage.count();
     }
 
@@ -81,11 +200,19 @@ public class DynamoDBSessionStore extends StoreBase {
         return sessionIds.toArray(new String[0]);
     }
 
+    /**
+     * Concurrent loads of the same session share a single read from the session storage, so a
+     * burst of requests for a session that is missing only looks for it once. Tomcat adds and
+     * activates each session it loads, so only the caller that made the read gets the session it
+     * returned. Callers that waited on it read the session again for an instance of their own.
+     */
     @Override
     public Session load(String id) throws ClassNotFoundException, IOException {
-        Session session = tryLoadSession(id);
+        if (missingSessionCache != null && missingSessionCache.isMissing(id)) {
+            return null;
+        }
+        Session session = loadOnce(id);
         if (session == null) {
-            logger.warn("Unable to load session with id " + id);
             return null;
         }
 
@@ -93,16 +220,123 @@ public class DynamoDBSessionStore extends StoreBase {
         return session;
     }
 
+    private Session loadOnce(final String id) throws IOException {
+        FutureTask<Session> load = new FutureTask<Session>(new Callable<Session>() {
+            @Override
+            public Session call() {
+                return loadOrRecordMissing(id);
+            }
+        });
+        FutureTask<Session> inFlightLoad = inFlightLoads.putIfAbsent(id, load);
+        if (inFlightLoad == null) {
+            try {
+                load.run();
+            } finally {
+                inFlightLoads.remove(id, load);
+            }
+            return getLoaded(id, load);
+        }
+        if (getLoaded(id, inFlightLoad) == null) {
+            return null;
+        }
+        return loadOrRecordMissing(id);
+    }
+
+    private Session getLoaded(String id, FutureTask<Session> load) throws IOException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for session " + id + " to load");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw (Error) e.getCause();
+        }
+    }
+
+    private Session loadOrRecordMissing(String id) {
+        Session session = tryLoadSession(id);
+        if (session == null) {
+            logger.warn("Unable to load session with id " + id);
+            if (missingSessionCache != null) {
+                missingSessionCache.recordMissing(id);
+            }
+        }
+        return session;
+    }
+
     @Override
     public void save(Session session) throws IOException {
         sessionStorage.saveSession(session);
-        sessionIds.add(session.getId());
+        saved(session);
+    }
+
+    /**
+     * Saves several sessions, concurrently if this store was given an {@link AsyncSessionStorage}.
+     * A session that fails to save is logged and skipped rather than failing the others.
+     *
+     * @return The sessions that were saved
+     */
+    public List<Session> saveAll(Collection<Session> sessions) {
+        List<Session> savedSessions = new ArrayList<Session>(sessions.size());
+        if (asyncSessionStorage == null) {
+            for (Session session : sessions) {
+                try {
+                    save(session);
+                    savedSessions.add(session);
+                } catch (Exception e) {
+                    logger.error("Unable to save session with id " + session.getId(), e);
+                }
+            }
+            return savedSessions;
+        }
+
+        List<Future<Void>> saves = new ArrayList<Future<Void>>(sessions.size());
+        for (Session session : sessions) {
+            saves.add(asyncSessionStorage.saveSessionAsync(session));
+        }
+        int i = 0;
+        for (Session session : sessions) {
+            try {
+                saves.get(i++).get();
+                saved(session);
+                savedSessions.add(session);
+            } catch (ExecutionException e) {
+                logger.error("Unable to save session with id " + session.getId(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return savedSessions;
+    }
+
+    private void saved(Session session) {
+        if (missingSessionCache != null) {
+            missingSessionCache.invalidate(session.getId());
+        }
+        if (sessionIds.add(session.getId()) && sessionCountCache != null) {
+            sessionCountCache.sessionAdded();
+        }
     }
 
     @Override
     public void remove(String id) throws IOException {
         sessionStorage.deleteSession(id);
-        sessionIds.remove(id);
+        if (sessionIds.remove(id) && sessionCountCache != null) {
+            sessionCountCache.sessionsRemoved(1);
+        }
+    }
+
+    /**
+     * Writes out any queued saves once the manager has finished unloading its sessions.
+     */
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        sessionStorage.flush();
+        super.stopInternal();
     }
 
     private Session tryLoadSession(String id) {
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+
+import org.apache.catalina.Manager;
+import org.apache.catalina.Session;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Valve that keeps sessions in step with DynamoDB request by request, for deployments where
+ * consecutive requests for a session can be handled by different nodes. Add it to the context
+ * along with a {@link DynamoDBSessionManager}:
+ *
+ * <pre>
+ * &lt;Valve className="com.amazonaws.services.dynamodb.sessionmanager.DynamoDBSessionValve" /&gt;
+ * </pre>
+ *
+ * At the start of a request the in-memory copy of the requested session is dropped if another node
+ * has saved or removed it since, so it is read from DynamoDB again. The copy is kept while other
+ * requests on this node are using it. Once the application has
+ * finished with the request the session is saved, before the response is completed so the next
+ * request sees the changes whichever node handles it. With the manager's default settings unchanged
+ * sessions aren't written. Optionally the in-memory copy is dropped once no request is using it, so
+ * nodes hold no sessions between requests.
+ * <p>
+ * Staleness is detected through the session's version, so the manager refuses to start with this
+ * valve when write behind or the attribute map layout is enabled: with write behind the stored
+ * version lags behind this node's own saves, and the attribute map layout doesn't store a version.
+ */
+public class DynamoDBSessionValve extends ValveBase {
+
+    private static final Log logger = LogFactory.getLog(DynamoDBSessionValve.class);
+
+    /**
+     * Number of requests in progress on this node for each session.
+     */
+    private final Map<String, Integer> activeRequests = new HashMap<String, Integer>();
+
+    private boolean releaseSessionsAfterRequest = false;
+
+    public DynamoDBSessionValve() {
+        super(true);
+    }
+
+    /**
+     * When enabled a session is dropped from memory as soon as no request on this node is using
+     * it, rather than when it has been idle long enough to be swapped out. Every request then reads
+     * its session from DynamoDB, so this is best combined with the manager's near cache.
+     */
+    public void setReleaseSessionsAfterRequest(boolean releaseSessionsAfterRequest) {
+        this.releaseSessionsAfterRequest = releaseSessionsAfterRequest;
+    }
+
+    @Override
+    public void invoke(Request request, Response response) throws IOException, ServletException {
+        Manager manager = request.getContext().getManager();
+        if (!(manager instanceof DynamoDBSessionManager)) {
+            getNext().invoke(request, response);
+            return;
+        }
+        DynamoDBSessionManager dynamoManager = (DynamoDBSessionManager) manager;
+
+        String requestedSessionId = request.getRequestedSessionId();
+        if (requestedSessionId != null && requestStarted(requestedSessionId)) {
+            releaseIfStale(dynamoManager, requestedSessionId);
+        }
+        try {
+            getNext().invoke(request, response);
+        } finally {
+            if (requestedSessionId != null) {
+                requestFinished(requestedSessionId);
+            }
+            Session session = request.getSessionInternal(false);
+            if (session != null && !request.isAsyncStarted()) {
+                persist(dynamoManager, session);
+            }
+        }
+    }
+
+    private void releaseIfStale(DynamoDBSessionManager manager, String sessionId) {
+        try {
+            if (!manager.isStale(sessionId)) {
+                return;
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to check whether session " + sessionId + " is up to date", e);
+            return;
+        }
+        synchronized (activeRequests) {
+            // Another request may have started using the in-memory copy since
+            if (activeRequests.get(sessionId) == 1) {
+                manager.releaseSession(sessionId);
+            }
+        }
+    }
+
+    private void persist(DynamoDBSessionManager manager, Session session) {
+        if (!session.isValid()) {
+            // Expiring the session has already removed it from the store
+            return;
+        }
+        try {
+            manager.getStore().save(session);
+        } catch (Exception e) {
+            // Left for the manager's periodic backup to retry
+            logger.error("Unable to save session " + session.getIdInternal() + " after request", e);
+            return;
+        }
+        if (releaseSessionsAfterRequest) {
+            synchronized (activeRequests) {
+                if (!activeRequests.containsKey(session.getIdInternal())) {
+                    manager.releaseSession(session.getIdInternal());
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks a request for the session as in progress before the session is looked up, so it can't
+     * be released from under the request.
+     *
+     * @return True if no other request on this node is using the session
+     */
+    private boolean requestStarted(String sessionId) {
+        synchronized (activeRequests) {
+            Integer count = activeRequests.get(sessionId);
+            activeRequests.put(sessionId, count == null ? 1 : count + 1);
+            return count == null;
+        }
+    }
+
+    private void requestFinished(String sessionId) {
+        synchronized (activeRequests) {
+            Integer count = activeRequests.get(sessionId);
+            if (count == null || count <= 1) {
+                activeRequests.remove(sessionId);
+            } else {
+                activeRequests.put(sessionId, count - 1);
+            }
+        }
+    }
+}
@@ -15,9 +15,11 @@
 package com.amazonaws.services.dynamodb.sessionmanager;
 
 import java.nio.ByteBuffer;
+import java.util.List;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIgnore;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
 
 @DynamoDBTable(tableName = DynamoDBSessionManager.DEFAULT_TABLE_NAME)
@@ -25,9 +27,18 @@ public class DynamoSessionItem {
 
     public static final String SESSION_ID_ATTRIBUTE_NAME = "sessionId";
     public static final String SESSION_DATA_ATTRIBUTE_NAME = "sessionData";
+    public static final String EXPIRES_AT_ATTRIBUTE_NAME = "expiresAt";
+    public static final String CHUNK_COUNT_ATTRIBUTE_NAME = "chunkCount";
+    public static final String CHUNK_SET_ID_ATTRIBUTE_NAME = "chunkSetId";
+    public static final String VERSION_ATTRIBUTE_NAME = "version";
 
     private String sessionId;
     private ByteBuffer sessionData;
+    private Long expiresAt;
+    private Integer chunkCount;
+    private String chunkSetId;
+    private Long version;
+    private List<ByteBuffer> sessionDataChunks;
 
     public DynamoSessionItem() {
     }
@@ -54,4 +65,69 @@ public class DynamoSessionItem {
         this.sessionData = sessionData;
     }
 
+    /**
+     * @return Time, in seconds since the epoch, after which the session has expired, or null if
+     *         the session never expires. Suitable for use as the table's DynamoDB TTL attribute.
+     */
+    @DynamoDBAttribute(attributeName = EXPIRES_AT_ATTRIBUTE_NAME)
+    public Long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(Long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @return Number of chunk items the session data is split across, or null if the session data
+     *         is stored in this item. See {@link SessionItemChunker}.
+     */
+    @DynamoDBAttribute(attributeName = CHUNK_COUNT_ATTRIBUTE_NAME)
+    public Integer getChunkCount() {
+        return chunkCount;
+    }
+
+    public void setChunkCount(Integer chunkCount) {
+        this.chunkCount = chunkCount;
+    }
+
+    /**
+     * @return ID of the set of chunk items holding the session data, or null if the session data
+     *         is stored in this item. See {@link SessionItemChunker}.
+     */
+    @DynamoDBAttribute(attributeName = CHUNK_SET_ID_ATTRIBUTE_NAME)
+    public String getChunkSetId() {
+        return chunkSetId;
+    }
+
+    public void setChunkSetId(String chunkSetId) {
+        this.chunkSetId = chunkSetId;
+    }
+
+    /**
+     * @return Number of times the session has been saved, or null for items written before
+     *         sessions were versioned. See {@link SessionNearCache}.
+     */
+    @DynamoDBAttribute(attributeName = VERSION_ATTRIBUTE_NAME)
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    /**
+     * @return Session data of a chunked session, in order, once the chunks have been loaded. Read
+     *         in place of {@link #getSessionData()} when not null.
+     */
+    @DynamoDBIgnore
+    public List<ByteBuffer> getSessionDataChunks() {
+        return sessionDataChunks;
+    }
+
+    public void setSessionDataChunks(List<ByteBuffer> sessionDataChunks) {
+        this.sessionDataChunks = sessionDataChunks;
+    }
+
 }
@@ -14,56 +14,816 @@
  */
 package com.amazonaws.services.dynamodb.sessionmanager;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.catalina.Session;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionConverter;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionMerge;
 import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.FailedBatch;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig.ConsistentReads;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedScanList;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
 
-public class DynamoSessionStorage {
+/**
+ * {@link SessionStorage} backed by a DynamoDB table, read and written through a
+ * {@link DynamoDBMapper}.
+ */
+public class DynamoSessionStorage implements CapacityReportingSessionStorage {
+
+    private static final Log logger = LogFactory.getLog(DynamoSessionStorage.class);
+
+    /**
+     * Number of times a save is retried after losing a race with another node before giving up.
+     */
+    static final int MAX_CONFLICT_RETRIES = 3;
+
+    /**
+     * Number of times a chunked session's manifest and chunks are read before a missing chunk is
+     * reported.
+     */
+    static final int MAX_CHUNK_READ_ATTEMPTS = 3;
+
+    /**
+     * Write capacity recorded for a delete made through the mapper, which can't report what the
+     * delete consumed. Deleting a session larger than 1KB consumes more, which the caller's limiter
+     * only finds out about by being throttled.
+     */
+    static final double MAPPER_DELETE_WRITE_CAPACITY_UNITS = 1;
+
+    private static final DynamoDBMapperConfig CONSISTENT_READS = new DynamoDBMapperConfig(
+            ConsistentReads.CONSISTENT);
 
     private final DynamoDBMapper mapper;
     private final SessionConverter sessionConverter;
+    private final SessionChangeDetector changeDetector;
+    private final WriteBehindQueue writeBehindQueue;
+    private final SessionItemChunker chunker;
+    private final SessionNearCache nearCache;
+    private final SessionConflictPolicy conflictPolicy;
+    private final SessionItemTable itemTable;
+    private final SessionConflictCounters conflictCounters = new SessionConflictCounters();
+
+    /**
+     * Manifests of sessions last written or read by this instance that were too large for a single
+     * item, so their chunks can be deleted once the session is rewritten or removed.
+     */
+    private final ConcurrentMap<String, DynamoSessionItem> chunkManifests =
+            new ConcurrentHashMap<String, DynamoSessionItem>();
+
+    /**
+     * Version of sessions last written or read by this instance, which the next save increments.
+     */
+    private final ConcurrentMap<String, Long> versions = new ConcurrentHashMap<String, Long>();
 
     public DynamoSessionStorage(DynamoDBMapper dynamoMapper, SessionConverter sessionConverter) {
-        ValidatorUtils.nonNull(dynamoMapper, "DynamoDBMapper");
-        ValidatorUtils.nonNull(sessionConverter, "SessionConverter");
-        this.mapper = dynamoMapper;
-        this.sessionConverter = sessionConverter;
+        this(new Builder(dynamoMapper, sessionConverter));
     }
 
+    private DynamoSessionStorage(Builder builder) {
+        ValidatorUtils.nonNull(builder.mapper, "DynamoDBMapper");
+        ValidatorUtils.nonNull(builder.sessionConverter, "SessionConverter");
+        this.mapper = builder.mapper;
+        this.sessionConverter = builder.sessionConverter;
+        this.changeDetector = builder.skipUnchangedWrites ? new SessionChangeDetector() : null;
+        this.writeBehindQueue = builder.writeBehindQueue;
+        this.chunker = new SessionItemChunker(builder.mapper);
+        this.nearCache = builder.nearCache;
+        this.conflictPolicy = builder.conflictPolicy;
+        this.itemTable = builder.itemTable;
+        if (writeBehindQueue != null && changeDetector != null) {
+            writeBehindQueue.setListener(new FingerprintRecorder());
+        }
+    }
+
+    /**
+     * Builds a {@link DynamoSessionStorage} with any of the optional write and read strategies
+     * enabled. Everything not set is disabled, as with
+     * {@link DynamoSessionStorage#DynamoSessionStorage(DynamoDBMapper, SessionConverter)}.
+     */
+    public static class Builder {
+
+        private final DynamoDBMapper mapper;
+        private final SessionConverter sessionConverter;
+        private boolean skipUnchangedWrites;
+        private WriteBehindQueue writeBehindQueue;
+        private SessionNearCache nearCache;
+        private SessionConflictPolicy conflictPolicy;
+        private SessionItemTable itemTable;
+
+        public Builder(DynamoDBMapper dynamoMapper, SessionConverter sessionConverter) {
+            this.mapper = dynamoMapper;
+            this.sessionConverter = sessionConverter;
+        }
+
+        /**
+         * @param skipUnchangedWrites
+         *            If true, saving a session whose serialized data is identical to what was last
+         *            written to or read from DynamoDB by this instance is a no-op
+         */
+        public Builder withSkipUnchangedWrites(boolean skipUnchangedWrites) {
+            this.skipUnchangedWrites = skipUnchangedWrites;
+            return this;
+        }
+
+        /**
+         * @param writeBehindQueue
+         *            If not null, saved sessions are handed to this queue to be written in the
+         *            background instead of being written before
+         *            {@link DynamoSessionStorage#saveSession(Session)} returns
+         */
+        public Builder withWriteBehindQueue(WriteBehindQueue writeBehindQueue) {
+            this.writeBehindQueue = writeBehindQueue;
+            return this;
+        }
+
+        /**
+         * @param nearCache
+         *            If not null, sessions written or read by this instance are kept in this cache
+         *            and only read from DynamoDB again once their version has changed
+         */
+        public Builder withNearCache(SessionNearCache nearCache) {
+            this.nearCache = nearCache;
+            return this;
+        }
+
+        /**
+         * @param conflictPolicy
+         *            If not null, sessions are only written if the stored version is still the one
+         *            this instance last wrote or read, and this policy decides what happens
+         *            otherwise. Writes made through the write behind queue are never conditional.
+         */
+        public Builder withConflictPolicy(SessionConflictPolicy conflictPolicy) {
+            this.conflictPolicy = conflictPolicy;
+            return this;
+        }
+
+        /**
+         * @param itemTable
+         *            If not null, single sessions are read, written and deleted through this table
+         *            instead of the mapper. Scans, batch operations and chunks always use the mapper.
+         */
+        public Builder withItemTable(SessionItemTable itemTable) {
+            this.itemTable = itemTable;
+            return this;
+        }
+
+        public DynamoSessionStorage build() {
+            return new DynamoSessionStorage(this);
+        }
+    }
+
+    @Override
     public int count() {
-        return mapper.count(DynamoSessionItem.class, new DynamoDBScanExpression());
+        return mapper.count(DynamoSessionItem.class, createSessionsScanExpression());
+    }
+
+    /**
+     * Counts the sessions in one segment of a parallel scan of the session table.
+     *
+     * @param segment
+     *            Segment to count, from 0 to totalSegments - 1
+     * @param totalSegments
+     *            Number of segments the table is divided into
+     */
+    @Override
+    public int count(int segment, int totalSegments) {
+        return mapper.count(DynamoSessionItem.class,
+                createSessionsScanExpression().withSegment(segment).withTotalSegments(totalSegments));
     }
 
+    @Override
     public Session loadSession(String sessionId) {
-        DynamoSessionItem sessionItem = mapper.load(new DynamoSessionItem(sessionId));
-        if (sessionItem != null) {
-            return sessionConverter.toSession(sessionItem);
-        } else {
+        Session session = loadLocally(sessionId);
+        if (session != null) {
+            return session;
+        }
+        DynamoSessionItem sessionItem = loadItem(sessionId, false);
+        return sessionItem == null ? null : loaded(sessionItem);
+    }
+
+    /**
+     * Sessions not pending in the write behind queue or held in the near cache are read with
+     * BatchGetItem calls of up to 100 items.
+     */
+    @Override
+    public Map<String, Session> loadSessions(Collection<String> sessionIds) {
+        Map<String, Session> sessions = new HashMap<String, Session>();
+        List<DynamoSessionItem> keys = new ArrayList<DynamoSessionItem>();
+        for (String sessionId : sessionIds) {
+            Session session = loadLocally(sessionId);
+            if (session != null) {
+                sessions.put(sessionId, session);
+            } else {
+                keys.add(new DynamoSessionItem(sessionId));
+            }
+        }
+        if (keys.isEmpty()) {
+            return sessions;
+        }
+        for (List<Object> sessionItems : mapper.batchLoad(keys).values()) {
+            for (Object sessionItem : sessionItems) {
+                Session session = loaded((DynamoSessionItem) sessionItem);
+                if (session != null) {
+                    sessions.put(session.getId(), session);
+                }
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * @return The session if its latest state is pending in the write behind queue or held in
+     *         the near cache, otherwise null
+     */
+    private Session loadLocally(String sessionId) {
+        if (writeBehindQueue != null) {
+            DynamoSessionItem pendingItem = writeBehindQueue.getPending(sessionId);
+            if (pendingItem != null) {
+                // Its fingerprint is recorded once the queued write has been flushed
+                Session session = sessionConverter.toSession(pendingItem);
+                recordVersion(pendingItem);
+                return session;
+            }
+        }
+        DynamoSessionItem sessionItem = nearCache == null ? null : nearCache.get(sessionId);
+        if (sessionItem == null) {
+            return null;
+        }
+        recordChunkManifest(sessionItem);
+        return toLoadedSession(sessionItem);
+    }
+
+    /**
+     * Converts a session item just read from DynamoDB, loading its chunks first.
+     *
+     * @return The session, or null if it was removed while its chunks were being read
+     */
+    private Session loaded(DynamoSessionItem sessionItem) {
+        sessionItem = withChunks(sessionItem);
+        if (sessionItem == null) {
             return null;
         }
+        if (nearCache != null) {
+            nearCache.put(sessionItem);
+        }
+        return toLoadedSession(sessionItem);
     }
 
+    private Session toLoadedSession(DynamoSessionItem sessionItem) {
+        Session session = sessionConverter.toSession(sessionItem);
+        recordVersion(sessionItem);
+        if (changeDetector != null) {
+            changeDetector.recordPersisted(sessionItem);
+        }
+        return session;
+    }
+
+    @Override
     public void deleteSession(String sessionId) {
-        mapper.delete(new DynamoSessionItem(sessionId));
+        delete(sessionId, null);
     }
 
+    /**
+     * Asks DynamoDB for the write capacity consumed when deleting through a
+     * {@link SessionItemTable}. {@link DynamoDBMapper} doesn't report it, so without one
+     * {@link #MAPPER_DELETE_WRITE_CAPACITY_UNITS} is reported instead.
+     */
+    @Override
+    public void deleteSession(String sessionId, CapacityListener writeCapacityListener) {
+        ValidatorUtils.nonNull(writeCapacityListener, "WriteCapacityListener");
+        delete(sessionId, writeCapacityListener);
+    }
+
+    private void delete(String sessionId, CapacityListener writeCapacityListener) {
+        DynamoSessionItem chunkManifest = forget(sessionId);
+        if (itemTable != null) {
+            ConsumedCapacity consumedCapacity = itemTable.delete(sessionId,
+                    writeCapacityListener == null ? ReturnConsumedCapacity.NONE : ReturnConsumedCapacity.TOTAL);
+            reportConsumedCapacity(writeCapacityListener, consumedCapacity);
+        } else {
+            mapper.delete(new DynamoSessionItem(sessionId));
+            if (writeCapacityListener != null) {
+                writeCapacityListener.consumed(MAPPER_DELETE_WRITE_CAPACITY_UNITS);
+            }
+        }
+        if (chunkManifest != null) {
+            chunker.deleteChunks(chunkManifest);
+            if (writeCapacityListener != null) {
+                writeCapacityListener.consumed(chunker.getWriteCapacityUnits(chunkManifest));
+            }
+        }
+    }
+
+    /**
+     * Passes on the capacity reported by a request made with ReturnConsumedCapacity set. Does
+     * nothing if there is no listener or no capacity was reported.
+     */
+    static void reportConsumedCapacity(CapacityListener capacityListener, ConsumedCapacity consumedCapacity) {
+        if (capacityListener != null && consumedCapacity != null && consumedCapacity.getCapacityUnits() != null) {
+            capacityListener.consumed(consumedCapacity.getCapacityUnits());
+        }
+    }
+
+    /**
+     * Deletes the sessions with BatchWriteItem calls of up to 25 items. Every batch is attempted
+     * even if some fail, and the chunks of the sessions that were deleted are removed too.
+     *
+     * @throws AmazonClientException
+     *             If some of the sessions couldn't be deleted
+     */
+    @Override
+    public void deleteSessions(Collection<String> sessionIds) {
+        List<DynamoSessionItem> sessionItems = new ArrayList<DynamoSessionItem>();
+        List<DynamoSessionItem> chunkedSessions = new ArrayList<DynamoSessionItem>();
+        for (String sessionId : sessionIds) {
+            DynamoSessionItem chunkManifest = forget(sessionId);
+            if (chunkManifest != null) {
+                chunkedSessions.add(chunkManifest);
+            }
+            sessionItems.add(new DynamoSessionItem(sessionId));
+        }
+        if (sessionItems.isEmpty()) {
+            return;
+        }
+        List<FailedBatch> failedBatches = mapper.batchDelete(sessionItems);
+        Set<String> failedSessionIds = getFailedSessionIds(failedBatches);
+        for (DynamoSessionItem chunkManifest : chunkedSessions) {
+            // Chunks of sessions still stored are kept so those sessions can still be read
+            if (!failedSessionIds.contains(chunkManifest.getSessionId())) {
+                chunker.deleteChunks(chunkManifest);
+            }
+        }
+        if (!failedBatches.isEmpty()) {
+            throw new AmazonClientException("Unable to delete " + failedBatches.size() + " batches of sessions",
+                    failedBatches.get(0).getException());
+        }
+    }
+
+    private static Set<String> getFailedSessionIds(List<FailedBatch> failedBatches) {
+        Set<String> failedSessionIds = new HashSet<String>();
+        for (FailedBatch failedBatch : failedBatches) {
+            for (List<WriteRequest> writeRequests : failedBatch.getUnprocessedItems().values()) {
+                for (WriteRequest writeRequest : writeRequests) {
+                    failedSessionIds.add(writeRequest.getDeleteRequest().getKey()
+                            .get(DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME).getS());
+                }
+            }
+        }
+        return failedSessionIds;
+    }
+
+    /**
+     * Forgets the versions, fingerprints and chunk manifests this instance recorded for the
+     * session, once the session is no longer held in memory. Its queued write and near cache copy
+     * are kept, and what they hold is recorded again if the session is loaded back from them.
+     */
+    public void release(String sessionId) {
+        if (changeDetector != null) {
+            changeDetector.forget(sessionId);
+        }
+        versions.remove(sessionId);
+        chunkManifests.remove(sessionId);
+    }
+
+    /**
+     * Drops everything this instance has recorded or queued for the session.
+     *
+     * @return Manifest of the session's chunks, if it was last known to be chunked
+     */
+    private DynamoSessionItem forget(String sessionId) {
+        // Cancelled first so a write being flushed can't record its fingerprint again afterwards
+        if (writeBehindQueue != null) {
+            writeBehindQueue.cancel(sessionId);
+        }
+        if (changeDetector != null) {
+            changeDetector.forget(sessionId);
+        }
+        if (nearCache != null) {
+            nearCache.remove(sessionId);
+        }
+        versions.remove(sessionId);
+        return chunkManifests.remove(sessionId);
+    }
+
+    /**
+     * @throws SessionConflictException
+     *             If another node saved the session since this instance last wrote or read it, and
+     *             the conflict policy is {@link SessionConflictPolicy#REJECT} or the save kept
+     *             losing to other nodes
+     */
+    @Override
     public void saveSession(Session session) {
-        mapper.save(sessionConverter.toSessionItem(session));
+        DynamoSessionItem sessionItem = sessionConverter.toSessionItem(session);
+        if (changeDetector == null) {
+            write(sessionItem, session);
+            return;
+        }
+        byte[] fingerprint = changeDetector.fingerprintIfChanged(sessionItem);
+        if (fingerprint == null) {
+            return;
+        }
+        DynamoSessionItem writtenItem = write(sessionItem, session);
+        if (writeBehindQueue != null && writeBehindQueue.getPending(writtenItem.getSessionId()) == writtenItem) {
+            // Recorded by the FingerprintRecorder once the write is durable
+            return;
+        }
+        if (writtenItem == sessionItem) {
+            changeDetector.recordPersisted(sessionItem.getSessionId(), fingerprint);
+        } else {
+            // Merged with the stored session, so the data written differs
+            changeDetector.recordPersisted(writtenItem);
+        }
+    }
+
+    /**
+     * @return Version of the session as last written or read by this instance, or null if it
+     *         hasn't written or read a versioned copy of the session
+     */
+    public Long getVersion(String sessionId) {
+        return versions.get(sessionId);
+    }
+
+    public SessionConflictCounters getConflictCounters() {
+        return conflictCounters;
     }
 
+    /**
+     * Writes out any saves that are still queued to be written in the background.
+     */
+    @Override
+    public void flush() {
+        if (writeBehindQueue != null) {
+            writeBehindQueue.flush();
+        }
+        chunker.deleteRetiredChunks(true);
+    }
+
+    /**
+     * Writes the session item, resolving conflicts with other nodes' writes according to the
+     * conflict policy.
+     *
+     * @return The session item that was written, which differs from the one passed in if it had
+     *         to be merged with the stored session
+     */
+    private DynamoSessionItem write(DynamoSessionItem sessionItem, Session session) {
+        for (int attempt = 1;; attempt++) {
+            try {
+                writeNextVersion(sessionItem);
+                return sessionItem;
+            } catch (ConditionalCheckFailedException e) {
+                sessionItem = resolveConflict(sessionItem, session, attempt, e);
+            }
+        }
+    }
+
+    /**
+     * Sessions too large for a single item, and sessions that were chunked until now, are written
+     * synchronously even with write behind enabled so the manifest and its chunks stay in step.
+     */
+    private void writeNextVersion(DynamoSessionItem sessionItem) {
+        String sessionId = sessionItem.getSessionId();
+        Long previousVersion = versions.get(sessionId);
+        sessionItem.setVersion(previousVersion == null ? 1L : previousVersion + 1);
+        DynamoSessionItem previousChunkManifest = chunkManifests.get(sessionId);
+        if (chunker.needsChunking(sessionItem)) {
+            if (writeBehindQueue != null) {
+                writeBehindQueue.cancel(sessionId);
+            }
+            DynamoSessionItem chunkManifest = chunker.writeChunks(sessionItem);
+            try {
+                save(chunkManifest, previousVersion);
+            } catch (RuntimeException e) {
+                chunker.deleteChunks(chunkManifest);
+                throw e;
+            }
+            chunkManifests.put(sessionId, chunkManifest);
+            // So a copy read back from the near cache still refers to its chunks
+            sessionItem.setChunkSetId(chunkManifest.getChunkSetId());
+            sessionItem.setChunkCount(chunkManifest.getChunkCount());
+        } else if (writeBehindQueue != null && previousChunkManifest == null) {
+            writeBehindQueue.enqueue(sessionItem);
+        } else {
+            if (writeBehindQueue != null) {
+                writeBehindQueue.cancel(sessionId);
+            }
+            save(sessionItem, previousVersion);
+            chunkManifests.remove(sessionId);
+        }
+        if (previousChunkManifest != null) {
+            // Other nodes may have just read the previous manifest and not its chunks yet
+            chunker.retireChunks(previousChunkManifest);
+        }
+        recordVersion(sessionItem);
+        if (nearCache != null) {
+            nearCache.put(sessionItem);
+        }
+    }
+
+    /**
+     * Writes the item, conditional on the stored version still being the previous version if
+     * there is a conflict policy.
+     */
+    private void save(DynamoSessionItem sessionItem, Long previousVersion) {
+        ExpectedAttributeValue expectedVersion = null;
+        if (conflictPolicy != null) {
+            expectedVersion = previousVersion == null ? new ExpectedAttributeValue(false)
+                    : new ExpectedAttributeValue(new AttributeValue().withN(previousVersion.toString()));
+        }
+        if (itemTable != null) {
+            itemTable.save(sessionItem, expectedVersion);
+        } else if (expectedVersion == null) {
+            mapper.save(sessionItem);
+        } else {
+            mapper.save(sessionItem, new DynamoDBSaveExpression()
+                    .withExpectedEntry(DynamoSessionItem.VERSION_ATTRIBUTE_NAME, expectedVersion));
+        }
+    }
+
+    private DynamoSessionItem loadItem(String sessionId, boolean consistentRead) {
+        if (itemTable != null) {
+            return itemTable.load(sessionId, consistentRead);
+        }
+        return consistentRead ? mapper.load(new DynamoSessionItem(sessionId), CONSISTENT_READS)
+                : mapper.load(new DynamoSessionItem(sessionId));
+    }
+
+    /**
+     * Catches up with the stored session after another node saved it first.
+     *
+     * @return The session item to try writing next
+     */
+    private DynamoSessionItem resolveConflict(DynamoSessionItem sessionItem, Session session, int attempt,
+            ConditionalCheckFailedException e) {
+        String sessionId = sessionItem.getSessionId();
+        conflictCounters.conflict();
+        if (conflictPolicy == SessionConflictPolicy.REJECT || attempt > MAX_CONFLICT_RETRIES) {
+            conflictCounters.rejected();
+            throw new SessionConflictException("Session " + sessionId + " was saved by another node since it was "
+                    + "last read", e);
+        }
+        logger.debug("Session " + sessionId + " was saved by another node since it was last read, resolving with "
+                + conflictPolicy);
+
+        DynamoSessionItem storedItem = loadItem(sessionId, true);
+        if (storedItem == null) {
+            // Deleted since, so the next write is conditional on it not existing
+            versions.remove(sessionId);
+            chunkManifests.remove(sessionId);
+        } else {
+            recordVersion(storedItem);
+            recordChunkManifest(storedItem);
+        }
+
+        if (conflictPolicy == SessionConflictPolicy.LAST_WRITER_WINS) {
+            conflictCounters.overwritten();
+            return sessionItem;
+        }
+        if (storedItem != null) {
+            SessionMerge.mergeStoredAttributes(session, toSession(storedItem));
+            sessionItem = sessionConverter.toSessionItem(session);
+        }
+        conflictCounters.merged();
+        return sessionItem;
+    }
+
+    private void recordVersion(DynamoSessionItem sessionItem) {
+        if (sessionItem.getVersion() != null) {
+            versions.put(sessionItem.getSessionId(), sessionItem.getVersion());
+        } else {
+            versions.remove(sessionItem.getSessionId());
+        }
+    }
+
+    /**
+     * Loads the chunks of chunked sessions before converting them.
+     */
+    private Session toSession(DynamoSessionItem sessionItem) {
+        DynamoSessionItem withChunks = withChunks(sessionItem);
+        if (withChunks == null) {
+            throw new MissingSessionChunkException("Session " + sessionItem.getSessionId()
+                    + " was removed while its chunks were being read");
+        }
+        return sessionConverter.toSession(withChunks);
+    }
+
+    /**
+     * Loads the chunks of a chunked session item. A missing chunk means another node rewrote or
+     * removed the session after this manifest was read, so the manifest is read again with a
+     * strongly consistent read and its chunks are loaded instead.
+     *
+     * @return The session item with its chunks, which is a newer copy if the session had been
+     *         rewritten, or null if the session has been removed since
+     */
+    private DynamoSessionItem withChunks(DynamoSessionItem sessionItem) {
+        for (int attempt = 1;; attempt++) {
+            try {
+                loadChunks(sessionItem);
+                return sessionItem;
+            } catch (MissingSessionChunkException e) {
+                if (attempt >= MAX_CHUNK_READ_ATTEMPTS) {
+                    throw e;
+                }
+                sessionItem = loadItem(sessionItem.getSessionId(), true);
+                if (sessionItem == null) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    private void loadChunks(DynamoSessionItem sessionItem) {
+        if (sessionItem.getChunkCount() != null) {
+            chunker.loadChunks(sessionItem);
+        }
+        recordChunkManifest(sessionItem);
+    }
+
+    private void recordChunkManifest(DynamoSessionItem sessionItem) {
+        if (sessionItem.getChunkCount() != null) {
+            // Copied so the chunks' data isn't kept alive
+            DynamoSessionItem chunkManifest = new DynamoSessionItem(sessionItem.getSessionId());
+            chunkManifest.setChunkSetId(sessionItem.getChunkSetId());
+            chunkManifest.setChunkCount(sessionItem.getChunkCount());
+            chunkManifests.put(sessionItem.getSessionId(), chunkManifest);
+        } else {
+            chunkManifests.remove(sessionItem.getSessionId());
+        }
+    }
+
+    @Override
     public Iterable<Session> listSessions() {
         PaginatedScanList<DynamoSessionItem> sessions = mapper.scan(DynamoSessionItem.class,
-                new DynamoDBScanExpression());
+                createSessionsScanExpression());
         return new SessionConverterIterable(sessions);
     }
 
+    /**
+     * Lists the sessions in one segment of a parallel scan of the session table. Pages are
+     * discarded once iterated over so a segment of a large table can be walked without holding
+     * it in memory.
+     *
+     * @param segment
+     *            Segment to scan, from 0 to totalSegments - 1
+     * @param totalSegments
+     *            Number of segments the table is divided into
+     */
+    @Override
+    public Iterable<Session> listSessions(int segment, int totalSegments) {
+        return scanSessions(segment, totalSegments, null);
+    }
+
+    @Override
+    public Iterable<Session> listSessions(int segment, int totalSegments, CapacityListener readCapacityListener) {
+        ValidatorUtils.nonNull(readCapacityListener, "ReadCapacityListener");
+        return scanSessions(segment, totalSegments, readCapacityListener);
+    }
+
+    private Iterable<Session> scanSessions(final int segment, final int totalSegments,
+            final CapacityListener readCapacityListener) {
+        return new SessionConverterIterable(new Iterable<DynamoSessionItem>() {
+            @Override
+            public Iterator<DynamoSessionItem> iterator() {
+                return new PagedScanIterator(createSessionsScanExpression().withSegment(segment)
+                        .withTotalSegments(totalSegments), readCapacityListener);
+            }
+        });
+    }
+
+    /**
+     * Lists the IDs of sessions in one segment of the session table whose
+     * {@value DynamoSessionItem#EXPIRES_AT_ATTRIBUTE_NAME} attribute is before the given time. The
+     * scan filters on the expiry attribute and projects only the session ID, so no session data
+     * is returned. Sessions stored without an expiry attribute are not listed. Chunks of large
+     * sessions carry the same expiry attribute as their session and are listed too, so chunks left
+     * behind by a session that shrank are eventually removed.
+     *
+     * @param segment
+     *            Segment to scan, from 0 to totalSegments - 1
+     * @param totalSegments
+     *            Number of segments the table is divided into
+     * @param now
+     *            Current time, in seconds since the epoch
+     */
+    @Override
+    public Iterable<String> listExpiredSessionIds(int segment, int totalSegments, long now) {
+        return scanExpiredSessionIds(segment, totalSegments, now, null);
+    }
+
+    @Override
+    public Iterable<String> listExpiredSessionIds(int segment, int totalSegments, long now,
+            CapacityListener readCapacityListener) {
+        ValidatorUtils.nonNull(readCapacityListener, "ReadCapacityListener");
+        return scanExpiredSessionIds(segment, totalSegments, now, readCapacityListener);
+    }
+
+    private Iterable<String> scanExpiredSessionIds(final int segment, final int totalSegments, final long now,
+            final CapacityListener readCapacityListener) {
+        return new SessionIdIterable(new Iterable<DynamoSessionItem>() {
+            @Override
+            public Iterator<DynamoSessionItem> iterator() {
+                return new PagedScanIterator(createExpiredSessionsScanExpression(now).withSegment(segment)
+                        .withTotalSegments(totalSegments), readCapacityListener);
+            }
+        });
+    }
+
+    /**
+     * Scan expression matching session items, skipping the chunks of large sessions.
+     */
+    private static DynamoDBScanExpression createSessionsScanExpression() {
+        return new DynamoDBScanExpression().withFilterExpression("NOT contains(#id, :chunkSeparator)")
+                .withExpressionAttributeNames(
+                        Collections.singletonMap("#id", DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME))
+                .withExpressionAttributeValues(Collections.singletonMap(":chunkSeparator",
+                        new AttributeValue(SessionItemChunker.CHUNK_ID_SEPARATOR)));
+    }
+
+    /**
+     * Scan expression matching items whose expiry attribute is before the given time, projecting
+     * only the session ID.
+     */
+    static DynamoDBScanExpression createExpiredSessionsScanExpression(long now) {
+        Map<String, String> names = new HashMap<String, String>();
+        names.put("#id", DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME);
+        names.put("#expiresAt", DynamoSessionItem.EXPIRES_AT_ATTRIBUTE_NAME);
+        return new DynamoDBScanExpression().withFilterExpression("#expiresAt < :now")
+                .withProjectionExpression("#id").withExpressionAttributeNames(names)
+                .withExpressionAttributeValues(Collections.singletonMap(":now",
+                        new AttributeValue().withN(Long.toString(now))));
+    }
+
+    /**
+     * Scans the session table page by page, reporting the read capacity each page consumed. A
+     * page that was throttled is requested again the next time the iterator is asked for more.
+     */
+    private class PagedScanIterator implements Iterator<DynamoSessionItem> {
+
+        private final DynamoDBScanExpression scanExpression;
+        private final CapacityListener readCapacityListener;
+        private Iterator<DynamoSessionItem> page = Collections.<DynamoSessionItem> emptyList().iterator();
+        private Map<String, AttributeValue> lastEvaluatedKey;
+        private boolean lastPage;
+
+        private PagedScanIterator(DynamoDBScanExpression scanExpression, CapacityListener readCapacityListener) {
+            this.scanExpression = readCapacityListener == null ? scanExpression
+                    : scanExpression.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+            this.readCapacityListener = readCapacityListener;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!page.hasNext() && !lastPage) {
+                ScanResultPage<DynamoSessionItem> result = mapper.scanPage(DynamoSessionItem.class,
+                        scanExpression.withExclusiveStartKey(lastEvaluatedKey));
+                reportConsumedCapacity(readCapacityListener, result.getConsumedCapacity());
+                page = result.getResults().iterator();
+                lastEvaluatedKey = result.getLastEvaluatedKey();
+                lastPage = lastEvaluatedKey == null;
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public DynamoSessionItem next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
     private class SessionConverterIterable implements Iterable<Session> {
 
         private final Iterable<DynamoSessionItem> sessionIterable;
@@ -109,7 +869,7 @@ public class DynamoSessionStorage {
 
         @Override
         public Session next() {
-            return sessionConverter.toSession(sessionItemterator.next());
+            return toSession(sessionItemterator.next());
         }
 
         @Override
@@ -119,4 +879,58 @@ public class DynamoSessionStorage {
 
     }
 
+    /**
+     * Exposes just the IDs of the session items being iterated over.
+     */
+    private static class SessionIdIterable implements Iterable<String> {
+
+        private final Iterable<DynamoSessionItem> sessionIterable;
+
+        private SessionIdIterable(Iterable<DynamoSessionItem> sessionIterable) {
+            this.sessionIterable = sessionIterable;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            final Iterator<DynamoSessionItem> sessionItemIterator = sessionIterable.iterator();
+            return new Iterator<String>() {
+                @Override
+                public boolean hasNext() {
+                    return sessionItemIterator.hasNext();
+                }
+
+                @Override
+                public String next() {
+                    return sessionItemIterator.next().getSessionId();
+                }
+
+                @Override
+                public void remove() {
+                    sessionItemIterator.remove();
+                }
+            };
+        }
+
+    }
+
+
+    /**
+     * Records the fingerprints of queued writes once they have been flushed, and forgets them when
+     * a flush fails so the next save of the session is written whatever it holds.
+     */
+    private class FingerprintRecorder implements WriteBehindQueue.Listener {
+
+        @Override
+        public void written(DynamoSessionItem sessionItem) {
+            // Not for sessions released or removed since they were queued
+            if (versions.containsKey(sessionItem.getSessionId())) {
+                changeDetector.recordPersisted(sessionItem);
+            }
+        }
+
+        @Override
+        public void failed(DynamoSessionItem sessionItem) {
+            changeDetector.forget(sessionItem.getSessionId());
+        }
+    }
 }
@@ -14,22 +14,141 @@
  */
 package com.amazonaws.services.dynamodb.sessionmanager;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.catalina.Session;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
 
 /**
- * Scans Session table and deletes any sessions that have expired
+ * Scans Session table and deletes any sessions that have expired. The table can be divided into
+ * segments that are scanned in parallel, each by its own worker thread. Scans and deletes from all
+ * workers are paced by shared read and write {@link CapacityRateLimiter}s. When the storage is a
+ * {@link CapacityReportingSessionStorage} the limiters are charged the capacity DynamoDB reports
+ * each scan page and delete consumed, otherwise they only slow down when requests are throttled.
  */
 public class ExpiredSessionReaper implements Runnable {
 
-    private final DynamoSessionStorage sessionStorage;
+    private static final Log logger = LogFactory.getLog(ExpiredSessionReaper.class);
+    /**
+     * Deletes each segment worker keeps in flight when deleting asynchronously.
+     */
+    private static final int MAX_IN_FLIGHT_DELETES_PER_SEGMENT = 16;
+    private static final String THREAD_NAME_PREFIX = "dynamo-session-manager-expired-sesion-reaper-segment-";
 
-    public ExpiredSessionReaper(DynamoSessionStorage sessionStorage) {
-        ValidatorUtils.nonNull(sessionStorage, "SessionStorage");
-        this.sessionStorage = sessionStorage;
+    private final SessionStorage sessionStorage;
+    private final int totalSegments;
+    private final boolean useExpiryAttribute;
+    private final CapacityRateLimiter readLimiter;
+    private final CapacityRateLimiter writeLimiter;
+    private final CapacityReportingSessionStorage.CapacityListener readCapacityListener;
+    private final CapacityReportingSessionStorage.CapacityListener writeCapacityListener;
+    private final AsyncSessionStorage asyncSessionStorage;
+
+    public ExpiredSessionReaper(SessionStorage sessionStorage) {
+        this(new Builder(sessionStorage));
+    }
+
+    private ExpiredSessionReaper(Builder builder) {
+        ValidatorUtils.nonNull(builder.sessionStorage, "SessionStorage");
+        ValidatorUtils.nonNull(builder.readLimiter, "ReadLimiter");
+        ValidatorUtils.nonNull(builder.writeLimiter, "WriteLimiter");
+        if (builder.totalSegments < 1) {
+            throw new IllegalArgumentException("Total segments must be at least 1");
+        }
+        this.sessionStorage = builder.sessionStorage;
+        this.totalSegments = builder.totalSegments;
+        this.useExpiryAttribute = builder.useExpiryAttribute;
+        this.readLimiter = builder.readLimiter;
+        this.writeLimiter = builder.writeLimiter;
+        this.readCapacityListener = new LimiterCapacityListener(readLimiter);
+        this.writeCapacityListener = new LimiterCapacityListener(writeLimiter);
+        this.asyncSessionStorage = builder.asyncSessionStorage;
+    }
+
+    /**
+     * Builds an {@link ExpiredSessionReaper}. Unless configured otherwise the reaper scans the
+     * whole table with a single worker, deserializes every session to check its expiry, deletes
+     * synchronously and isn't paced.
+     */
+    public static class Builder {
+
+        private final SessionStorage sessionStorage;
+        private int totalSegments = 1;
+        private boolean useExpiryAttribute;
+        private CapacityRateLimiter readLimiter = CapacityRateLimiter.unlimited();
+        private CapacityRateLimiter writeLimiter = CapacityRateLimiter.unlimited();
+        private AsyncSessionStorage asyncSessionStorage;
+
+        public Builder(SessionStorage sessionStorage) {
+            this.sessionStorage = sessionStorage;
+        }
+
+        /**
+         * @param totalSegments
+         *            Number of segments to divide the session table into, each of which is scanned
+         *            concurrently by its own worker
+         */
+        public Builder withTotalSegments(int totalSegments) {
+            this.totalSegments = totalSegments;
+            return this;
+        }
+
+        /**
+         * @param useExpiryAttribute
+         *            If true, expired sessions are found by filtering on the
+         *            {@value DynamoSessionItem#EXPIRES_AT_ATTRIBUTE_NAME} attribute so no session
+         *            data is downloaded or deserialized. Sessions stored without that attribute are
+         *            never reaped in this mode.
+         */
+        public Builder withExpiryAttribute(boolean useExpiryAttribute) {
+            this.useExpiryAttribute = useExpiryAttribute;
+            return this;
+        }
+
+        /**
+         * @param readLimiter
+         *            Paces the read capacity consumed by scans
+         * @param writeLimiter
+         *            Paces the write capacity consumed by deletes
+         */
+        public Builder withRateLimiters(CapacityRateLimiter readLimiter, CapacityRateLimiter writeLimiter) {
+            this.readLimiter = readLimiter;
+            this.writeLimiter = writeLimiter;
+            return this;
+        }
+
+        /**
+         * @param asyncSessionStorage
+         *            If not null, each segment worker deletes expired sessions through this,
+         *            keeping several deletes in flight while it carries on scanning. It should wrap
+         *            the same storage.
+         */
+        public Builder withAsyncSessionStorage(AsyncSessionStorage asyncSessionStorage) {
+            this.asyncSessionStorage = asyncSessionStorage;
+            return this;
+        }
+
+        public ExpiredSessionReaper build() {
+            return new ExpiredSessionReaper(this);
+        }
     }
 
     /**
@@ -37,12 +156,25 @@ public class ExpiredSessionReaper implements Runnable {
      */
     @Override
     public void run() {
-        Iterable<Session> sessions = sessionStorage.listSessions();
-        for (Session session : sessions) {
-            if (ExpiredSessionReaper.isExpired(session)) {
-                sessionStorage.deleteSession(session.getId());
-            }
+        long startTime = System.currentTimeMillis();
+        ReapTotals totals = new ReapTotals();
+        List<Callable<Void>> segmentReapers = new ArrayList<Callable<Void>>(totalSegments);
+        for (int segment = 0; segment < totalSegments; segment++) {
+            segmentReapers.add(new SegmentReaper(segment, totals));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(totalSegments, new SegmentReaperThreadFactory());
+        try {
+            executor.invokeAll(segmentReapers);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
         }
+
+        logger.info(String.format("Expired session reaper scanned %d sessions and deleted %d expired sessions "
+                + "in %d ms. %d of %d segments failed", totals.scanned.get(), totals.deleted.get(),
+                System.currentTimeMillis() - startTime, totals.failedSegments.get(), totalSegments));
     }
 
     public static boolean isExpired(Session session) {
@@ -52,6 +184,24 @@ public class ExpiredSessionReaper implements Runnable {
         return false;
     }
 
+    /**
+     * @param lastAccessedTime
+     *            Time the session was last accessed, in milliseconds since the epoch
+     * @param maxInactiveInterval
+     *            Max inactive interval of the session, in seconds
+     * @return Time, in seconds since the epoch, after which the session has expired, or null if
+     *         the session never expires
+     */
+    public static Long getExpirationTime(long lastAccessedTime, int maxInactiveInterval) {
+        if (maxInactiveInterval <= 0) {
+            return null;
+        }
+        long expirationTimeMillis = lastAccessedTime
+                + TimeUnit.MILLISECONDS.convert(maxInactiveInterval, TimeUnit.SECONDS);
+        // Round up so a session is never considered expired early
+        return (expirationTimeMillis + 999) / 1000;
+    }
+
     /**
      * Sessions with a negative max inactive time never expire
      */
@@ -68,4 +218,215 @@ public class ExpiredSessionReaper implements Runnable {
                 - TimeUnit.MILLISECONDS.convert(session.getMaxInactiveInterval(), TimeUnit.SECONDS);
     }
 
+    /**
+     * Scans a single segment of the session table, deleting the expired sessions it finds.
+     */
+    private final class SegmentReaper implements Callable<Void> {
+
+        private final int segment;
+        private final ReapTotals totals;
+        private final Deque<PendingDelete> pendingDeletes = new ArrayDeque<PendingDelete>();
+
+        private SegmentReaper(int segment, ReapTotals totals) {
+            this.segment = segment;
+            this.totals = totals;
+        }
+
+        @Override
+        public Void call() {
+            try {
+                if (useExpiryAttribute) {
+                    reapByExpiryAttribute();
+                } else {
+                    reapByLoadingSessions();
+                }
+            } catch (Exception e) {
+                totals.failedSegments.incrementAndGet();
+                logger.warn("Unable to reap expired sessions in segment " + segment + " of " + totalSegments, e);
+            }
+            return null;
+        }
+
+        private void reapByLoadingSessions() throws InterruptedException {
+            for (Session session : new PacedIterable<Session>(listSessions())) {
+                totals.scanned.incrementAndGet();
+                if (ExpiredSessionReaper.isExpired(session)) {
+                    reap(session.getId());
+                }
+            }
+            awaitPendingDeletes(0);
+        }
+
+        private void reapByExpiryAttribute() throws InterruptedException {
+            long now = TimeUnit.SECONDS.convert(System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            for (String sessionId : new PacedIterable<String>(listExpiredSessionIds(now))) {
+                totals.scanned.incrementAndGet();
+                reap(sessionId);
+            }
+            awaitPendingDeletes(0);
+        }
+
+        private Iterable<Session> listSessions() {
+            if (sessionStorage instanceof CapacityReportingSessionStorage) {
+                return ((CapacityReportingSessionStorage) sessionStorage).listSessions(segment, totalSegments,
+                        readCapacityListener);
+            }
+            return sessionStorage.listSessions(segment, totalSegments);
+        }
+
+        private Iterable<String> listExpiredSessionIds(long now) {
+            if (sessionStorage instanceof CapacityReportingSessionStorage) {
+                return ((CapacityReportingSessionStorage) sessionStorage).listExpiredSessionIds(segment,
+                        totalSegments, now, readCapacityListener);
+            }
+            return sessionStorage.listExpiredSessionIds(segment, totalSegments, now);
+        }
+
+        private void reap(String sessionId) throws InterruptedException {
+            if (asyncSessionStorage == null) {
+                deleteSession(sessionId);
+                totals.deleted.incrementAndGet();
+                return;
+            }
+            awaitPendingDeletes(MAX_IN_FLIGHT_DELETES_PER_SEGMENT - 1);
+            writeLimiter.acquire();
+            pendingDeletes.add(new PendingDelete(sessionId, asyncSessionStorage.deleteSessionAsync(sessionId, writeCapacityListener)));
+        }
+
+        /**
+         * Waits for the oldest asynchronous deletes to finish until no more than the given number
+         * are still in flight. A delete that was throttled is retried synchronously.
+         */
+        private void awaitPendingDeletes(int maxInFlight) throws InterruptedException {
+            while (pendingDeletes.size() > maxInFlight) {
+                PendingDelete pendingDelete = pendingDeletes.remove();
+                try {
+                    pendingDelete.future.get();
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof ProvisionedThroughputExceededException)) {
+                        throw new AmazonClientException("Unable to delete expired session "
+                                + pendingDelete.sessionId, e.getCause());
+                    }
+                    writeLimiter.onThrottled();
+                    deleteSession(pendingDelete.sessionId);
+                }
+                totals.deleted.incrementAndGet();
+            }
+        }
+
+        private void deleteSession(String sessionId) {
+            while (true) {
+                writeLimiter.acquire();
+                try {
+                    if (sessionStorage instanceof CapacityReportingSessionStorage) {
+                        ((CapacityReportingSessionStorage) sessionStorage).deleteSession(sessionId,
+                                writeCapacityListener);
+                    } else {
+                        sessionStorage.deleteSession(sessionId);
+                    }
+                    return;
+                } catch (ProvisionedThroughputExceededException e) {
+                    writeLimiter.onThrottled();
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks a listing, waiting for read capacity before each step and backing off when the
+     * table's provisioned throughput is exceeded. The listing's iterator is asked again after a
+     * throttled request, carrying on from where it was.
+     */
+    private final class PacedIterable<T> implements Iterable<T> {
+
+        private final Iterable<T> iterable;
+
+        private PacedIterable(Iterable<T> iterable) {
+            this.iterable = iterable;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            final Iterator<T> iterator = iterable.iterator();
+            return new Iterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    while (true) {
+                        readLimiter.acquire();
+                        try {
+                            return iterator.hasNext();
+                        } catch (ProvisionedThroughputExceededException e) {
+                            readLimiter.onThrottled();
+                        }
+                    }
+                }
+
+                @Override
+                public T next() {
+                    return iterator.next();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /**
+     * Charges the capacity reported by the storage to a limiter.
+     */
+    private static final class LimiterCapacityListener implements CapacityReportingSessionStorage.CapacityListener {
+
+        private final CapacityRateLimiter limiter;
+
+        private LimiterCapacityListener(CapacityRateLimiter limiter) {
+            this.limiter = limiter;
+        }
+
+        @Override
+        public void consumed(double capacityUnits) {
+            limiter.consume(capacityUnits);
+        }
+    }
+
+    /**
+     * A delete submitted to the {@link AsyncSessionStorage} that hasn't been waited for yet.
+     */
+    private static final class PendingDelete {
+        private final String sessionId;
+        private final Future<Void> future;
+
+        private PendingDelete(String sessionId, Future<Void> future) {
+            this.sessionId = sessionId;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Counts shared by all segment workers of a single reap.
+     */
+    private static final class ReapTotals {
+        private final AtomicLong scanned = new AtomicLong();
+        private final AtomicLong deleted = new AtomicLong();
+        private final AtomicInteger failedSegments = new AtomicInteger();
+    }
+
+    /**
+     * ThreadFactory for creating the daemon segment worker threads.
+     */
+    private static final class SegmentReaperThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            thread.setName(THREAD_NAME_PREFIX + threadCount.getAndIncrement());
+            return thread;
+        }
+    }
+
 }
\ No newline at end of file
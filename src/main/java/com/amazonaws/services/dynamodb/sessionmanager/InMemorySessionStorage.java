@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.catalina.Session;
+
+import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionConverter;
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+
+/**
+ * Session storage that keeps sessions in memory, converted to session items just as they would be
+ * stored in DynamoDB. Loading a session returns a new copy of it, so it behaves like a remote store
+ * without any network or AWS account. Useful for tests, for benchmarking the layers above the
+ * storage on their own, and for single node deployments that don't need sessions to outlive the
+ * JVM.
+ * <p>
+ * Segments are assigned by hashing the session ID. Read limiters are ignored since reads consume
+ * no provisioned capacity.
+ */
+public class InMemorySessionStorage implements SessionStorage {
+
+    private final SessionConverter sessionConverter;
+    private final ConcurrentMap<String, DynamoSessionItem> sessionItems =
+            new ConcurrentSkipListMap<String, DynamoSessionItem>();
+
+    public InMemorySessionStorage(SessionConverter sessionConverter) {
+        ValidatorUtils.nonNull(sessionConverter, "SessionConverter");
+        this.sessionConverter = sessionConverter;
+    }
+
+    @Override
+    public Session loadSession(String sessionId) {
+        DynamoSessionItem sessionItem = sessionItems.get(sessionId);
+        return sessionItem == null ? null : sessionConverter.toSession(sessionItem);
+    }
+
+    @Override
+    public Map<String, Session> loadSessions(Collection<String> sessionIds) {
+        Map<String, Session> sessions = new HashMap<String, Session>();
+        for (String sessionId : sessionIds) {
+            Session session = loadSession(sessionId);
+            if (session != null) {
+                sessions.put(sessionId, session);
+            }
+        }
+        return sessions;
+    }
+
+    @Override
+    public void saveSession(Session session) {
+        DynamoSessionItem sessionItem = sessionConverter.toSessionItem(session);
+        sessionItems.put(sessionItem.getSessionId(), sessionItem);
+    }
+
+    @Override
+    public void deleteSession(String sessionId) {
+        sessionItems.remove(sessionId);
+    }
+
+    @Override
+    public void deleteSessions(Collection<String> sessionIds) {
+        for (String sessionId : sessionIds) {
+            sessionItems.remove(sessionId);
+        }
+    }
+
+    @Override
+    public int count() {
+        return sessionItems.size();
+    }
+
+    @Override
+    public int count(int segment, int totalSegments) {
+        int count = 0;
+        for (String sessionId : sessionItems.keySet()) {
+            if (isInSegment(sessionId, segment, totalSegments)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public Iterable<Session> listSessions() {
+        return listSessions(0, 1);
+    }
+
+    @Override
+    public Iterable<Session> listSessions(final int segment, final int totalSegments) {
+        return new Iterable<Session>() {
+            @Override
+            public Iterator<Session> iterator() {
+                List<Session> sessions = new ArrayList<Session>();
+                for (DynamoSessionItem sessionItem : sessionItems.values()) {
+                    if (isInSegment(sessionItem.getSessionId(), segment, totalSegments)) {
+                        sessions.add(sessionConverter.toSession(sessionItem));
+                    }
+                }
+                return sessions.iterator();
+            }
+        };
+    }
+
+    @Override
+    public Iterable<String> listExpiredSessionIds(final int segment, final int totalSegments, final long now) {
+        return new Iterable<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                List<String> sessionIds = new ArrayList<String>();
+                for (DynamoSessionItem sessionItem : sessionItems.values()) {
+                    Long expiresAt = sessionItem.getExpiresAt();
+                    if (expiresAt != null && expiresAt < now
+                            && isInSegment(sessionItem.getSessionId(), segment, totalSegments)) {
+                        sessionIds.add(sessionItem.getSessionId());
+                    }
+                }
+                return sessionIds.iterator();
+            }
+        };
+    }
+
+    /**
+     * Sessions are written as soon as they're saved, so there is nothing to flush.
+     */
+    @Override
+    public void flush() {
+    }
+
+    private static boolean isInSegment(String sessionId, int segment, int totalSegments) {
+        return (sessionId.hashCode() & Integer.MAX_VALUE) % totalSegments == segment;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.apache.catalina.Session;
+
+import com.amazonaws.services.dynamodb.sessionmanager.converters.DynamoSessionItemConverter;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionConverter;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.TomcatSessionConverter;
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+
+/**
+ * Records how long each conversion takes and the size of the session data converted.
+ */
+public class InstrumentedSessionConverter implements TomcatSessionConverter, DynamoSessionItemConverter {
+
+    private final SessionConverter sessionConverter;
+    private final SessionStorageMetrics metrics;
+
+    public InstrumentedSessionConverter(SessionConverter sessionConverter, SessionStorageMetrics metrics) {
+        ValidatorUtils.nonNull(sessionConverter, "SessionConverter");
+        ValidatorUtils.nonNull(metrics, "SessionStorageMetrics");
+        this.sessionConverter = sessionConverter;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return A session converter that converts with the given one and records metrics
+     */
+    public static SessionConverter instrument(SessionConverter sessionConverter, SessionStorageMetrics metrics) {
+        InstrumentedSessionConverter instrumented = new InstrumentedSessionConverter(sessionConverter, metrics);
+        return new SessionConverter(instrumented, instrumented);
+    }
+
+    @Override
+    public DynamoSessionItem toSessionItem(Session session) {
+        long startTime = System.nanoTime();
+        DynamoSessionItem sessionItem = sessionConverter.toSessionItem(session);
+        SessionStorageMetrics.recordTimeSince(metrics.getConvertTime(), startTime);
+        metrics.getSessionSize().record(getSize(sessionItem));
+        return sessionItem;
+    }
+
+    @Override
+    public Session toSession(DynamoSessionItem sessionItem) {
+        long startTime = System.nanoTime();
+        Session session = sessionConverter.toSession(sessionItem);
+        SessionStorageMetrics.recordTimeSince(metrics.getConvertTime(), startTime);
+        metrics.getSessionSize().record(getSize(sessionItem));
+        return session;
+    }
+
+    private static long getSize(DynamoSessionItem sessionItem) {
+        List<ByteBuffer> chunks = sessionItem.getSessionDataChunks();
+        if (chunks == null) {
+            return sessionItem.getSessionData() == null ? 0 : sessionItem.getSessionData().remaining();
+        }
+        long size = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            size += chunks.get(i).remaining();
+        }
+        return size;
+    }
+}
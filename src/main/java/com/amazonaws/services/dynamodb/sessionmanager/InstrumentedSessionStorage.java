@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.catalina.Session;
+
+import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionConversionException;
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+
+/**
+ * Records how long each load, save, remove and count of the wrapped storage takes, and how many
+ * stored sessions turn out to be corrupt. Batch operations are recorded once per batch. Listing
+ * isn't recorded, since listed sessions are read lazily as they're iterated over.
+ */
+public class InstrumentedSessionStorage implements SessionStorage {
+
+    private final SessionStorage sessionStorage;
+    private final SessionStorageMetrics metrics;
+
+    public InstrumentedSessionStorage(SessionStorage sessionStorage, SessionStorageMetrics metrics) {
+        ValidatorUtils.nonNull(sessionStorage, "SessionStorage");
+        ValidatorUtils.nonNull(metrics, "SessionStorageMetrics");
+        this.sessionStorage = sessionStorage;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Session loadSession(String sessionId) {
+        long startTime = System.nanoTime();
+        try {
+            return sessionStorage.loadSession(sessionId);
+        } catch (SessionConversionException e) {
+            metrics.corruptSession();
+            throw e;
+        } finally {
+            SessionStorageMetrics.recordTimeSince(metrics.getLoadTime(), startTime);
+        }
+    }
+
+    @Override
+    public Map<String, Session> loadSessions(Collection<String> sessionIds) {
+        long startTime = System.nanoTime();
+        try {
+            return sessionStorage.loadSessions(sessionIds);
+        } catch (SessionConversionException e) {
+            metrics.corruptSession();
+            throw e;
+        } finally {
+            SessionStorageMetrics.recordTimeSince(metrics.getLoadTime(), startTime);
+        }
+    }
+
+    @Override
+    public void saveSession(Session session) {
+        long startTime = System.nanoTime();
+        try {
+            sessionStorage.saveSession(session);
+        } finally {
+            SessionStorageMetrics.recordTimeSince(metrics.getSaveTime(), startTime);
+        }
+    }
+
+    @Override
+    public void deleteSession(String sessionId) {
+        long startTime = System.nanoTime();
+        try {
+            sessionStorage.deleteSession(sessionId);
+        } finally {
+            SessionStorageMetrics.recordTimeSince(metrics.getRemoveTime(), startTime);
+        }
+    }
+
+    @Override
+    public void deleteSessions(Collection<String> sessionIds) {
+        long startTime = System.nanoTime();
+        try {
+            sessionStorage.deleteSessions(sessionIds);
+        } finally {
+            SessionStorageMetrics.recordTimeSince(metrics.getRemoveTime(), startTime);
+        }
+    }
+
+    @Override
+    public int count() {
+        long startTime = System.nanoTime();
+        try {
+            return sessionStorage.count();
+        } finally {
+            SessionStorageMetrics.recordTimeSince(metrics.getCountTime(), startTime);
+        }
+    }
+
+    @Override
+    public int count(int segment, int totalSegments) {
+        long startTime = System.nanoTime();
+        try {
+            return sessionStorage.count(segment, totalSegments);
+        } finally {
+            SessionStorageMetrics.recordTimeSince(metrics.getCountTime(), startTime);
+        }
+    }
+
+    @Override
+    public Iterable<Session> listSessions() {
+        return sessionStorage.listSessions();
+    }
+
+    @Override
+    public Iterable<Session> listSessions(int segment, int totalSegments) {
+        return sessionStorage.listSessions(segment, totalSegments);
+    }
+
+    @Override
+    public Iterable<String> listExpiredSessionIds(int segment, int totalSegments, long now) {
+        return sessionStorage.listExpiredSessionIds(segment, totalSegments, now);
+    }
+
+    @Override
+    public void flush() {
+        sessionStorage.flush();
+    }
+}
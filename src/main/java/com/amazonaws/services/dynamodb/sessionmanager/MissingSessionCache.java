@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers session IDs that were recently looked up and not found, so repeated lookups of the
+ * same unknown ID, e.g. from stale cookies or bots, can be answered without reading the session
+ * table again.
+ * <p>
+ * IDs are kept in two generations of exact sets that are rotated every half window, so an ID is
+ * forgotten at most one window after it was recorded. A probabilistic filter would be smaller,
+ * but a false positive there would hide a session that does exist. Once the current generation is
+ * full it is rotated early, which only shortens how long IDs are remembered.
+ */
+public class MissingSessionCache {
+
+    private final long halfWindowNanos;
+    private final int maxSessionIdsPerGeneration;
+
+    private Set<String> currentGeneration = new HashSet<String>();
+    private Set<String> previousGeneration = new HashSet<String>();
+    private long currentGenerationStart;
+
+    /**
+     * @param windowMillis
+     *            How long a missing session ID is remembered for, at most
+     * @param maxSessionIds
+     *            Number of missing session IDs to remember, at most
+     */
+    public MissingSessionCache(long windowMillis, int maxSessionIds) {
+        if (windowMillis < 1 || maxSessionIds < 2) {
+            throw new IllegalArgumentException("Window must be at least 1 ms and size at least 2 session IDs");
+        }
+        this.halfWindowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis) / 2;
+        this.maxSessionIdsPerGeneration = maxSessionIds / 2;
+        this.currentGenerationStart = System.nanoTime();
+    }
+
+    /**
+     * @return True if the session was recently found to be missing and hasn't been saved since
+     */
+    public synchronized boolean isMissing(String sessionId) {
+        rotateIfExpired();
+        return currentGeneration.contains(sessionId) || previousGeneration.contains(sessionId);
+    }
+
+    public synchronized void recordMissing(String sessionId) {
+        rotateIfExpired();
+        if (currentGeneration.size() >= maxSessionIdsPerGeneration) {
+            rotate(System.nanoTime());
+        }
+        currentGeneration.add(sessionId);
+    }
+
+    /**
+     * Forgets that the session was missing, e.g. because it has just been saved.
+     */
+    public synchronized void invalidate(String sessionId) {
+        currentGeneration.remove(sessionId);
+        previousGeneration.remove(sessionId);
+    }
+
+    private void rotateIfExpired() {
+        long now = System.nanoTime();
+        long elapsed = now - currentGenerationStart;
+        if (elapsed >= 2 * halfWindowNanos) {
+            // Both generations are older than the window
+            currentGeneration.clear();
+            previousGeneration.clear();
+            currentGenerationStart = now;
+        } else if (elapsed >= halfWindowNanos) {
+            rotate(currentGenerationStart + halfWindowNanos);
+        }
+    }
+
+    private void rotate(long newGenerationStart) {
+        Set<String> recycled = previousGeneration;
+        recycled.clear();
+        previousGeneration = currentGeneration;
+        currentGeneration = recycled;
+        currentGenerationStart = newGenerationStart;
+    }
+}
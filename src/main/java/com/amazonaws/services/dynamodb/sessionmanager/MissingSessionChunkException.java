@@ -0,0 +1,31 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import com.amazonaws.AmazonClientException;
+
+/**
+ * Thrown when a chunk of a large session can't be read. This usually means another node rewrote
+ * or removed the session after its manifest was read, not that the session is corrupt, so the
+ * manifest should be read again.
+ */
+public class MissingSessionChunkException extends AmazonClientException {
+
+    private static final long serialVersionUID = -6093871276521548218L;
+
+    public MissingSessionChunkException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers a fingerprint of the serialized data last written to (or read from) DynamoDB for each
+ * session so that backups of sessions whose contents have not changed can be skipped.
+ */
+public class SessionChangeDetector {
+
+    private static final String DIGEST_ALGORITHM = "MD5";
+
+    private final ConcurrentMap<String, byte[]> fingerprints = new ConcurrentHashMap<String, byte[]>();
+
+    /**
+     * @return Fingerprint of the session item's serialized data, to record with
+     *         {@link #recordPersisted(String, byte[])} once the item has been written, or null if
+     *         the data is the same as was last recorded as persisted for that session
+     */
+    public byte[] fingerprintIfChanged(DynamoSessionItem sessionItem) {
+        byte[] fingerprint = fingerprint(sessionItem);
+        byte[] persisted = fingerprints.get(sessionItem.getSessionId());
+        return persisted != null && Arrays.equals(persisted, fingerprint) ? null : fingerprint;
+    }
+
+    /**
+     * Records the serialized data of the session item as the current persisted state.
+     */
+    public void recordPersisted(DynamoSessionItem sessionItem) {
+        recordPersisted(sessionItem.getSessionId(), fingerprint(sessionItem));
+    }
+
+    /**
+     * Records a fingerprint returned by {@link #fingerprintIfChanged(DynamoSessionItem)} as the
+     * current persisted state of the session.
+     */
+    public void recordPersisted(String sessionId, byte[] fingerprint) {
+        fingerprints.put(sessionId, fingerprint);
+    }
+
+    /**
+     * Forgets any recorded state for the session so the next save is always written.
+     */
+    public void forget(String sessionId) {
+        fingerprints.remove(sessionId);
+    }
+
+    private static byte[] fingerprint(DynamoSessionItem sessionItem) {
+        MessageDigest digest = createDigest();
+        ByteBuffer sessionData = sessionItem.getSessionData();
+        if (sessionData != null) {
+            digest.update(sessionData.duplicate());
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support MD5
+            throw new IllegalStateException("Unable to create " + DIGEST_ALGORITHM + " digest", e);
+        }
+    }
+}
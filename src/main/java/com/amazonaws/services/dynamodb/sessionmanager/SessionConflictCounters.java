@@ -0,0 +1,73 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the conflicting session writes a {@link DynamoSessionStorage} has run into and how they
+ * were resolved.
+ */
+public class SessionConflictCounters {
+
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+    private final AtomicLong overwritten = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @return Number of conditional writes that failed because the stored session had changed
+     */
+    public long getConflicts() {
+        return conflicts.get();
+    }
+
+    /**
+     * @return Number of conflicts resolved by merging the stored session into the saved one
+     */
+    public long getMerged() {
+        return merged.get();
+    }
+
+    /**
+     * @return Number of conflicts resolved by overwriting the stored session
+     */
+    public long getOverwritten() {
+        return overwritten.get();
+    }
+
+    /**
+     * @return Number of saves that failed with a {@link SessionConflictException}
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    void conflict() {
+        conflicts.incrementAndGet();
+    }
+
+    void merged() {
+        merged.incrementAndGet();
+    }
+
+    void overwritten() {
+        overwritten.incrementAndGet();
+    }
+
+    void rejected() {
+        rejected.incrementAndGet();
+    }
+}
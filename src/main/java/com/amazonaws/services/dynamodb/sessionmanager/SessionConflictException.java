@@ -0,0 +1,29 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import com.amazonaws.AmazonClientException;
+
+/**
+ * Thrown when a session can't be saved because another node keeps saving it first.
+ */
+public class SessionConflictException extends AmazonClientException {
+
+    private static final long serialVersionUID = 4218791379434375346L;
+
+    public SessionConflictException(String message, Throwable t) {
+        super(message, t);
+    }
+}
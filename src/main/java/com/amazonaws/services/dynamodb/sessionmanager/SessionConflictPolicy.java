@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+/**
+ * What to do when a session can't be saved because another node has saved it since this node
+ * last read or wrote it.
+ */
+public enum SessionConflictPolicy {
+
+    /**
+     * Reload the stored session, add any attributes it has that the session being saved doesn't,
+     * and save again. Attributes set by this node win over the stored ones. Attributes removed by
+     * this node while the other node still had them are brought back.
+     */
+    RETRY_MERGE,
+
+    /**
+     * Save again over the other node's write.
+     */
+    LAST_WRITER_WINS,
+
+    /**
+     * Fail the save with a {@link SessionConflictException}, keeping the other node's write.
+     */
+    REJECT;
+
+    /**
+     * @return The policy with the given name, ignoring case and underscores, e.g. "retryMerge"
+     *         for {@link #RETRY_MERGE}
+     * @throws IllegalArgumentException
+     *             If there is no policy with that name
+     */
+    public static SessionConflictPolicy fromName(String name) {
+        for (SessionConflictPolicy policy : values()) {
+            if (policy.name().replace("_", "").equalsIgnoreCase(name.replace("_", ""))) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown session conflict policy " + name);
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
+
+/**
+ * Caches the number of sessions in the session table so it doesn't have to be counted with a
+ * full table scan every time it's asked for.
+ * <p>
+ * By default the count comes from the table's ItemCount as reported by DescribeTable, which
+ * DynamoDB only updates every few hours. Sessions this node has added or removed since ItemCount
+ * last changed are applied on top of it. ItemCount covers every item in the table, so it
+ * overstates the number of sessions by the chunk items of sessions too large for a single item and
+ * by the compression dictionary items, when those are in use. Alternatively the count can be taken
+ * exactly with a parallel scan, which skips those items but consumes read capacity for the whole
+ * table on each refresh.
+ * <p>
+ * Only the first count is taken on the caller's thread. After that a stale count is refreshed on
+ * a daemon thread while callers keep getting the last count.
+ */
+public class SessionCountCache {
+
+    private static final Log logger = LogFactory.getLog(SessionCountCache.class);
+    private static final String THREAD_NAME_PREFIX = "dynamo-session-manager-session-count-";
+
+    private final AmazonDynamoDB dynamo;
+    private final String tableName;
+    private final SessionStorage sessionStorage;
+    private final long refreshIntervalMillis;
+    private final int exactCountSegments;
+    private final AtomicInteger localDelta = new AtomicInteger();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final Object executorLock = new Object();
+
+    private volatile long count;
+    private volatile long lastItemCount = -1;
+    private volatile long lastRefreshTime;
+    private ExecutorService executor;
+
+    /**
+     * @param refreshIntervalMillis
+     *            How long a count is reused before it is refreshed
+     * @param exactCountSegments
+     *            If greater than zero the count is taken with a parallel scan of this many
+     *            segments instead of from DescribeTable
+     */
+    public SessionCountCache(AmazonDynamoDB dynamo, String tableName, SessionStorage sessionStorage,
+            long refreshIntervalMillis, int exactCountSegments) {
+        ValidatorUtils.nonNull(dynamo, "AmazonDynamoDB");
+        ValidatorUtils.nonNull(tableName, "TableName");
+        ValidatorUtils.nonNull(sessionStorage, "SessionStorage");
+        this.dynamo = dynamo;
+        this.tableName = tableName;
+        this.sessionStorage = sessionStorage;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.exactCountSegments = exactCountSegments;
+    }
+
+    /**
+     * @return The number of sessions in the session table. The first call waits for the count to
+     *         be taken. Later calls return the last count, starting a refresh in the background if
+     *         it is older than the refresh interval.
+     */
+    public int getCount() {
+        if (lastItemCount < 0) {
+            refreshIfNeverCounted();
+        } else if (System.currentTimeMillis() - lastRefreshTime >= refreshIntervalMillis) {
+            refreshInBackground();
+        }
+        long total = Math.max(0, count + localDelta.get());
+        return (int) Math.min(Integer.MAX_VALUE, total);
+    }
+
+    /**
+     * Records that this node wrote a session that wasn't in the table before.
+     */
+    public void sessionAdded() {
+        localDelta.incrementAndGet();
+    }
+
+    /**
+     * Records that this node deleted sessions from the table.
+     */
+    public void sessionsRemoved(int removed) {
+        localDelta.addAndGet(-removed);
+    }
+
+    /**
+     * Stops any refresh in progress and releases its threads. A later refresh starts new ones.
+     */
+    public void shutdown() {
+        synchronized (executorLock) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
+    }
+
+    private synchronized void refreshIfNeverCounted() {
+        if (lastItemCount < 0) {
+            refresh();
+        }
+    }
+
+    /**
+     * Starts a refresh on the executor unless one is already running.
+     */
+    private void refreshInBackground() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refresh();
+                    } catch (Exception e) {
+                        logger.warn("Unable to refresh the session count", e);
+                    } finally {
+                        refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshing.set(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Local changes recorded while the count is being taken are kept, since the count may not
+     * include them.
+     */
+    private synchronized void refresh() {
+        int countedDelta = localDelta.get();
+        if (exactCountSegments > 0) {
+            count = countExactly();
+            lastItemCount = count;
+            localDelta.addAndGet(-countedDelta);
+        } else {
+            long itemCount = dynamo.describeTable(new DescribeTableRequest().withTableName(tableName)).getTable()
+                    .getItemCount();
+            // Local changes are only folded into ItemCount when DynamoDB recalculates it
+            if (itemCount != lastItemCount) {
+                count = itemCount;
+                lastItemCount = itemCount;
+                localDelta.addAndGet(-countedDelta);
+            }
+        }
+        lastRefreshTime = System.currentTimeMillis();
+    }
+
+    private long countExactly() {
+        List<Callable<Integer>> segmentCounters = new ArrayList<Callable<Integer>>(exactCountSegments);
+        for (int segment = 0; segment < exactCountSegments; segment++) {
+            final int currentSegment = segment;
+            segmentCounters.add(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return sessionStorage.count(currentSegment, exactCountSegments);
+                }
+            });
+        }
+
+        try {
+            long total = 0;
+            for (Future<Integer> segmentCount : getExecutor().invokeAll(segmentCounters)) {
+                total += segmentCount.get();
+            }
+            return total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while counting sessions", e);
+        } catch (ExecutionException e) {
+            throw new AmazonClientException("Unable to count sessions", e.getCause());
+        }
+    }
+
+    /**
+     * One thread runs background refreshes and the rest count segments, so a refresh never waits
+     * on its own segment counts for a thread.
+     */
+    private ExecutorService getExecutor() {
+        synchronized (executorLock) {
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(exactCountSegments + 1, new SessionCountThreadFactory());
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * ThreadFactory for creating the daemon session count threads.
+     */
+    private static final class SessionCountThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            thread.setName(THREAD_NAME_PREFIX + threadCount.getAndIncrement());
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.FailedBatch;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig.ConsistentReads;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * Splits session data too large for a single DynamoDB item across several chunk items.
+ * <p>
+ * Each write of a chunked session stores its chunks under a new, random chunk set ID. Chunk
+ * {@code n} is stored in its own item with the session ID {@code <sessionId>#<chunkSetId>#<n>}.
+ * The session's own item becomes a manifest holding the chunk set ID and number of chunks instead
+ * of the session data. Chunks are written with BatchWriteItem before the manifest, so the manifest
+ * never refers to chunks that haven't been written yet, and read back with strongly consistent
+ * BatchGetItem calls. Since chunk sets are never overwritten, a manifest write that loses a race
+ * with another node's write can't corrupt the chunks that node's manifest refers to.
+ * <p>
+ * Once a session has been rewritten, its previous chunk set is retired rather than deleted
+ * straight away, so another node that has just read the previous manifest can still read its
+ * chunks. Retired chunk sets are deleted after a grace period, the next time this instance writes
+ * or deletes chunks. Chunk sets left behind by a node that stops before then carry their
+ * session's expiry attribute, so they are removed by DynamoDB TTL or by the expired session
+ * reaper when it reaps using the expiry attribute.
+ */
+public class SessionItemChunker {
+
+    private static final Log logger = LogFactory.getLog(SessionItemChunker.class);
+
+    public static final String CHUNK_ID_SEPARATOR = "#";
+
+    /**
+     * Leaves room below DynamoDB's 400KB item limit for the chunk's key and other attributes.
+     */
+    public static final int DEFAULT_CHUNK_SIZE_BYTES = 350 * 1024;
+
+    /**
+     * Bounds the number of round trips and the capacity a single session can consume.
+     */
+    public static final int MAX_CHUNKS = 64;
+
+    /**
+     * How long a retired chunk set is kept, which is far longer than it takes another node to read
+     * the chunks of a manifest it has just read.
+     */
+    public static final long DEFAULT_RETIRED_CHUNK_GRACE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final DynamoDBMapperConfig CONSISTENT_READS = new DynamoDBMapperConfig(
+            ConsistentReads.CONSISTENT);
+
+    private final DynamoDBMapper mapper;
+    private final int chunkSizeBytes;
+    private final long retiredChunkGraceNanos;
+    private final Queue<RetiredChunkSet> retiredChunkSets = new ConcurrentLinkedQueue<RetiredChunkSet>();
+
+    public SessionItemChunker(DynamoDBMapper mapper) {
+        this(mapper, DEFAULT_CHUNK_SIZE_BYTES);
+    }
+
+    public SessionItemChunker(DynamoDBMapper mapper, int chunkSizeBytes) {
+        this(mapper, chunkSizeBytes, DEFAULT_RETIRED_CHUNK_GRACE_MILLIS);
+    }
+
+    /**
+     * @param retiredChunkGraceMillis
+     *            How long chunk sets replaced by a newer write are kept before being deleted
+     */
+    public SessionItemChunker(DynamoDBMapper mapper, int chunkSizeBytes, long retiredChunkGraceMillis) {
+        ValidatorUtils.nonNull(mapper, "DynamoDBMapper");
+        this.mapper = mapper;
+        this.chunkSizeBytes = chunkSizeBytes;
+        this.retiredChunkGraceNanos = TimeUnit.MILLISECONDS.toNanos(retiredChunkGraceMillis);
+    }
+
+    /**
+     * @return True if the session data is too large to be stored in a single item
+     */
+    public boolean needsChunking(DynamoSessionItem sessionItem) {
+        ByteBuffer sessionData = sessionItem.getSessionData();
+        return sessionData != null && sessionData.remaining() > chunkSizeBytes;
+    }
+
+    /**
+     * Writes the session data as a new set of chunks.
+     *
+     * @return The manifest item referring to the chunks, for the caller to write
+     */
+    public DynamoSessionItem writeChunks(DynamoSessionItem sessionItem) {
+        deleteRetiredChunks(false);
+        String sessionId = sessionItem.getSessionId();
+        ByteBuffer sessionData = sessionItem.getSessionData();
+        int chunkCount = (sessionData.remaining() + chunkSizeBytes - 1) / chunkSizeBytes;
+        if (chunkCount > MAX_CHUNKS) {
+            throw new AmazonClientException("Session " + sessionId + " is too large to store: "
+                    + sessionData.remaining() + " bytes");
+        }
+
+        String chunkSetId = UUID.randomUUID().toString();
+        List<DynamoSessionItem> chunks = new ArrayList<DynamoSessionItem>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            int start = sessionData.position() + i * chunkSizeBytes;
+            ByteBuffer chunkData = sessionData.duplicate();
+            // Called through Buffer so the bytecode links against the Java 7 signatures
+            ((Buffer) chunkData).limit(Math.min(sessionData.limit(), start + chunkSizeBytes));
+            ((Buffer) chunkData).position(start);
+            DynamoSessionItem chunk = new DynamoSessionItem(getChunkId(sessionId, chunkSetId, i));
+            chunk.setSessionData(chunkData.slice());
+            chunk.setExpiresAt(sessionItem.getExpiresAt());
+            chunks.add(chunk);
+        }
+        List<FailedBatch> failedBatches = mapper.batchSave(chunks);
+        if (!failedBatches.isEmpty()) {
+            throw new AmazonClientException("Unable to write chunks of session " + sessionId,
+                    failedBatches.get(0).getException());
+        }
+
+        DynamoSessionItem manifest = new DynamoSessionItem(sessionId);
+        manifest.setChunkSetId(chunkSetId);
+        manifest.setChunkCount(chunkCount);
+        manifest.setExpiresAt(sessionItem.getExpiresAt());
+        manifest.setVersion(sessionItem.getVersion());
+        return manifest;
+    }
+
+    /**
+     * Loads the chunks listed in the manifest item and attaches them to it in order.
+     *
+     * @throws MissingSessionChunkException
+     *             If any of the chunks is missing, e.g. because the session has been rewritten or
+     *             removed since the manifest was read
+     */
+    public void loadChunks(DynamoSessionItem manifest) {
+        String sessionId = manifest.getSessionId();
+        int chunkCount = manifest.getChunkCount();
+        Map<String, List<Object>> loaded = mapper.batchLoad(createChunkKeys(manifest), CONSISTENT_READS);
+
+        Map<String, ByteBuffer> chunkData = new HashMap<String, ByteBuffer>();
+        for (List<Object> items : loaded.values()) {
+            for (Object item : items) {
+                DynamoSessionItem chunk = (DynamoSessionItem) item;
+                chunkData.put(chunk.getSessionId(), chunk.getSessionData());
+            }
+        }
+        List<ByteBuffer> chunks = new ArrayList<ByteBuffer>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            ByteBuffer chunk = chunkData.get(getChunkId(sessionId, manifest.getChunkSetId(), i));
+            if (chunk == null) {
+                throw new MissingSessionChunkException("Chunk " + i + " of session " + sessionId + " is missing");
+            }
+            chunks.add(chunk);
+        }
+        manifest.setSessionDataChunks(chunks);
+    }
+
+    /**
+     * Deletes the chunks the manifest item refers to straight away. Chunks that can't be deleted
+     * are logged and left to expire.
+     */
+    public void deleteChunks(DynamoSessionItem manifest) {
+        deleteRetiredChunks(false);
+        delete(manifest);
+    }
+
+    /**
+     * Schedules the chunks the manifest item refers to for deletion once the grace period has
+     * passed, for chunk sets replaced by a newer write of the session.
+     */
+    public void retireChunks(DynamoSessionItem manifest) {
+        retiredChunkSets.add(new RetiredChunkSet(manifest, System.nanoTime()));
+    }
+
+    /**
+     * Deletes retired chunk sets.
+     *
+     * @param all
+     *            If true, chunk sets still within their grace period are deleted too, e.g. because
+     *            this instance is shutting down
+     */
+    public void deleteRetiredChunks(boolean all) {
+        long now = System.nanoTime();
+        RetiredChunkSet retired;
+        while ((retired = retiredChunkSets.peek()) != null
+                && (all || now - retired.retiredAt >= retiredChunkGraceNanos)) {
+            // Another thread may have taken it in the meantime
+            if (retiredChunkSets.remove(retired)) {
+                delete(retired.manifest);
+            }
+        }
+    }
+
+    private void delete(DynamoSessionItem manifest) {
+        for (FailedBatch failedBatch : mapper.batchDelete(createChunkKeys(manifest))) {
+            List<String> chunkIds = new ArrayList<String>();
+            for (List<WriteRequest> writeRequests : failedBatch.getUnprocessedItems().values()) {
+                for (WriteRequest writeRequest : writeRequests) {
+                    chunkIds.add(writeRequest.getDeleteRequest().getKey()
+                            .get(DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME).getS());
+                }
+            }
+            logger.warn("Unable to delete chunks " + chunkIds + " of session " + manifest.getSessionId()
+                    + ", leaving them to expire", failedBatch.getException());
+        }
+    }
+
+    /**
+     * @return Write capacity consumed by writing or deleting the chunks the manifest item refers
+     *         to, assuming every chunk is full
+     */
+    public double getWriteCapacityUnits(DynamoSessionItem manifest) {
+        return manifest.getChunkCount() * Math.ceil(chunkSizeBytes / 1024.0);
+    }
+
+    public static String getChunkId(String sessionId, String chunkSetId, int index) {
+        return sessionId + CHUNK_ID_SEPARATOR + chunkSetId + CHUNK_ID_SEPARATOR + index;
+    }
+
+    /**
+     * A chunk set replaced by a newer write, and when it was replaced.
+     */
+    private static final class RetiredChunkSet {
+        private final DynamoSessionItem manifest;
+        private final long retiredAt;
+
+        private RetiredChunkSet(DynamoSessionItem manifest, long retiredAt) {
+            this.manifest = manifest;
+            this.retiredAt = retiredAt;
+        }
+    }
+
+    private static List<Object> createChunkKeys(DynamoSessionItem manifest) {
+        List<Object> keys = new ArrayList<Object>(manifest.getChunkCount());
+        for (int i = 0; i < manifest.getChunkCount(); i++) {
+            keys.add(new DynamoSessionItem(getChunkId(manifest.getSessionId(), manifest.getChunkSetId(), i)));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+
+/**
+ * Reads, writes and deletes session items with single GetItem, PutItem and DeleteItem calls on the
+ * low-level client, converting between {@link DynamoSessionItem} and attribute maps by hand. This
+ * does the same as {@link com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper} load,
+ * save and delete for session items, without the mapper's reflection over the item class and its
+ * per-call model conversion.
+ * <p>
+ * Writes replace the whole item, so attributes that are null in the session item are removed from
+ * the stored item just as the mapper's default save behavior removes them. Reads are eventually
+ * consistent unless asked otherwise, like the mapper's.
+ */
+public class SessionItemTable {
+
+    /**
+     * Number of attributes a session item can have, so item maps are created at their final size.
+     */
+    private static final int MAX_ATTRIBUTES = 6;
+
+    private final AmazonDynamoDB dynamo;
+    private final String tableName;
+
+    public SessionItemTable(AmazonDynamoDB dynamo, String tableName) {
+        ValidatorUtils.nonNull(dynamo, "AmazonDynamoDB");
+        ValidatorUtils.nonNull(tableName, "TableName");
+        this.dynamo = dynamo;
+        this.tableName = tableName;
+    }
+
+    /**
+     * @return The stored session item, or null if there is none
+     */
+    public DynamoSessionItem load(String sessionId) {
+        return load(sessionId, false);
+    }
+
+    /**
+     * @param consistentRead
+     *            If true, the read is strongly consistent
+     * @return The stored session item, or null if there is none
+     */
+    public DynamoSessionItem load(String sessionId, boolean consistentRead) {
+        Map<String, AttributeValue> item = dynamo.getItem(new GetItemRequest().withTableName(tableName)
+                .withKey(toKey(sessionId)).withConsistentRead(consistentRead)).getItem();
+        return item == null ? null : toSessionItem(item);
+    }
+
+    /**
+     * @param expectedVersion
+     *            If not null, the write only succeeds if the stored item's
+     *            {@value DynamoSessionItem#VERSION_ATTRIBUTE_NAME} attribute matches this
+     * @throws com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException
+     *             If the expected version doesn't match
+     */
+    public void save(DynamoSessionItem sessionItem, ExpectedAttributeValue expectedVersion) {
+        PutItemRequest request = new PutItemRequest().withTableName(tableName).withItem(toItem(sessionItem));
+        if (expectedVersion != null) {
+            request.setExpected(Collections.singletonMap(DynamoSessionItem.VERSION_ATTRIBUTE_NAME, expectedVersion));
+        }
+        dynamo.putItem(request);
+    }
+
+    public void delete(String sessionId) {
+        delete(sessionId, ReturnConsumedCapacity.NONE);
+    }
+
+    /**
+     * @return The write capacity the delete consumed, or null if it wasn't asked for
+     */
+    public ConsumedCapacity delete(String sessionId, ReturnConsumedCapacity returnConsumedCapacity) {
+        return dynamo.deleteItem(new DeleteItemRequest().withTableName(tableName).withKey(toKey(sessionId))
+                .withReturnConsumedCapacity(returnConsumedCapacity)).getConsumedCapacity();
+    }
+
+    static Map<String, AttributeValue> toKey(String sessionId) {
+        return Collections.singletonMap(DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME, new AttributeValue(sessionId));
+    }
+
+    static Map<String, AttributeValue> toItem(DynamoSessionItem sessionItem) {
+        Map<String, AttributeValue> item = new HashMap<String, AttributeValue>(MAX_ATTRIBUTES * 2);
+        item.put(DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME, new AttributeValue(sessionItem.getSessionId()));
+        if (sessionItem.getSessionData() != null) {
+            item.put(DynamoSessionItem.SESSION_DATA_ATTRIBUTE_NAME,
+                    new AttributeValue().withB(sessionItem.getSessionData()));
+        }
+        if (sessionItem.getExpiresAt() != null) {
+            item.put(DynamoSessionItem.EXPIRES_AT_ATTRIBUTE_NAME,
+                    new AttributeValue().withN(sessionItem.getExpiresAt().toString()));
+        }
+        if (sessionItem.getChunkCount() != null) {
+            item.put(DynamoSessionItem.CHUNK_COUNT_ATTRIBUTE_NAME,
+                    new AttributeValue().withN(sessionItem.getChunkCount().toString()));
+        }
+        if (sessionItem.getChunkSetId() != null) {
+            item.put(DynamoSessionItem.CHUNK_SET_ID_ATTRIBUTE_NAME, new AttributeValue(sessionItem.getChunkSetId()));
+        }
+        if (sessionItem.getVersion() != null) {
+            item.put(DynamoSessionItem.VERSION_ATTRIBUTE_NAME,
+                    new AttributeValue().withN(sessionItem.getVersion().toString()));
+        }
+        return item;
+    }
+
+    static DynamoSessionItem toSessionItem(Map<String, AttributeValue> item) {
+        DynamoSessionItem sessionItem = new DynamoSessionItem(item.get(DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME)
+                .getS());
+        AttributeValue value = item.get(DynamoSessionItem.SESSION_DATA_ATTRIBUTE_NAME);
+        if (value != null) {
+            sessionItem.setSessionData(value.getB());
+        }
+        value = item.get(DynamoSessionItem.EXPIRES_AT_ATTRIBUTE_NAME);
+        if (value != null) {
+            sessionItem.setExpiresAt(Long.valueOf(value.getN()));
+        }
+        value = item.get(DynamoSessionItem.CHUNK_COUNT_ATTRIBUTE_NAME);
+        if (value != null) {
+            sessionItem.setChunkCount(Integer.valueOf(value.getN()));
+        }
+        value = item.get(DynamoSessionItem.CHUNK_SET_ID_ATTRIBUTE_NAME);
+        if (value != null) {
+            sessionItem.setChunkSetId(value.getS());
+        }
+        value = item.get(DynamoSessionItem.VERSION_ATTRIBUTE_NAME);
+        if (value != null) {
+            sessionItem.setVersion(Long.valueOf(value.getN()));
+        }
+        return sessionItem;
+    }
+}
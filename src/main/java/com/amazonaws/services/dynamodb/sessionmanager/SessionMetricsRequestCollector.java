@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+import com.amazonaws.util.AWSRequestMetrics.Field;
+import com.amazonaws.util.TimingInfo;
+
+/**
+ * Collects the time each DynamoDB client request takes, and how often requests are throttled and
+ * retried, from the SDK's per-request metrics.
+ * <p>
+ * Setting a collector on a client makes the SDK record full metrics for every request, which
+ * allocates timing and counter objects per request and attempt, so the manager only uses one when
+ * request metrics are asked for.
+ */
+public class SessionMetricsRequestCollector extends RequestMetricCollector {
+
+    private final SessionStorageMetrics metrics;
+
+    public SessionMetricsRequestCollector(SessionStorageMetrics metrics) {
+        ValidatorUtils.nonNull(metrics, "SessionStorageMetrics");
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void collectMetrics(Request<?> request, Response<?> response) {
+        TimingInfo timingInfo = request.getAWSRequestMetrics().getTimingInfo();
+        TimingInfo executeTime = timingInfo.getSubMeasurement(Field.ClientExecuteTime.name());
+        if (executeTime != null && executeTime.isEndTimeKnown()) {
+            metrics.getRequestTime().record(
+                    (executeTime.getEndTimeNano() - executeTime.getStartTimeNano()) / 1000);
+        }
+        Number attempts = timingInfo.getCounter(Field.RequestCount.name());
+        if (attempts != null && attempts.longValue() > 1) {
+            metrics.retried(attempts.longValue() - 1);
+        }
+        Number throttles = timingInfo.getCounter(Field.ThrottleException.name());
+        if (throttles != null) {
+            metrics.throttled(throttles.longValue());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+
+/**
+ * Keeps the most recently used session items in memory, together with the version each was
+ * stored with, so a session that comes back to this node after being handled elsewhere only has
+ * to be downloaded again if it was saved in the meantime.
+ * <p>
+ * Before a cached item is used, its current version is read from the table with a
+ * {@link SessionVersionReader}. That saves downloading a session that hasn't changed, but not
+ * read capacity: the version check is charged for the whole item, so a stale hit costs twice the
+ * capacity of reading the session directly. Items are cached serialized since Tomcat recycles
+ * session objects once they have been handed to the store.
+ */
+public class SessionNearCache {
+
+    private final SessionVersionReader versionReader;
+    private final Map<String, DynamoSessionItem> sessionItems;
+
+    /**
+     * @param maxSessions
+     *            Number of sessions to keep, evicting the least recently used beyond that
+     */
+    public SessionNearCache(AmazonDynamoDB dynamo, String tableName, final int maxSessions) {
+        this.versionReader = new SessionVersionReader(dynamo, tableName);
+        this.sessionItems = new LinkedHashMap<String, DynamoSessionItem>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DynamoSessionItem> eldest) {
+                return size() > maxSessions;
+            }
+        };
+    }
+
+    /**
+     * @return The cached session item if it is still the latest version stored in the table, or
+     *         null if the session isn't cached or has been saved or deleted since it was cached.
+     */
+    public DynamoSessionItem get(String sessionId) {
+        DynamoSessionItem cached;
+        synchronized (sessionItems) {
+            cached = sessionItems.get(sessionId);
+        }
+        if (cached == null) {
+            return null;
+        }
+        Long storedVersion = versionReader.readVersion(sessionId);
+        if (cached.getVersion().equals(storedVersion)) {
+            return cached;
+        }
+        remove(sessionId);
+        return null;
+    }
+
+    /**
+     * Caches the session item as it was last written to or read from the table. Items without a
+     * version are ignored.
+     */
+    public void put(DynamoSessionItem sessionItem) {
+        if (sessionItem.getVersion() == null) {
+            return;
+        }
+        synchronized (sessionItems) {
+            sessionItems.put(sessionItem.getSessionId(), sessionItem);
+        }
+    }
+
+    public void remove(String sessionId) {
+        synchronized (sessionItems) {
+            sessionItems.remove(sessionId);
+        }
+    }
+}
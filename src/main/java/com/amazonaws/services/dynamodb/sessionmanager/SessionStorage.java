@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.catalina.Session;
+
+/**
+ * Persists Tomcat sessions. {@link DynamoDBSessionStore}, {@link ExpiredSessionReaper} and
+ * {@link SessionCountCache} only use this interface, so they can run against
+ * {@link DynamoSessionStorage}, {@link InMemorySessionStorage}, or a layer that wraps either to
+ * add caching, batching or instrumentation. Backends with provisioned capacity also implement
+ * {@link CapacityReportingSessionStorage}.
+ * <p>
+ * Implementations must be safe to call from several threads at once.
+ */
+public interface SessionStorage {
+
+    /**
+     * @return The session with the given ID, or null if there is no such session
+     * @throws com.amazonaws.services.dynamodb.sessionmanager.converters.SessionConversionException
+     *             If the stored session can't be converted back to a session
+     */
+    Session loadSession(String sessionId);
+
+    /**
+     * Loads several sessions at once, in fewer round trips than loading them one by one where the
+     * backend allows it.
+     *
+     * @return The sessions found, keyed by session ID. IDs with no session are left out.
+     */
+    Map<String, Session> loadSessions(Collection<String> sessionIds);
+
+    void saveSession(Session session);
+
+    void deleteSession(String sessionId);
+
+    /**
+     * Deletes several sessions at once, in fewer round trips than deleting them one by one where
+     * the backend allows it.
+     */
+    void deleteSessions(Collection<String> sessionIds);
+
+    /**
+     * @return Number of sessions stored
+     */
+    int count();
+
+    /**
+     * Counts the sessions in one segment of the storage.
+     *
+     * @param segment
+     *            Segment to count, from 0 to totalSegments - 1
+     * @param totalSegments
+     *            Number of segments the storage is divided into
+     */
+    int count(int segment, int totalSegments);
+
+    Iterable<Session> listSessions();
+
+    /**
+     * Lists the sessions in one segment of the storage, so segments can be walked in parallel.
+     *
+     * @param segment
+     *            Segment to list, from 0 to totalSegments - 1
+     * @param totalSegments
+     *            Number of segments the storage is divided into
+     */
+    Iterable<Session> listSessions(int segment, int totalSegments);
+
+    /**
+     * Lists the IDs of sessions in one segment of the storage that expired before the given
+     * time, without converting the sessions where the backend allows it. Sessions stored without
+     * an expiry time are not listed.
+     *
+     * @param segment
+     *            Segment to list, from 0 to totalSegments - 1
+     * @param totalSegments
+     *            Number of segments the storage is divided into
+     * @param now
+     *            Current time, in seconds since the epoch
+     */
+    Iterable<String> listExpiredSessionIds(int segment, int totalSegments, long now);
+
+    /**
+     * Writes out any saves that are still buffered.
+     */
+    void flush();
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Timings, sizes and error counts of session storage operations, exposed as an MBean whose
+ * attributes are all read-only longs. Each distribution is reported as a count, a maximum and the
+ * 50th, 95th and 99th percentiles, e.g. LoadTimeMicrosCount and LoadTimeMicrosP99.
+ * <p>
+ * Time spent converting sessions to and from their stored form is recorded apart from time spent
+ * in DynamoDB requests, so the two can be compared. Request times, throttles and retries are only
+ * recorded when a {@link SessionMetricsRequestCollector} is set on the client.
+ */
+public class SessionStorageMetrics implements DynamicMBean {
+
+    /**
+     * Type key of the MBean's object name.
+     */
+    public static final String MBEAN_TYPE = "DynamoDBSessionMetrics";
+
+    private final Histogram loadTime = new Histogram();
+    private final Histogram saveTime = new Histogram();
+    private final Histogram removeTime = new Histogram();
+    private final Histogram countTime = new Histogram();
+    private final Histogram reapTime = new Histogram();
+    private final Histogram convertTime = new Histogram();
+    private final Histogram requestTime = new Histogram();
+    private final Histogram sessionSize = new Histogram();
+    private final AtomicLong throttles = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong corruptSessions = new AtomicLong();
+    private volatile SessionConflictCounters conflictCounters;
+
+    private final Map<String, Gauge> gauges = new LinkedHashMap<String, Gauge>();
+    private final MBeanInfo mbeanInfo;
+
+    public SessionStorageMetrics() {
+        addHistogram("LoadTimeMicros", loadTime, "Time taken to load a session");
+        addHistogram("SaveTimeMicros", saveTime, "Time taken to save a session");
+        addHistogram("RemoveTimeMicros", removeTime, "Time taken to remove a session");
+        addHistogram("CountTimeMicros", countTime, "Time taken to count the stored sessions");
+        addHistogram("ReapTimeMicros", reapTime, "Time taken by a pass of the expired session reaper");
+        addHistogram("ConvertTimeMicros", convertTime, "Time taken to convert a session to or from its stored form");
+        addHistogram("RequestTimeMicros", requestTime, "Time taken by a DynamoDB request, including retries");
+        addHistogram("SessionSizeBytes", sessionSize, "Size of the session data written or read");
+        addCounter("Throttles", throttles, "DynamoDB requests throttled for exceeding provisioned throughput");
+        addCounter("Retries", retries, "DynamoDB requests retried by the client");
+        addCounter("CorruptSessions", corruptSessions, "Stored sessions that couldn't be converted back to a session");
+        addConflictCounters();
+
+        List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        for (Entry<String, Gauge> gauge : gauges.entrySet()) {
+            attributes.add(new MBeanAttributeInfo(gauge.getKey(), long.class.getName(), gauge.getValue().description,
+                    true, false, false));
+        }
+        mbeanInfo = new MBeanInfo(getClass().getName(), "Amazon DynamoDB session storage metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), new MBeanConstructorInfo[0],
+                new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+    }
+
+    public Histogram getLoadTime() {
+        return loadTime;
+    }
+
+    public Histogram getSaveTime() {
+        return saveTime;
+    }
+
+    public Histogram getRemoveTime() {
+        return removeTime;
+    }
+
+    public Histogram getCountTime() {
+        return countTime;
+    }
+
+    public Histogram getReapTime() {
+        return reapTime;
+    }
+
+    public Histogram getConvertTime() {
+        return convertTime;
+    }
+
+    public Histogram getRequestTime() {
+        return requestTime;
+    }
+
+    public Histogram getSessionSize() {
+        return sessionSize;
+    }
+
+    public long getThrottles() {
+        return throttles.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getCorruptSessions() {
+        return corruptSessions.get();
+    }
+
+    /**
+     * @param conflictCounters
+     *            Counts of conflicting saves to report alongside the other metrics
+     */
+    public void setConflictCounters(SessionConflictCounters conflictCounters) {
+        this.conflictCounters = conflictCounters;
+    }
+
+    void throttled(long count) {
+        throttles.addAndGet(count);
+    }
+
+    void retried(long count) {
+        retries.addAndGet(count);
+    }
+
+    void corruptSession() {
+        corruptSessions.incrementAndGet();
+    }
+
+    /**
+     * @return A runnable that runs the reaper, recording how long each pass takes
+     */
+    public Runnable timeReaper(final Runnable reaper) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                long startTime = System.nanoTime();
+                try {
+                    reaper.run();
+                } finally {
+                    recordTimeSince(reapTime, startTime);
+                }
+            }
+        };
+    }
+
+    /**
+     * Records the time elapsed since a {@link System#nanoTime()} reading, in microseconds.
+     */
+    static void recordTimeSince(Histogram histogram, long startNanos) {
+        histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Gauge gauge = gauges.get(attribute);
+        if (gauge == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return gauge.get();
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList values = new AttributeList();
+        for (String attribute : attributes) {
+            Gauge gauge = gauges.get(attribute);
+            if (gauge != null) {
+                values.add(new Attribute(attribute, gauge.get()));
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        return mbeanInfo;
+    }
+
+    private void addHistogram(String name, final Histogram histogram, String description) {
+        gauges.put(name + "Count", new Gauge(description + ", number recorded") {
+            @Override
+            long get() {
+                return histogram.getCount();
+            }
+        });
+        addPercentile(name + "P50", histogram, 50, description);
+        addPercentile(name + "P95", histogram, 95, description);
+        addPercentile(name + "P99", histogram, 99, description);
+        gauges.put(name + "Max", new Gauge(description + ", maximum") {
+            @Override
+            long get() {
+                return histogram.getMax();
+            }
+        });
+    }
+
+    private void addPercentile(String name, final Histogram histogram, final double percentile,
+            String description) {
+        gauges.put(name, new Gauge(description + ", " + (int) percentile + "th percentile") {
+            @Override
+            long get() {
+                return histogram.getPercentile(percentile);
+            }
+        });
+    }
+
+    private void addCounter(String name, final AtomicLong counter, String description) {
+        gauges.put(name, new Gauge(description) {
+            @Override
+            long get() {
+                return counter.get();
+            }
+        });
+    }
+
+    private void addConflictCounters() {
+        gauges.put("Conflicts", new Gauge("Saves that found the session saved by another node") {
+            @Override
+            long get() {
+                return conflictCounters == null ? 0 : conflictCounters.getConflicts();
+            }
+        });
+        gauges.put("ConflictsMerged", new Gauge("Conflicts resolved by merging in the stored session") {
+            @Override
+            long get() {
+                return conflictCounters == null ? 0 : conflictCounters.getMerged();
+            }
+        });
+        gauges.put("ConflictsOverwritten", new Gauge("Conflicts resolved by overwriting the stored session") {
+            @Override
+            long get() {
+                return conflictCounters == null ? 0 : conflictCounters.getOverwritten();
+            }
+        });
+        gauges.put("ConflictsRejected", new Gauge("Saves rejected because of a conflict") {
+            @Override
+            long get() {
+                return conflictCounters == null ? 0 : conflictCounters.getRejected();
+            }
+        });
+    }
+
+    private abstract static class Gauge {
+
+        private final String description;
+
+        private Gauge(String description) {
+            this.description = description;
+        }
+
+        abstract long get();
+    }
+}
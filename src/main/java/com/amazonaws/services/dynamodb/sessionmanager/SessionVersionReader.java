@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.util.Collections;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+
+/**
+ * Reads the version of stored sessions with a strongly consistent GetItem that projects only the
+ * {@value DynamoSessionItem#VERSION_ATTRIBUTE_NAME} attribute, so only the version is sent over
+ * the network. DynamoDB still charges read capacity for the size of the whole item, the same as
+ * reading the session itself.
+ */
+public class SessionVersionReader {
+
+    private final AmazonDynamoDB dynamo;
+    private final String tableName;
+
+    public SessionVersionReader(AmazonDynamoDB dynamo, String tableName) {
+        ValidatorUtils.nonNull(dynamo, "AmazonDynamoDB");
+        ValidatorUtils.nonNull(tableName, "TableName");
+        this.dynamo = dynamo;
+        this.tableName = tableName;
+    }
+
+    /**
+     * @return The version of the session currently stored in the table, or null if the session
+     *         doesn't exist or was stored without a version
+     */
+    public Long readVersion(String sessionId) {
+        GetItemRequest request = new GetItemRequest().withTableName(tableName)
+                .withKey(Collections.singletonMap(DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME,
+                        new AttributeValue(sessionId)))
+                .withProjectionExpression("#version")
+                .withExpressionAttributeNames(
+                        Collections.singletonMap("#version", DynamoSessionItem.VERSION_ATTRIBUTE_NAME))
+                .withConsistentRead(true);
+        Map<String, AttributeValue> item = dynamo.getItem(request).getItem();
+        if (item == null || !item.containsKey(DynamoSessionItem.VERSION_ATTRIBUTE_NAME)) {
+            return null;
+        }
+        return Long.valueOf(item.get(DynamoSessionItem.VERSION_ATTRIBUTE_NAME).getN());
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A background process to periodically flush queued session writes to Amazon DynamoDB.
+ */
+public class WriteBehindExecutor {
+
+    private static final String THREAD_NAME = "dynamo-session-manager-write-behind";
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    public WriteBehindExecutor(WriteBehindQueue writeBehindQueue, long flushIntervalMillis) {
+        executor = new ScheduledThreadPoolExecutor(1, new WriteBehindThreadFactory());
+        executor.scheduleWithFixedDelay(writeBehindQueue, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Shuts down the write behind flusher.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * ThreadFactory for creating the daemon flusher thread.
+     */
+    private final class WriteBehindThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            thread.setName(THREAD_NAME);
+            return thread;
+        }
+    }
+}
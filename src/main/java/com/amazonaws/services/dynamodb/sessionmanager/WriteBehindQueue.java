@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.FailedBatch;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * Buffers session writes so they can be sent to DynamoDB in the background. Pending writes are
+ * kept in stripes keyed by session ID, and a session saved several times before the next flush is
+ * only written once with its latest state. Each flush sends everything pending as BatchWriteItem
+ * calls of up to 25 items, which {@link DynamoDBMapper#batchSave(List)} retries with backoff when
+ * items are left unprocessed. A {@link Listener} can be told which writes reached DynamoDB and
+ * which failed.
+ */
+public class WriteBehindQueue implements Runnable {
+
+    private static final Log logger = LogFactory.getLog(WriteBehindQueue.class);
+    private static final int NUM_STRIPES = 16;
+
+    private final DynamoDBMapper mapper;
+    private final Stripe[] stripes = new Stripe[NUM_STRIPES];
+    private final ConcurrentMap<String, DynamoSessionItem> inFlight = new ConcurrentHashMap<String, DynamoSessionItem>();
+
+    /**
+     * Held for the duration of a flush so that only one flush runs at a time.
+     */
+    private final Object flushLock = new Object();
+
+    private volatile Listener listener;
+
+    public WriteBehindQueue(DynamoDBMapper mapper) {
+        ValidatorUtils.nonNull(mapper, "DynamoDBMapper");
+        this.mapper = mapper;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Told about the outcome of each write once a flush has finished with it.
+     */
+    public interface Listener {
+
+        /**
+         * Called once the session item has been written to DynamoDB.
+         */
+        void written(DynamoSessionItem sessionItem);
+
+        /**
+         * Called when writing the session item failed. It is queued again unless the session has
+         * been saved since.
+         */
+        void failed(DynamoSessionItem sessionItem);
+    }
+
+    /**
+     * @param listener
+     *            Listener to tell about the outcome of writes, or null for none. Writes cancelled
+     *            while they were being flushed are not reported.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queues the session item to be written on the next flush, replacing any write still pending
+     * for the same session.
+     */
+    public void enqueue(DynamoSessionItem sessionItem) {
+        Stripe stripe = getStripe(sessionItem.getSessionId());
+        synchronized (stripe) {
+            stripe.pending.put(sessionItem.getSessionId(), sessionItem);
+        }
+    }
+
+    /**
+     * @return The latest session item queued or being written for the session, or null if there
+     *         is none.
+     */
+    public DynamoSessionItem getPending(String sessionId) {
+        Stripe stripe = getStripe(sessionId);
+        synchronized (stripe) {
+            DynamoSessionItem sessionItem = stripe.pending.get(sessionId);
+            if (sessionItem != null) {
+                return sessionItem;
+            }
+        }
+        return inFlight.get(sessionId);
+    }
+
+    /**
+     * Drops any pending write for the session without waiting for a flush in progress. A write
+     * for the session that is already on its way to DynamoDB is neither queued again nor reported
+     * to the listener, though it may still land after a delete or save that follows.
+     */
+    public void cancel(String sessionId) {
+        Stripe stripe = getStripe(sessionId);
+        synchronized (stripe) {
+            stripe.pending.remove(sessionId);
+            if (inFlight.containsKey(sessionId)) {
+                stripe.cancelled.add(sessionId);
+            }
+        }
+    }
+
+    /**
+     * Flushes pending writes. Exceptions are logged rather than thrown so a scheduled flush keeps
+     * running after a failure.
+     */
+    @Override
+    public void run() {
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.error("Unable to flush queued sessions to DynamoDB", e);
+        }
+    }
+
+    /**
+     * Writes everything currently pending to DynamoDB. Writes that fail are queued again unless
+     * the session has been saved or cancelled since.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            List<DynamoSessionItem> sessionItems = drain();
+            if (sessionItems.isEmpty()) {
+                return;
+            }
+            // Null until the batch write returns, as everything counts as failed if it throws
+            Set<String> failedSessionIds = null;
+            try {
+                failedSessionIds = getFailedSessionIds(mapper.batchSave(sessionItems));
+            } finally {
+                complete(sessionItems, failedSessionIds);
+            }
+        }
+    }
+
+    private List<DynamoSessionItem> drain() {
+        List<DynamoSessionItem> sessionItems = new ArrayList<DynamoSessionItem>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (DynamoSessionItem sessionItem : stripe.pending.values()) {
+                    inFlight.put(sessionItem.getSessionId(), sessionItem);
+                    sessionItems.add(sessionItem);
+                }
+                stripe.pending.clear();
+            }
+        }
+        return sessionItems;
+    }
+
+    private Set<String> getFailedSessionIds(List<FailedBatch> failedBatches) {
+        Set<String> failedSessionIds = new HashSet<String>();
+        for (FailedBatch failedBatch : failedBatches) {
+            logger.warn("Unable to write queued sessions to DynamoDB, retrying on next flush",
+                    failedBatch.getException());
+            for (List<WriteRequest> writeRequests : failedBatch.getUnprocessedItems().values()) {
+                for (WriteRequest writeRequest : writeRequests) {
+                    failedSessionIds.add(writeRequest.getPutRequest().getItem()
+                            .get(DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME).getS());
+                }
+            }
+        }
+        return failedSessionIds;
+    }
+
+    /**
+     * Takes the flushed session items out of flight, dropping those cancelled meanwhile, queueing
+     * failed ones again and telling the listener about the rest.
+     *
+     * @param failedSessionIds
+     *            IDs of the sessions whose writes failed, or null if they all did
+     */
+    private void complete(List<DynamoSessionItem> sessionItems, Set<String> failedSessionIds) {
+        Listener listener = this.listener;
+        for (DynamoSessionItem sessionItem : sessionItems) {
+            String sessionId = sessionItem.getSessionId();
+            boolean failed = failedSessionIds == null || failedSessionIds.contains(sessionId);
+            Stripe stripe = getStripe(sessionId);
+            // The listener is told under the stripe lock so a cancel can't slip in between
+            synchronized (stripe) {
+                inFlight.remove(sessionId);
+                if (stripe.cancelled.remove(sessionId)) {
+                    continue;
+                }
+                if (failed && !stripe.pending.containsKey(sessionId)) {
+                    stripe.pending.put(sessionId, sessionItem);
+                }
+                if (listener != null) {
+                    if (failed) {
+                        listener.failed(sessionItem);
+                    } else {
+                        listener.written(sessionItem);
+                    }
+                }
+            }
+        }
+    }
+
+    private Stripe getStripe(String sessionId) {
+        return stripes[(sessionId.hashCode() & Integer.MAX_VALUE) % stripes.length];
+    }
+
+    private static final class Stripe {
+        private final Map<String, DynamoSessionItem> pending = new LinkedHashMap<String, DynamoSessionItem>();
+        private final Set<String> cancelled = new HashSet<String>();
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.catalina.Manager;
+import org.apache.catalina.Session;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import com.amazonaws.services.dynamodb.sessionmanager.DynamoSessionItem;
+import com.amazonaws.services.dynamodb.sessionmanager.ExpiredSessionReaper;
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.util.BinaryUtils;
+
+/**
+ * Converts between a Tomcat {@link Session} and a DynamoDB item that stores each session attribute
+ * as its own entry in a map attribute, so individual attributes can be updated in place.
+ * <p>
+ * Strings, booleans and byte arrays are stored as native DynamoDB values. Boxed integral numbers
+ * are stored as native numbers tagged with their Java type so they can be read back as the same
+ * type. Any other attribute is stored as the bytes of its Java serialized form. Attributes that
+ * turn out not to be serializable are left out of the item, as Tomcat leaves them out of sessions
+ * it persists.
+ */
+public class AttributeMapSessionConverter {
+
+    private static final Log logger = LogFactory.getLog(AttributeMapSessionConverter.class);
+
+    public static final String CREATION_TIME_ATTRIBUTE_NAME = "creationTime";
+    public static final String LAST_ACCESSED_TIME_ATTRIBUTE_NAME = "lastAccessedTime";
+    public static final String MAX_INACTIVE_INTERVAL_ATTRIBUTE_NAME = "maxInactiveInterval";
+    public static final String IS_NEW_ATTRIBUTE_NAME = "isNew";
+    public static final String IS_VALID_ATTRIBUTE_NAME = "isValid";
+    public static final String THIS_ACCESSED_TIME_ATTRIBUTE_NAME = "thisAccessedTime";
+    public static final String SESSION_ATTRIBUTES_ATTRIBUTE_NAME = "sessionAttributes";
+
+    private static final String TYPE_KEY = "type";
+    private static final String VALUE_KEY = "value";
+    private static final String SERIALIZED_TYPE = "java.io.Serializable";
+
+    private final Manager manager;
+    private final ClassResolutionCache classResolutionCache;
+
+    public AttributeMapSessionConverter(Manager manager, ClassLoader classLoader) {
+        this(manager, new ClassResolutionCache(classLoader));
+    }
+
+    /**
+     * @throws SessionConversionException
+     *             If this version of Tomcat persists sessions in a layout this converter doesn't
+     *             support
+     */
+    public AttributeMapSessionConverter(Manager manager, ClassResolutionCache classResolutionCache) {
+        ValidatorUtils.nonNull(manager, "Manager");
+        ValidatorUtils.nonNull(classResolutionCache, "ClassResolutionCache");
+        StandardSessionSnapshot.checkSupported(manager);
+        this.manager = manager;
+        this.classResolutionCache = classResolutionCache;
+    }
+
+    /**
+     * Converts the Tomcat {@link Session} into the attributes of a DynamoDB item
+     */
+    public Map<String, AttributeValue> toItem(Session session) {
+        try {
+            StandardSessionSnapshot snapshot = StandardSessionSnapshot.capture(session);
+            Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+            item.put(DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME, new AttributeValue(snapshot.getId()));
+            item.put(CREATION_TIME_ATTRIBUTE_NAME, numberValue(snapshot.getCreationTime()));
+            item.put(LAST_ACCESSED_TIME_ATTRIBUTE_NAME, numberValue(snapshot.getLastAccessedTime()));
+            item.put(MAX_INACTIVE_INTERVAL_ATTRIBUTE_NAME, numberValue(snapshot.getMaxInactiveInterval()));
+            item.put(IS_NEW_ATTRIBUTE_NAME, new AttributeValue().withBOOL(snapshot.isNew()));
+            item.put(IS_VALID_ATTRIBUTE_NAME, new AttributeValue().withBOOL(snapshot.isValid()));
+            item.put(THIS_ACCESSED_TIME_ATTRIBUTE_NAME, numberValue(snapshot.getThisAccessedTime()));
+            Long expiresAt = ExpiredSessionReaper.getExpirationTime(snapshot.getLastAccessedTime(),
+                    snapshot.getMaxInactiveInterval());
+            if (expiresAt != null) {
+                item.put(DynamoSessionItem.EXPIRES_AT_ATTRIBUTE_NAME, numberValue(expiresAt));
+            }
+
+            Map<String, AttributeValue> sessionAttributes = new HashMap<String, AttributeValue>();
+            for (Entry<String, Object> attribute : snapshot.getAttributes().entrySet()) {
+                AttributeValue value = toAttributeValue(attribute.getValue());
+                if (value != null) {
+                    sessionAttributes.put(attribute.getKey(), value);
+                } else {
+                    logger.warn("Unable to serialize attribute " + attribute.getKey() + " of session "
+                            + snapshot.getId() + ". Leaving it out");
+                }
+            }
+            item.put(SESSION_ATTRIBUTES_ATTRIBUTE_NAME, new AttributeValue().withM(sessionAttributes));
+            return item;
+        } catch (Exception e) {
+            throw new SessionConversionException("Unable to convert Tomcat Session into Dynamo storage representation",
+                    e);
+        }
+    }
+
+    /**
+     * Converts the attributes of a DynamoDB item into a Tomcat {@link Session}
+     */
+    public Session toSession(Map<String, AttributeValue> item) {
+        try {
+            Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+            Map<String, AttributeValue> sessionAttributes = item.get(SESSION_ATTRIBUTES_ATTRIBUTE_NAME).getM();
+            if (sessionAttributes != null) {
+                for (Entry<String, AttributeValue> attribute : sessionAttributes.entrySet()) {
+                    attributes.put(attribute.getKey(), fromAttributeValue(attribute.getValue()));
+                }
+            }
+
+            StandardSessionSnapshot snapshot = new StandardSessionSnapshot(
+                    Long.parseLong(item.get(CREATION_TIME_ATTRIBUTE_NAME).getN()),
+                    Long.parseLong(item.get(LAST_ACCESSED_TIME_ATTRIBUTE_NAME).getN()),
+                    Integer.parseInt(item.get(MAX_INACTIVE_INTERVAL_ATTRIBUTE_NAME).getN()),
+                    item.get(IS_NEW_ATTRIBUTE_NAME).getBOOL(),
+                    item.get(IS_VALID_ATTRIBUTE_NAME).getBOOL(),
+                    Long.parseLong(item.get(THIS_ACCESSED_TIME_ATTRIBUTE_NAME).getN()),
+                    item.get(DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME).getS(),
+                    attributes);
+            return snapshot.restore(manager);
+        } catch (Exception e) {
+            throw new SessionConversionException("Unable to convert Dynamo storage representation to a Tomcat Session",
+                    e);
+        }
+    }
+
+    /**
+     * @return The DynamoDB value of the attribute, or null if it had to be serialized but
+     *         something in it isn't serializable
+     */
+    private AttributeValue toAttributeValue(Object value) throws IOException {
+        // DynamoDB doesn't allow empty strings or binary values so those fall through to
+        // serialization
+        if (value instanceof String && !((String) value).isEmpty()) {
+            return new AttributeValue((String) value);
+        } else if (value instanceof Boolean) {
+            return new AttributeValue().withBOOL((Boolean) value);
+        } else if (value instanceof byte[] && ((byte[]) value).length > 0) {
+            return new AttributeValue().withB(ByteBuffer.wrap((byte[]) value));
+        } else if (isNativeNumber(value)) {
+            return typedValue(value.getClass().getName(), numberValue((Number) value));
+        } else {
+            byte[] serialized = serialize(value);
+            return serialized == null ? null
+                    : typedValue(SERIALIZED_TYPE, new AttributeValue().withB(ByteBuffer.wrap(serialized)));
+        }
+    }
+
+    private Object fromAttributeValue(AttributeValue value) throws IOException, ClassNotFoundException {
+        if (value.getS() != null) {
+            return value.getS();
+        } else if (value.getBOOL() != null) {
+            return value.getBOOL();
+        } else if (value.getB() != null) {
+            return BinaryUtils.copyAllBytesFrom(value.getB());
+        } else if (value.getM() != null) {
+            String type = value.getM().get(TYPE_KEY).getS();
+            AttributeValue typedValue = value.getM().get(VALUE_KEY);
+            if (SERIALIZED_TYPE.equals(type)) {
+                return deserialize(typedValue.getB());
+            }
+            return parseNumber(type, typedValue.getN());
+        }
+        throw new SessionConversionException("Unsupported session attribute value " + value);
+    }
+
+    /**
+     * Only integral numbers are stored natively. DynamoDB normalizes numbers and has a smaller range
+     * than a double, so floating point and arbitrary precision values wouldn't always be read back
+     * equal to what was written.
+     */
+    private static boolean isNativeNumber(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+    }
+
+    private static Number parseNumber(String type, String number) {
+        if (Integer.class.getName().equals(type)) {
+            return Integer.valueOf(number);
+        } else if (Long.class.getName().equals(type)) {
+            return Long.valueOf(number);
+        } else if (Short.class.getName().equals(type)) {
+            return Short.valueOf(number);
+        } else if (Byte.class.getName().equals(type)) {
+            return Byte.valueOf(number);
+        }
+        throw new SessionConversionException("Unsupported session attribute type " + type);
+    }
+
+    private static AttributeValue numberValue(Number number) {
+        return new AttributeValue().withN(number.toString());
+    }
+
+    private static AttributeValue typedValue(String type, AttributeValue value) {
+        Map<String, AttributeValue> typed = new HashMap<String, AttributeValue>();
+        typed.put(TYPE_KEY, new AttributeValue(type));
+        typed.put(VALUE_KEY, value);
+        return new AttributeValue().withM(typed);
+    }
+
+    /**
+     * @return The Java serialized form of the value, or null if something in it isn't serializable
+     */
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        try {
+            oos.writeObject(value);
+        } catch (NotSerializableException e) {
+            return null;
+        } finally {
+            oos.close();
+        }
+        return bos.toByteArray();
+    }
+
+    private Object deserialize(ByteBuffer bytes) throws IOException, ClassNotFoundException {
+        ObjectInputStream ois = classResolutionCache.createObjectInputStream(SessionDataStreams.open(bytes));
+        try {
+            return ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+}
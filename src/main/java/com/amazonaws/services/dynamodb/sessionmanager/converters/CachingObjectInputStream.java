@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.lang.reflect.Proxy;
+
+/**
+ * Resolves classes like Tomcat's {@link org.apache.catalina.util.CustomObjectInputStream}, through
+ * the webapp ClassLoader first, but remembers them in a {@link ClassResolutionCache}.
+ */
+final class CachingObjectInputStream extends ObjectInputStream {
+
+    private final ClassResolutionCache.Resolver resolver;
+
+    CachingObjectInputStream(InputStream in, ClassResolutionCache.Resolver resolver) throws IOException {
+        super(in);
+        this.resolver = resolver;
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass classDesc) throws ClassNotFoundException, IOException {
+        String name = classDesc.getName();
+        Class<?> resolvedClass = resolver.get(name);
+        if (resolvedClass != null) {
+            return resolvedClass;
+        }
+        try {
+            resolvedClass = resolver.load(name);
+        } catch (ClassNotFoundException e) {
+            // Primitive types and classes only visible to the default resolution
+            resolvedClass = super.resolveClass(classDesc);
+            resolver.put(name, resolvedClass);
+        }
+        return resolvedClass;
+    }
+
+    /**
+     * Defines the proxy in the webapp ClassLoader, as Tomcat does.
+     * {@link ObjectInputStream#resolveProxyClass(String[])} can't be delegated to because it
+     * resolves the interfaces again through the latest user defined ClassLoader on the stack, which
+     * can't see the webapp's classes. {@link Proxy#getProxyClass(ClassLoader, Class...)} is
+     * deprecated on later JDKs but remains the only way to get a proxy class for a given
+     * ClassLoader.
+     */
+    @Override
+    @SuppressWarnings("deprecation")
+    protected Class<?> resolveProxyClass(String[] interfaces) throws ClassNotFoundException, IOException {
+        Class<?>[] interfaceClasses = new Class<?>[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaceClasses[i] = resolver.load(interfaces[i]);
+        }
+        try {
+            return Proxy.getProxyClass(resolver.getClassLoader(), interfaceClasses);
+        } catch (IllegalArgumentException e) {
+            throw new ClassNotFoundException(null, e);
+        }
+    }
+}
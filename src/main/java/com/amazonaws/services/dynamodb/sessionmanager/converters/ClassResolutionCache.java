@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+
+/**
+ * Remembers the classes session attributes resolved to, so deserializing a session doesn't look
+ * every attribute class up in the webapp ClassLoader again. Descriptors read from the stream still
+ * have to be parsed, but the JDK caches the local {@link java.io.ObjectStreamClass} of each
+ * resolved class, so those lookups stay cheap too.
+ * <p>
+ * Resolved classes belong to a particular ClassLoader, so the cache has to be {@link #reset} with
+ * the new webapp ClassLoader whenever the context reloads. Streams already open keep using the
+ * ClassLoader they were created with.
+ */
+public class ClassResolutionCache {
+
+    private volatile Resolver resolver;
+
+    public ClassResolutionCache(ClassLoader classLoader) {
+        reset(classLoader);
+    }
+
+    /**
+     * Forgets all resolved classes and resolves classes through the given ClassLoader from now on.
+     */
+    public void reset(ClassLoader classLoader) {
+        ValidatorUtils.nonNull(classLoader, "ClassLoader");
+        resolver = new Resolver(classLoader);
+    }
+
+    public ClassLoader getClassLoader() {
+        return resolver.classLoader;
+    }
+
+    /**
+     * @return Stream that deserializes objects with classes resolved through this cache
+     */
+    public ObjectInputStream createObjectInputStream(InputStream in) throws IOException {
+        return new CachingObjectInputStream(in, resolver);
+    }
+
+    /**
+     * The resolved classes of one ClassLoader.
+     */
+    static final class Resolver {
+
+        private final ClassLoader classLoader;
+        private final ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+
+        Resolver(ClassLoader classLoader) {
+            this.classLoader = classLoader;
+        }
+
+        ClassLoader getClassLoader() {
+            return classLoader;
+        }
+
+        /**
+         * @return The class if it has been resolved before, or null
+         */
+        Class<?> get(String name) {
+            return classes.get(name);
+        }
+
+        void put(String name, Class<?> resolvedClass) {
+            classes.putIfAbsent(name, resolvedClass);
+        }
+
+        /**
+         * @return The class resolved through the ClassLoader, from the cache if possible
+         */
+        Class<?> load(String name) throws ClassNotFoundException {
+            Class<?> resolvedClass = classes.get(name);
+            if (resolvedClass == null) {
+                resolvedClass = Class.forName(name, false, classLoader);
+                classes.putIfAbsent(name, resolvedClass);
+            }
+            return resolvedClass;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import java.io.DataOutputStream;
+
+import org.apache.catalina.Session;
+
+import com.amazonaws.services.dynamodb.sessionmanager.DynamoSessionItem;
+import com.amazonaws.services.dynamodb.sessionmanager.ExpiredSessionReaper;
+
+/**
+ * Writes session data in the compact tagged format rather than as a Java serialization stream.
+ * Strings, boxed primitives, dates, byte arrays and simple collections of them are written without
+ * class descriptors; other attributes are Java serialized one by one. Items written this way are
+ * read by {@link CompactTomcatSessionConverter}.
+ */
+public class CompactDynamoSessionItemConverter implements DynamoSessionItemConverter {
+
+    private static final int DEFAULT_BUFFER_SIZE = 512;
+
+    @Override
+    public DynamoSessionItem toSessionItem(Session session) {
+        try {
+            StandardSessionSnapshot snapshot = StandardSessionSnapshot.capture(session);
+            SessionDataOutputStream fos = new SessionDataOutputStream(
+                    DefaultDynamoSessionItemConverter.getBufferSize(session, DEFAULT_BUFFER_SIZE));
+            DataOutputStream out = new DataOutputStream(fos);
+            CompactSessionFormat.write(snapshot, out);
+            out.flush();
+            session.setNote(DefaultDynamoSessionItemConverter.SERIALIZED_SIZE_NOTE, fos.size());
+            DynamoSessionItem sessionItem = new DynamoSessionItem(session.getIdInternal());
+            sessionItem.setSessionData(fos.toByteBuffer());
+            sessionItem.setExpiresAt(ExpiredSessionReaper.getExpirationTime(session.getLastAccessedTimeInternal(),
+                    session.getMaxInactiveInterval()));
+            return sessionItem;
+        } catch (Exception e) {
+            throw new SessionConversionException("Unable to convert Tomcat Session into Dynamo storage representation",
+                    e);
+        }
+    }
+}
@@ -0,0 +1,460 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UTFDataFormatException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Tagged binary encoding of a session's persistent state.
+ * <p>
+ * Data starts with {@link #FORMAT_MAGIC} and a format version byte, followed by the session's
+ * fields and its attributes. Strings, boxed primitives, dates, byte arrays and
+ * ArrayList/HashMap/LinkedHashMap/HashSet instances made only of those are written as a type tag
+ * followed by the value, with integers as variable length numbers. Any other attribute is written
+ * with Java serialization, so class descriptors are only written for types that need them.
+ * Attributes that turn out not to be serializable are left out, as Tomcat leaves them out of
+ * sessions it persists.
+ */
+final class CompactSessionFormat {
+
+    private static final Log logger = LogFactory.getLog(CompactSessionFormat.class);
+
+    /**
+     * First byte of compact session data. Distinct from
+     * {@link SessionDataCompression#JAVA_SERIALIZATION_MAGIC} and the built-in compression format
+     * IDs so the formats can be told apart.
+     */
+    static final byte FORMAT_MAGIC = (byte) 0xC5;
+
+    /**
+     * Bumped whenever the format changes. Data written with a later version than this is rejected.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    /**
+     * Collections nested deeper than this are written with Java serialization.
+     */
+    private static final int MAX_DEPTH = 8;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_STRING = 1;
+    private static final int TAG_INTEGER = 2;
+    private static final int TAG_LONG = 3;
+    private static final int TAG_TRUE = 4;
+    private static final int TAG_FALSE = 5;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_FLOAT = 7;
+    private static final int TAG_SHORT = 8;
+    private static final int TAG_BYTE = 9;
+    private static final int TAG_CHARACTER = 10;
+    private static final int TAG_BYTE_ARRAY = 11;
+    private static final int TAG_DATE = 12;
+    private static final int TAG_ARRAY_LIST = 13;
+    private static final int TAG_HASH_MAP = 14;
+    private static final int TAG_LINKED_HASH_MAP = 15;
+    private static final int TAG_HASH_SET = 16;
+    private static final int TAG_SERIALIZED = 127;
+
+    /**
+     * Returned by {@link #compactCopy(Object)} for values that need Java serialization.
+     */
+    private static final Object NOT_COMPACT = new Object();
+
+    private CompactSessionFormat() {
+    }
+
+    static void write(StandardSessionSnapshot snapshot, DataOutputStream out) throws IOException {
+        Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+        for (Entry<String, Object> attribute : snapshot.getAttributes().entrySet()) {
+            Object value = compactCopy(attribute.getValue());
+            if (value == NOT_COMPACT) {
+                value = serialize(snapshot.getId(), attribute.getKey(), attribute.getValue());
+                if (value == null) {
+                    continue;
+                }
+            }
+            attributes.put(attribute.getKey(), value);
+        }
+
+        out.writeByte(FORMAT_MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        writeVarLong(out, snapshot.getCreationTime());
+        writeVarLong(out, snapshot.getLastAccessedTime());
+        writeVarLong(out, snapshot.getMaxInactiveInterval());
+        out.writeBoolean(snapshot.isNew());
+        out.writeBoolean(snapshot.isValid());
+        writeVarLong(out, snapshot.getThisAccessedTime());
+        writeString(out, snapshot.getId());
+        writeVarLong(out, attributes.size());
+        for (Entry<String, Object> attribute : attributes.entrySet()) {
+            writeString(out, attribute.getKey());
+            if (attribute.getValue() instanceof SerializedValue) {
+                ((SerializedValue) attribute.getValue()).writeTo(out);
+            } else {
+                writeValue(out, attribute.getValue());
+            }
+        }
+    }
+
+    static StandardSessionSnapshot read(DataInputStream in, ClassResolutionCache classResolutionCache)
+            throws IOException, ClassNotFoundException {
+        byte magic = in.readByte();
+        if (magic != FORMAT_MAGIC) {
+            throw new IOException("Not compact session data");
+        }
+        int version = in.readUnsignedByte();
+        if (version > FORMAT_VERSION) {
+            throw new IOException("Compact session data version " + version + " is newer than the supported "
+                    + "version " + FORMAT_VERSION);
+        }
+        long creationTime = readVarLong(in);
+        long lastAccessedTime = readVarLong(in);
+        int maxInactiveInterval = (int) readVarLong(in);
+        boolean isNew = in.readBoolean();
+        boolean isValid = in.readBoolean();
+        long thisAccessedTime = readVarLong(in);
+        String id = readString(in);
+        int attributeCount = (int) readVarLong(in);
+        Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < attributeCount; i++) {
+            String name = readString(in);
+            attributes.put(name, readValue(in, classResolutionCache));
+        }
+        return new StandardSessionSnapshot(creationTime, lastAccessedTime, maxInactiveInterval, isNew, isValid,
+                thisAccessedTime, id, attributes);
+    }
+
+    /**
+     * Copies the value so it is checked and written in a single pass over its contents, which the
+     * application may be changing concurrently.
+     *
+     * @return A copy of the value if it and everything in it has a tag of its own, or
+     *         {@link #NOT_COMPACT} if not or if the value changed while it was being copied
+     */
+    private static Object compactCopy(Object value) {
+        try {
+            return compactCopy(value, 0);
+        } catch (ConcurrentModificationException e) {
+            return NOT_COMPACT;
+        }
+    }
+
+    /**
+     * Only exact classes are considered so values are read back as the same type.
+     */
+    private static Object compactCopy(Object value, int depth) {
+        if (value == null) {
+            return null;
+        }
+        Class<?> type = value.getClass();
+        if (type == String.class || type == Integer.class || type == Long.class || type == Boolean.class
+                || type == Double.class || type == Float.class || type == Short.class || type == Byte.class
+                || type == Character.class || type == byte[].class || type == Date.class) {
+            return value;
+        }
+        if (depth >= MAX_DEPTH) {
+            return NOT_COMPACT;
+        }
+        if (type == ArrayList.class || type == HashSet.class) {
+            Collection<Object> copy = type == ArrayList.class ? new ArrayList<Object>() : new HashSet<Object>();
+            for (Object element : (Collection<?>) value) {
+                Object elementCopy = compactCopy(element, depth + 1);
+                if (elementCopy == NOT_COMPACT) {
+                    return NOT_COMPACT;
+                }
+                copy.add(elementCopy);
+            }
+            return copy;
+        }
+        if (type == HashMap.class || type == LinkedHashMap.class) {
+            Map<Object, Object> copy = type == HashMap.class ? new HashMap<Object, Object>()
+                    : new LinkedHashMap<Object, Object>();
+            for (Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                Object keyCopy = compactCopy(entry.getKey(), depth + 1);
+                Object valueCopy = compactCopy(entry.getValue(), depth + 1);
+                if (keyCopy == NOT_COMPACT || valueCopy == NOT_COMPACT) {
+                    return NOT_COMPACT;
+                }
+                copy.put(keyCopy, valueCopy);
+            }
+            return copy;
+        }
+        return NOT_COMPACT;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TAG_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TAG_INTEGER);
+            writeVarLong(out, (Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            writeVarLong(out, (Long) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Double) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TAG_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            out.writeByte(TAG_SHORT);
+            writeVarLong(out, (Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(TAG_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeByte(TAG_CHARACTER);
+            out.writeChar((Character) value);
+        } else if (value instanceof byte[]) {
+            out.writeByte(TAG_BYTE_ARRAY);
+            writeVarLong(out, ((byte[]) value).length);
+            out.write((byte[]) value);
+        } else if (value instanceof Date) {
+            out.writeByte(TAG_DATE);
+            writeVarLong(out, ((Date) value).getTime());
+        } else if (value instanceof Collection) {
+            out.writeByte(value instanceof ArrayList ? TAG_ARRAY_LIST : TAG_HASH_SET);
+            writeVarLong(out, ((Collection<?>) value).size());
+            for (Object element : (Collection<?>) value) {
+                writeValue(out, element);
+            }
+        } else {
+            out.writeByte(value instanceof LinkedHashMap ? TAG_LINKED_HASH_MAP : TAG_HASH_MAP);
+            writeVarLong(out, ((Map<?, ?>) value).size());
+            for (Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        }
+    }
+
+    private static Object readValue(DataInputStream in, ClassResolutionCache classResolutionCache)
+            throws IOException, ClassNotFoundException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+        case TAG_NULL:
+            return null;
+        case TAG_STRING:
+            return readString(in);
+        case TAG_INTEGER:
+            return (int) readVarLong(in);
+        case TAG_LONG:
+            return readVarLong(in);
+        case TAG_TRUE:
+            return Boolean.TRUE;
+        case TAG_FALSE:
+            return Boolean.FALSE;
+        case TAG_DOUBLE:
+            return in.readDouble();
+        case TAG_FLOAT:
+            return in.readFloat();
+        case TAG_SHORT:
+            return (short) readVarLong(in);
+        case TAG_BYTE:
+            return in.readByte();
+        case TAG_CHARACTER:
+            return in.readChar();
+        case TAG_BYTE_ARRAY:
+            return readBytes(in);
+        case TAG_DATE:
+            return new Date(readVarLong(in));
+        case TAG_ARRAY_LIST:
+            return readElements(in, classResolutionCache, new ArrayList<Object>());
+        case TAG_HASH_SET:
+            return readElements(in, classResolutionCache, new HashSet<Object>());
+        case TAG_HASH_MAP:
+            return readEntries(in, classResolutionCache, new HashMap<Object, Object>());
+        case TAG_LINKED_HASH_MAP:
+            return readEntries(in, classResolutionCache, new LinkedHashMap<Object, Object>());
+        case TAG_SERIALIZED:
+            return readSerialized(in, classResolutionCache);
+        default:
+            throw new IOException("Unknown compact session data tag " + tag);
+        }
+    }
+
+    private static Object readElements(DataInputStream in, ClassResolutionCache classResolutionCache,
+            Collection<Object> elements) throws IOException, ClassNotFoundException {
+        int size = (int) readVarLong(in);
+        for (int i = 0; i < size; i++) {
+            elements.add(readValue(in, classResolutionCache));
+        }
+        return elements;
+    }
+
+    private static Object readEntries(DataInputStream in, ClassResolutionCache classResolutionCache,
+            Map<Object, Object> entries) throws IOException, ClassNotFoundException {
+        int size = (int) readVarLong(in);
+        for (int i = 0; i < size; i++) {
+            Object key = readValue(in, classResolutionCache);
+            entries.put(key, readValue(in, classResolutionCache));
+        }
+        return entries;
+    }
+
+    /**
+     * @return The Java serialized form of the attribute, or null if something in it isn't
+     *         serializable
+     */
+    private static SerializedValue serialize(String sessionId, String name, Object value) throws IOException {
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(serialized);
+        try {
+            oos.writeObject(value);
+        } catch (NotSerializableException e) {
+            logger.warn("Unable to serialize attribute " + name + " of session " + sessionId + ". Leaving it out",
+                    e);
+            return null;
+        }
+        oos.close();
+        return new SerializedValue(serialized);
+    }
+
+    private static Object readSerialized(DataInputStream in, ClassResolutionCache classResolutionCache)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream ois = classResolutionCache.createObjectInputStream(new ByteArrayInputStream(readBytes(in)));
+        try {
+            return ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes the string's length in bytes followed by its characters in the modified UTF-8 used by
+     * {@link DataOutputStream#writeUTF(String)}, which unlike standard UTF-8 round trips unpaired
+     * surrogates, but without its 64KB limit.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        int length = value.length();
+        int encodedLength = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            encodedLength += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+        }
+        byte[] encoded = new byte[encodedLength];
+        int position = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                encoded[position++] = (byte) c;
+            } else if (c <= 0x07FF) {
+                encoded[position++] = (byte) (0xC0 | (c >> 6));
+                encoded[position++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                encoded[position++] = (byte) (0xE0 | (c >> 12));
+                encoded[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                encoded[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        writeVarLong(out, encodedLength);
+        out.write(encoded);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] encoded = readBytes(in);
+        char[] chars = new char[encoded.length];
+        int length = 0;
+        int position = 0;
+        while (position < encoded.length) {
+            int b = encoded[position++] & 0xFF;
+            if (b < 0x80) {
+                chars[length++] = (char) b;
+            } else if ((b & 0xE0) == 0xC0 && position < encoded.length) {
+                chars[length++] = (char) (((b & 0x1F) << 6) | (encoded[position++] & 0x3F));
+            } else if ((b & 0xF0) == 0xE0 && position + 1 < encoded.length) {
+                chars[length++] = (char) (((b & 0x0F) << 12) | ((encoded[position++] & 0x3F) << 6)
+                        | (encoded[position++] & 0x3F));
+            } else {
+                throw new UTFDataFormatException("Malformed string in compact session data");
+            }
+        }
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Writes the value zigzag encoded in groups of 7 bits, so small magnitudes take few bytes.
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("Malformed number in compact session data");
+    }
+
+    /**
+     * An attribute already written with Java serialization.
+     */
+    private static final class SerializedValue {
+
+        private final ByteArrayOutputStream serialized;
+
+        private SerializedValue(ByteArrayOutputStream serialized) {
+            this.serialized = serialized;
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            out.writeByte(TAG_SERIALIZED);
+            writeVarLong(out, serialized.size());
+            serialized.writeTo(out);
+        }
+    }
+}
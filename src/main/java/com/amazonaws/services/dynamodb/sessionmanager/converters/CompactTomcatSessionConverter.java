@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import java.io.DataInputStream;
+
+import org.apache.catalina.Manager;
+import org.apache.catalina.Session;
+
+import com.amazonaws.services.dynamodb.sessionmanager.DynamoSessionItem;
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+
+/**
+ * Reads session data written by {@link CompactDynamoSessionItemConverter}. Session data in any
+ * other format, such as items written before the compact format was enabled, is handed to another
+ * {@link TomcatSessionConverter}.
+ */
+public class CompactTomcatSessionConverter implements TomcatSessionConverter {
+
+    private final Manager manager;
+    private final ClassResolutionCache classResolutionCache;
+    private final TomcatSessionConverter delegate;
+    private volatile boolean layoutChecked;
+
+    public CompactTomcatSessionConverter(Manager manager, ClassResolutionCache classResolutionCache,
+            TomcatSessionConverter delegate) {
+        ValidatorUtils.nonNull(manager, "Manager");
+        ValidatorUtils.nonNull(classResolutionCache, "ClassResolutionCache");
+        ValidatorUtils.nonNull(delegate, "TomcatSessionConverter");
+        this.manager = manager;
+        this.classResolutionCache = classResolutionCache;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Session toSession(DynamoSessionItem sessionItem) {
+        if (sessionItem == null
+                || SessionDataStreams.peekFirstByte(sessionItem) != (CompactSessionFormat.FORMAT_MAGIC & 0xFF)) {
+            return delegate.toSession(sessionItem);
+        }
+        try {
+            if (!layoutChecked) {
+                StandardSessionSnapshot.checkSupported(manager);
+                layoutChecked = true;
+            }
+            DataInputStream in = new DataInputStream(SessionDataStreams.open(sessionItem));
+            return CompactSessionFormat.read(in, classResolutionCache).restore(manager);
+        } catch (Exception e) {
+            throw new SessionConversionException("Unable to convert Dynamo storage representation to a Tomcat Session",
+                    e);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import org.apache.catalina.Session;
+
+import com.amazonaws.services.dynamodb.sessionmanager.DynamoSessionItem;
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+
+/**
+ * Compresses the session data produced by another {@link DynamoSessionItemConverter}.
+ */
+public class CompressingDynamoSessionItemConverter implements DynamoSessionItemConverter {
+
+    private final DynamoSessionItemConverter delegate;
+    private final SessionDataCompression compression;
+
+    public CompressingDynamoSessionItemConverter(DynamoSessionItemConverter delegate,
+            SessionDataCompression compression) {
+        ValidatorUtils.nonNull(delegate, "DynamoSessionItemConverter");
+        ValidatorUtils.nonNull(compression, "SessionDataCompression");
+        this.delegate = delegate;
+        this.compression = compression;
+    }
+
+    @Override
+    public DynamoSessionItem toSessionItem(Session session) {
+        DynamoSessionItem sessionItem = delegate.toSessionItem(session);
+        try {
+            sessionItem.setSessionData(compression.compress(sessionItem.getSessionData()));
+            return sessionItem;
+        } catch (Exception e) {
+            throw new SessionConversionException("Unable to compress session data", e);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compression algorithm applied to serialized session data by {@link SessionDataCompression}.
+ */
+public interface CompressionCodec {
+
+    /**
+     * @return Header byte written in front of data compressed by this codec, used to pick the codec
+     *         that decompresses it. Must be unique among the codecs a {@link SessionDataCompression}
+     *         can read and must not be {@link SessionDataCompression#JAVA_SERIALIZATION_MAGIC} or the
+     *         first byte of compact session data (0xC5).
+     */
+    byte getFormatId();
+
+    /**
+     * Writes the compressed form of the data to the output stream.
+     */
+    void compress(byte[] data, int offset, int length, OutputStream out) throws IOException;
+
+    /**
+     * @return Stream of the decompressed form of the data read from the input stream
+     */
+    InputStream decompress(InputStream in) throws IOException;
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+
+/**
+ * A preset dictionary used by {@link PresetDictionaryCompressionCodec}, identified by its version
+ * so data compressed with it can find it again.
+ */
+public final class CompressionDictionary {
+
+    /**
+     * Deflate can only refer back this far, so any longer dictionary would be partly ignored.
+     */
+    public static final int MAX_SIZE_BYTES = 32 * 1024;
+
+    private final int version;
+    private final byte[] data;
+
+    /**
+     * @param version
+     *            Positive version number, unique among the dictionaries of a session table
+     * @param data
+     *            Dictionary content, at most {@link #MAX_SIZE_BYTES} long
+     */
+    public CompressionDictionary(int version, byte[] data) {
+        ValidatorUtils.nonNull(data, "Data");
+        if (version < 1) {
+            throw new IllegalArgumentException("Dictionary version must be at least 1");
+        }
+        if (data.length > MAX_SIZE_BYTES) {
+            throw new IllegalArgumentException("Dictionary can be at most " + MAX_SIZE_BYTES + " bytes");
+        }
+        this.version = version;
+        this.data = data;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The dictionary content, which must not be modified
+     */
+    public byte[] getData() {
+        return data;
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+/**
+ * Looks up the preset dictionaries that session data was compressed with.
+ */
+public interface CompressionDictionaryLoader {
+
+    /**
+     * @return The dictionary with the given version, or null if there is none
+     * @throws com.amazonaws.AmazonClientException
+     *             If the dictionary can't be fetched right now
+     */
+    CompressionDictionary loadDictionary(int version);
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds a preset dictionary for {@link PresetDictionaryCompressionCodec} out of byte sequences
+ * that recur across a sample of uncompressed session data, such as class descriptors and
+ * attribute names.
+ * <p>
+ * Every 8 byte sequence is counted once per sample it appears in. Runs of sequences found in at
+ * least a tenth of the samples, and in at least two, are kept as candidate segments, which are
+ * ranked by how many samples they appear in times their length. The best segments fill the
+ * dictionary, with the most valuable at the end where Deflate can reach them with the shortest
+ * distances.
+ */
+public final class CompressionDictionaryTrainer {
+
+    private static final int SEQUENCE_LENGTH = 8;
+
+    /**
+     * Only this much of each sample is looked at, since what sessions have in common is mostly
+     * near the start.
+     */
+    private static final int MAX_SAMPLE_BYTES = 64 * 1024;
+
+    /**
+     * Longer runs are split so a run shared by every sample can't crowd out everything else.
+     */
+    private static final int MAX_SEGMENT_BYTES = 1024;
+
+    private CompressionDictionaryTrainer() {
+    }
+
+    /**
+     * @param samples
+     *            Uncompressed session data to learn from
+     * @param maxSizeBytes
+     *            Largest dictionary to build, at most {@link CompressionDictionary#MAX_SIZE_BYTES}
+     * @return The dictionary content, which is empty if the samples have nothing in common
+     */
+    public static byte[] train(List<byte[]> samples, int maxSizeBytes) {
+        if (maxSizeBytes < 1 || maxSizeBytes > CompressionDictionary.MAX_SIZE_BYTES) {
+            throw new IllegalArgumentException("Dictionary size must be between 1 and "
+                    + CompressionDictionary.MAX_SIZE_BYTES + " bytes");
+        }
+        Map<Long, Integer> sampleCounts = countSequences(samples);
+        int minSampleCount = Math.max(2, (samples.size() + 9) / 10);
+        Set<Segment> segments = new HashSet<Segment>();
+        for (byte[] sample : samples) {
+            segments.addAll(findCommonSegments(sample, sampleCounts, minSampleCount));
+        }
+        return assemble(rank(segments), maxSizeBytes);
+    }
+
+    /**
+     * @return Number of samples each sequence appears in
+     */
+    private static Map<Long, Integer> countSequences(List<byte[]> samples) {
+        Map<Long, Integer> sampleCounts = new HashMap<Long, Integer>();
+        for (byte[] sample : samples) {
+            Set<Long> seen = new HashSet<Long>();
+            int end = Math.min(sample.length, MAX_SAMPLE_BYTES) - SEQUENCE_LENGTH;
+            for (int i = 0; i <= end; i++) {
+                Long sequence = sequenceAt(sample, i);
+                if (seen.add(sequence)) {
+                    Integer count = sampleCounts.get(sequence);
+                    sampleCounts.put(sequence, count == null ? 1 : count + 1);
+                }
+            }
+        }
+        return sampleCounts;
+    }
+
+    /**
+     * @return The runs of the sample covered by sequences common to enough samples, each scored
+     *         by the sample counts of the sequences it's made of
+     */
+    private static List<Segment> findCommonSegments(byte[] sample, Map<Long, Integer> sampleCounts,
+            int minSampleCount) {
+        List<Segment> segments = new ArrayList<Segment>();
+        int end = Math.min(sample.length, MAX_SAMPLE_BYTES) - SEQUENCE_LENGTH;
+        int start = -1;
+        int coveredTo = -1;
+        long score = 0;
+        for (int i = 0; i <= end; i++) {
+            Integer count = sampleCounts.get(sequenceAt(sample, i));
+            if (count != null && count >= minSampleCount) {
+                if (i > coveredTo) {
+                    if (start >= 0) {
+                        segments.add(new Segment(sample, start, coveredTo, score));
+                    }
+                    start = i;
+                    score = 0;
+                } else if (i + SEQUENCE_LENGTH - start > MAX_SEGMENT_BYTES) {
+                    segments.add(new Segment(sample, start, coveredTo, score));
+                    start = coveredTo;
+                    score = 0;
+                }
+                coveredTo = i + SEQUENCE_LENGTH;
+                score += count;
+            }
+        }
+        if (start >= 0) {
+            segments.add(new Segment(sample, start, coveredTo, score));
+        }
+        return segments;
+    }
+
+    private static List<Segment> rank(Set<Segment> segments) {
+        List<Segment> ranked = new ArrayList<Segment>(segments);
+        Collections.sort(ranked, new Comparator<Segment>() {
+            @Override
+            public int compare(Segment a, Segment b) {
+                return a.score == b.score ? 0 : a.score > b.score ? -1 : 1;
+            }
+        });
+        return ranked;
+    }
+
+    /**
+     * Takes segments in order of rank until the dictionary is full, skipping any already contained
+     * in a better one, then lays them out best last.
+     */
+    private static byte[] assemble(List<Segment> ranked, int maxSizeBytes) {
+        List<Segment> chosen = new ArrayList<Segment>();
+        List<String> chosenContents = new ArrayList<String>();
+        int size = 0;
+        for (Segment segment : ranked) {
+            if (size + segment.length() > maxSizeBytes) {
+                continue;
+            }
+            String content = segment.toLatin1();
+            if (isContained(content, chosenContents)) {
+                continue;
+            }
+            chosen.add(segment);
+            chosenContents.add(content);
+            size += segment.length();
+        }
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            chosen.get(i).writeTo(dictionary);
+        }
+        return dictionary.toByteArray();
+    }
+
+    private static boolean isContained(String content, List<String> chosenContents) {
+        for (String chosenContent : chosenContents) {
+            if (chosenContent.contains(content)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long sequenceAt(byte[] data, int offset) {
+        long sequence = 0;
+        for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+            sequence = (sequence << 8) | (data[offset + i] & 0xFF);
+        }
+        return sequence;
+    }
+
+    /**
+     * A run of bytes from a sample, equal to any other run with the same content.
+     */
+    private static final class Segment {
+
+        private final byte[] data;
+        private final int start;
+        private final int end;
+        private final long score;
+        private final int hashCode;
+
+        private Segment(byte[] data, int start, int end, long score) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+            this.score = score;
+            int hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + data[i];
+            }
+            this.hashCode = hash;
+        }
+
+        private int length() {
+            return end - start;
+        }
+
+        private String toLatin1() {
+            char[] chars = new char[length()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) (data[start + i] & 0xFF);
+            }
+            return new String(chars);
+        }
+
+        private void writeTo(ByteArrayOutputStream out) {
+            out.write(data, start, length());
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Segment)) {
+                return false;
+            }
+            Segment other = (Segment) obj;
+            if (other.length() != length()) {
+                return false;
+            }
+            for (int i = 0; i < length(); i++) {
+                if (data[start + i] != other.data[other.start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import java.io.InputStream;
+
+import org.apache.catalina.Session;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodb.sessionmanager.DynamoSessionItem;
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+import com.amazonaws.util.IOUtils;
+
+/**
+ * Decompresses session data before handing it to another {@link TomcatSessionConverter}. Session
+ * data that isn't compressed is passed through unchanged.
+ * <p>
+ * Data that can't be decompressed is reported as a {@link SessionConversionException}, but an
+ * {@link AmazonClientException} from fetching what's needed to decompress it, such as a preset
+ * dictionary, is passed on as is so that the session isn't mistaken for a corrupt one.
+ */
+public class DecompressingTomcatSessionConverter implements TomcatSessionConverter {
+
+    private final TomcatSessionConverter delegate;
+    private final SessionDataCompression compression;
+
+    public DecompressingTomcatSessionConverter(TomcatSessionConverter delegate, SessionDataCompression compression) {
+        ValidatorUtils.nonNull(delegate, "TomcatSessionConverter");
+        ValidatorUtils.nonNull(compression, "SessionDataCompression");
+        this.delegate = delegate;
+        this.compression = compression;
+    }
+
+    @Override
+    public Session toSession(DynamoSessionItem sessionItem) {
+        if (sessionItem == null || !compression.isCompressed(SessionDataStreams.peekFirstByte(sessionItem))) {
+            return delegate.toSession(sessionItem);
+        }
+        // Leave the original item untouched since it may still be queued for writing
+        DynamoSessionItem decompressedItem = new DynamoSessionItem(sessionItem.getSessionId());
+        InputStream in = null;
+        try {
+            in = compression.decompress(SessionDataStreams.open(sessionItem));
+            decompressedItem.setSessionData(SessionDataStreams.readFully(in,
+                    SessionDataStreams.length(sessionItem) * SessionDataCompression.DECOMPRESSED_SIZE_ESTIMATE));
+        } catch (AmazonClientException e) {
+            // Failing to fetch a compression dictionary says nothing about the session data
+            throw e;
+        } catch (Exception e) {
+            throw new SessionConversionException("Unable to decompress session data", e);
+        } finally {
+            IOUtils.closeQuietly(in, null);
+        }
+        decompressedItem.setExpiresAt(sessionItem.getExpiresAt());
+        return delegate.toSession(decompressedItem);
+    }
+}
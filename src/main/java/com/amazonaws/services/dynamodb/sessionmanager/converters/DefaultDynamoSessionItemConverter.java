@@ -14,7 +14,6 @@
  */
 package com.amazonaws.services.dynamodb.sessionmanager.converters;
 
-import java.io.ByteArrayOutputStream;
 import java.io.ObjectOutputStream;
 import java.nio.ByteBuffer;
 
@@ -22,20 +21,32 @@ import org.apache.catalina.Session;
 import org.apache.catalina.session.StandardSession;
 
 import com.amazonaws.services.dynamodb.sessionmanager.DynamoSessionItem;
+import com.amazonaws.services.dynamodb.sessionmanager.ExpiredSessionReaper;
 import com.amazonaws.util.IOUtils;
 
 public class DefaultDynamoSessionItemConverter implements DynamoSessionItemConverter {
 
+    /**
+     * Session note holding the size the session serialized to last time, so the next buffer can be
+     * allocated at about the right size instead of growing to it.
+     */
+    static final String SERIALIZED_SIZE_NOTE = DefaultDynamoSessionItemConverter.class.getName() + ".serializedSize";
+
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+
     @Override
     public DynamoSessionItem toSessionItem(Session session) {
         ObjectOutputStream oos = null;
         try {
-            ByteArrayOutputStream fos = new ByteArrayOutputStream();
+            SessionDataOutputStream fos = new SessionDataOutputStream(getBufferSize(session, DEFAULT_BUFFER_SIZE));
             oos = new ObjectOutputStream(fos);
             ((StandardSession) session).writeObjectData(oos);
             oos.close();
+            session.setNote(SERIALIZED_SIZE_NOTE, fos.size());
             DynamoSessionItem sessionItem = new DynamoSessionItem(session.getIdInternal());
-            sessionItem.setSessionData(ByteBuffer.wrap(fos.toByteArray()));
+            sessionItem.setSessionData(fos.toByteBuffer());
+            sessionItem.setExpiresAt(ExpiredSessionReaper.getExpirationTime(session.getLastAccessedTimeInternal(),
+                    session.getMaxInactiveInterval()));
             return sessionItem;
         } catch (Exception e) {
             IOUtils.closeQuietly(oos, null);
@@ -43,4 +54,17 @@ public class DefaultDynamoSessionItemConverter implements DynamoSessionItemConve
                     e);
         }
     }
+
+    /**
+     * Leaves some headroom over the last serialized size for the session to grow into, or returns
+     * the default size if the session hasn't been serialized before.
+     */
+    static int getBufferSize(Session session, int defaultSize) {
+        Object lastSize = session.getNote(SERIALIZED_SIZE_NOTE);
+        if (lastSize instanceof Integer) {
+            int size = (Integer) lastSize;
+            return size + size / 8 + 64;
+        }
+        return defaultSize;
+    }
 }
@@ -14,13 +14,11 @@
  */
 package com.amazonaws.services.dynamodb.sessionmanager.converters;
 
-import java.io.ByteArrayInputStream;
 import java.io.ObjectInputStream;
 
 import org.apache.catalina.Manager;
 import org.apache.catalina.Session;
 import org.apache.catalina.session.StandardSession;
-import org.apache.catalina.util.CustomObjectInputStream;
 
 import com.amazonaws.services.dynamodb.sessionmanager.DynamoSessionItem;
 import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
@@ -28,13 +26,17 @@ import com.amazonaws.util.IOUtils;
 
 public class DefaultTomcatSessionConverter implements TomcatSessionConverter {
 
-    private final ClassLoader classLoader;
+    private final ClassResolutionCache classResolutionCache;
     private final Manager manager;
 
     public DefaultTomcatSessionConverter(Manager manager, ClassLoader classLoader) {
+        this(manager, new ClassResolutionCache(classLoader));
+    }
+
+    public DefaultTomcatSessionConverter(Manager manager, ClassResolutionCache classResolutionCache) {
         ValidatorUtils.nonNull(manager, "Manager");
-        ValidatorUtils.nonNull(classLoader, "ClassLoader");
-        this.classLoader = classLoader;
+        ValidatorUtils.nonNull(classResolutionCache, "ClassResolutionCache");
+        this.classResolutionCache = classResolutionCache;
         this.manager = manager;
     }
 
@@ -42,8 +44,7 @@ public class DefaultTomcatSessionConverter implements TomcatSessionConverter {
     public Session toSession(DynamoSessionItem sessionItem) {
         ObjectInputStream ois = null;
         try {
-            ByteArrayInputStream fis = new ByteArrayInputStream(sessionItem.getSessionData().array());
-            ois = new CustomObjectInputStream(fis, classLoader);
+            ois = classResolutionCache.createObjectInputStream(SessionDataStreams.open(sessionItem));
 
             StandardSession session = new StandardSession(manager);
             session.readObjectData(ois);
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.amazonaws.services.dynamodb.sessionmanager.util.ValidatorUtils;
+
+/**
+ * Compresses session data with Deflate primed with a preset dictionary shared by all sessions.
+ * Class names, attribute names and field names that every session repeats are then found in the
+ * dictionary instead of being spelled out again in each item, which matters most for small
+ * sessions that have little repetition of their own.
+ * <p>
+ * The format ID is followed by the version of the dictionary as a variable length number, so
+ * items compressed with an older dictionary can still be read once a new one is in use. Versions
+ * that haven't been seen yet are fetched from the {@link CompressionDictionaryLoader} and kept. A
+ * version the loader doesn't know of is reported as an {@link IOException}, like any other malformed
+ * data, while an exception thrown by the loader itself is passed on unwrapped.
+ */
+public class PresetDictionaryCompressionCodec implements CompressionCodec {
+
+    public static final byte FORMAT_ID = 2;
+
+    private final CompressionDictionary dictionary;
+    private final CompressionDictionaryLoader loader;
+    private final int level;
+    private final ConcurrentMap<Integer, CompressionDictionary> dictionaries =
+            new ConcurrentHashMap<Integer, CompressionDictionary>();
+
+    /**
+     * @param dictionary
+     *            Dictionary to compress with, or null if this codec is only used to decompress
+     * @param loader
+     *            Looks up dictionaries that data to decompress was compressed with
+     */
+    public PresetDictionaryCompressionCodec(CompressionDictionary dictionary, CompressionDictionaryLoader loader) {
+        this(dictionary, loader, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param dictionary
+     *            Dictionary to compress with, or null if this codec is only used to decompress
+     * @param loader
+     *            Looks up dictionaries that data to decompress was compressed with
+     * @param level
+     *            Deflate compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public PresetDictionaryCompressionCodec(CompressionDictionary dictionary, CompressionDictionaryLoader loader,
+            int level) {
+        ValidatorUtils.nonNull(loader, "CompressionDictionaryLoader");
+        this.dictionary = dictionary;
+        this.loader = loader;
+        this.level = level;
+        if (dictionary != null) {
+            dictionaries.put(dictionary.getVersion(), dictionary);
+        }
+    }
+
+    @Override
+    public byte getFormatId() {
+        return FORMAT_ID;
+    }
+
+    @Override
+    public void compress(byte[] data, int offset, int length, OutputStream out) throws IOException {
+        if (dictionary == null) {
+            throw new IllegalStateException("No dictionary to compress with");
+        }
+        writeVersion(out, dictionary.getVersion());
+        // Raw Deflate lets the dictionary be set up front on both sides
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setDictionary(dictionary.getData());
+            DeflaterOutputStream deflaterStream = new DeflaterOutputStream(out, deflater);
+            deflaterStream.write(data, offset, length);
+            deflaterStream.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+        final Inflater inflater = new Inflater(true);
+        inflater.setDictionary(getDictionary(readVersion(in)).getData());
+        return new InflaterInputStream(in, inflater) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    private CompressionDictionary getDictionary(int version) throws IOException {
+        CompressionDictionary versionDictionary = dictionaries.get(version);
+        if (versionDictionary == null) {
+            versionDictionary = loader.loadDictionary(version);
+            if (versionDictionary == null) {
+                throw new IOException("Compression dictionary version " + version + " not found");
+            }
+            dictionaries.putIfAbsent(version, versionDictionary);
+        }
+        return versionDictionary;
+    }
+
+    private static void writeVersion(OutputStream out, int version) throws IOException {
+        while ((version & ~0x7F) != 0) {
+            out.write((version & 0x7F) | 0x80);
+            version >>>= 7;
+        }
+        out.write(version);
+    }
+
+    private static int readVersion(InputStream in) throws IOException {
+        int version = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Compressed session data ends before the dictionary version");
+            }
+            version |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return version;
+            }
+        }
+        throw new IOException("Malformed dictionary version in compressed session data");
+    }
+}
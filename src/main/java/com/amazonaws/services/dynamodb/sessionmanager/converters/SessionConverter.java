@@ -44,11 +44,55 @@ public final class SessionConverter implements TomcatSessionConverter, DynamoSes
 
     /**
      * Factory method to create a SessionConverter with the default implementation of
-     * TomcatSessionConverter and DynamoSessionConverter
+     * TomcatSessionConverter and DynamoSessionConverter. Session data is written uncompressed but
+     * compressed session data can be read.
      */
     public static SessionConverter createDefaultSessionConverter(Manager manager, ClassLoader classLoader) {
-        return new SessionConverter(new DefaultTomcatSessionConverter(manager, classLoader),
-                new DefaultDynamoSessionItemConverter());
+        return createDefaultSessionConverter(manager, classLoader, SessionDataCompression.createDecompressOnly());
+    }
+
+    /**
+     * Factory method to create a SessionConverter with the default implementation of
+     * TomcatSessionConverter and DynamoSessionConverter that compresses session data as
+     * configured.
+     */
+    public static SessionConverter createDefaultSessionConverter(Manager manager, ClassLoader classLoader,
+            SessionDataCompression compression) {
+        return createDefaultSessionConverter(manager, new ClassResolutionCache(classLoader), compression);
+    }
+
+    /**
+     * Factory method to create a SessionConverter with the default implementation of
+     * TomcatSessionConverter and DynamoSessionConverter that compresses session data as
+     * configured and resolves classes through the given cache.
+     */
+    public static SessionConverter createDefaultSessionConverter(Manager manager,
+            ClassResolutionCache classResolutionCache, SessionDataCompression compression) {
+        return createDefaultSessionConverter(manager, classResolutionCache, compression, false);
+    }
+
+    /**
+     * Factory method to create a SessionConverter with the default implementation of
+     * TomcatSessionConverter and DynamoSessionConverter that compresses session data as
+     * configured and resolves classes through the given cache. Session data is written in the
+     * compact format if requested, and can be read in either format.
+     *
+     * @throws SessionConversionException
+     *             If the compact format is requested but isn't supported by this version of Tomcat
+     */
+    public static SessionConverter createDefaultSessionConverter(Manager manager,
+            ClassResolutionCache classResolutionCache, SessionDataCompression compression, boolean compactFormat) {
+        if (compactFormat) {
+            StandardSessionSnapshot.checkSupported(manager);
+        }
+        DynamoSessionItemConverter toDynamo = compactFormat ? new CompactDynamoSessionItemConverter()
+                : new DefaultDynamoSessionItemConverter();
+        return new SessionConverter(
+                new DecompressingTomcatSessionConverter(
+                        new CompactTomcatSessionConverter(manager, classResolutionCache,
+                                new DefaultTomcatSessionConverter(manager, classResolutionCache)),
+                        compression),
+                new CompressingDynamoSessionItemConverter(toDynamo, compression));
     }
 
 }
\ No newline at end of file
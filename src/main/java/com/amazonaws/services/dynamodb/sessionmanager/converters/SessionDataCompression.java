@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compresses serialized session data above a size threshold and decompresses it again.
+ * <p>
+ * Compressed data starts with a header byte identifying the {@link CompressionCodec} that
+ * compressed it. Data that wasn't compressed is stored as the plain Java serialization stream,
+ * which always starts with {@link #JAVA_SERIALIZATION_MAGIC}, or as compact session data, so items
+ * written before compression was enabled, or written below the threshold, can be read alongside
+ * compressed ones.
+ */
+public final class SessionDataCompression {
+
+    /**
+     * First byte of every Java serialization stream.
+     */
+    public static final byte JAVA_SERIALIZATION_MAGIC = (byte) 0xAC;
+
+    /**
+     * Rough ratio of decompressed to compressed size, used to size decompression buffers.
+     */
+    static final int DECOMPRESSED_SIZE_ESTIMATE = 4;
+
+    private final CompressionCodec codec;
+    private final int thresholdBytes;
+    private final Map<Byte, CompressionCodec> readableCodecs = new HashMap<Byte, CompressionCodec>();
+
+    /**
+     * @param codec
+     *            Codec used to compress session data, or null to never compress
+     * @param thresholdBytes
+     *            Session data smaller than this is stored uncompressed
+     * @param readableCodecs
+     *            Codecs, besides the one used for compression, whose data can be decompressed
+     */
+    public SessionDataCompression(CompressionCodec codec, int thresholdBytes, CompressionCodec... readableCodecs) {
+        this.codec = codec;
+        this.thresholdBytes = thresholdBytes;
+        for (CompressionCodec readableCodec : readableCodecs) {
+            addReadableCodec(readableCodec);
+        }
+        if (codec != null) {
+            addReadableCodec(codec);
+        }
+    }
+
+    /**
+     * @return Instance that doesn't compress but can read data compressed with any of the built-in
+     *         codecs
+     */
+    public static SessionDataCompression createDecompressOnly() {
+        return new SessionDataCompression(null, Integer.MAX_VALUE, new DeflateCompressionCodec());
+    }
+
+    private void addReadableCodec(CompressionCodec readableCodec) {
+        if (readableCodec.getFormatId() == JAVA_SERIALIZATION_MAGIC) {
+            throw new IllegalArgumentException("Compression format ID can't be the Java serialization magic byte");
+        }
+        if (readableCodec.getFormatId() == CompactSessionFormat.FORMAT_MAGIC) {
+            throw new IllegalArgumentException("Compression format ID can't be the compact session format magic byte");
+        }
+        readableCodecs.put(readableCodec.getFormatId(), readableCodec);
+    }
+
+    /**
+     * @return The session data compressed and prefixed with the codec's header byte, or the data
+     *         unchanged if it's below the threshold or compressing doesn't make it smaller
+     */
+    public ByteBuffer compress(ByteBuffer sessionData) throws IOException {
+        if (codec == null || sessionData == null || sessionData.remaining() < thresholdBytes) {
+            return sessionData;
+        }
+        byte[] data;
+        int offset;
+        if (sessionData.hasArray()) {
+            data = sessionData.array();
+            offset = sessionData.arrayOffset() + sessionData.position();
+        } else {
+            data = new byte[sessionData.remaining()];
+            sessionData.duplicate().get(data);
+            offset = 0;
+        }
+        int length = sessionData.remaining();
+
+        SessionDataOutputStream out = new SessionDataOutputStream(length / 2 + 1);
+        out.write(codec.getFormatId());
+        codec.compress(data, offset, length, out);
+        if (out.size() >= length) {
+            return sessionData;
+        }
+        return out.toByteBuffer();
+    }
+
+    /**
+     * @param firstByte
+     *            First byte of the session data, or -1 if there is none
+     * @return True if data starting with this byte was compressed
+     */
+    public boolean isCompressed(int firstByte) {
+        return firstByte >= 0 && (byte) firstByte != JAVA_SERIALIZATION_MAGIC
+                && (byte) firstByte != CompactSessionFormat.FORMAT_MAGIC;
+    }
+
+    /**
+     * @return The session data with any compression undone
+     * @throws IOException
+     *             If the data is compressed with a codec this instance can't read
+     */
+    public ByteBuffer decompress(ByteBuffer sessionData) throws IOException {
+        if (sessionData == null || !sessionData.hasRemaining()
+                || !isCompressed(sessionData.get(sessionData.position()) & 0xFF)) {
+            return sessionData;
+        }
+        InputStream in = decompress(SessionDataStreams.open(sessionData));
+        try {
+            return SessionDataStreams.readFully(in, sessionData.remaining() * DECOMPRESSED_SIZE_ESTIMATE);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param compressedData
+     *            Compressed session data, starting with the header byte
+     * @return Stream of the decompressed session data
+     * @throws IOException
+     *             If the data is compressed with a codec this instance can't read
+     */
+    public InputStream decompress(InputStream compressedData) throws IOException {
+        int formatId = compressedData.read();
+        CompressionCodec readableCodec = readableCodecs.get((byte) formatId);
+        if (formatId < 0 || readableCodec == null) {
+            throw new IOException("Unknown session data format " + formatId);
+        }
+        return readableCodec.decompress(compressedData);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable in-memory output stream whose contents can be taken as a ByteBuffer without copying
+ * them, unless the backing array would waste too much space.
+ */
+final class SessionDataOutputStream extends ByteArrayOutputStream {
+
+    SessionDataOutputStream(int initialSize) {
+        super(initialSize);
+    }
+
+    /**
+     * Reads the stream to the end straight into this stream's array.
+     */
+    void readFrom(InputStream in) throws IOException {
+        while (true) {
+            if (count == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            int read = in.read(buf, count, buf.length - count);
+            if (read < 0) {
+                return;
+            }
+            count += read;
+        }
+    }
+
+    /**
+     * @return Buffer over the bytes written so far. The stream must not be written to afterwards.
+     */
+    ByteBuffer toByteBuffer() {
+        // Only trim when more than a quarter of the array would be held for nothing
+        if (buf.length - count > count / 4) {
+            return ByteBuffer.wrap(Arrays.copyOf(buf, count));
+        }
+        return ByteBuffer.wrap(buf, 0, count);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.amazonaws.services.dynamodb.sessionmanager.DynamoSessionItem;
+
+/**
+ * Reads session data in place, whether it's stored in a single item or split across chunks, and
+ * whatever kind of ByteBuffer holds it.
+ */
+final class SessionDataStreams {
+
+    private SessionDataStreams() {
+    }
+
+    /**
+     * @return Stream over the session data of the item, reading the chunks one after the other if
+     *         the session is chunked
+     */
+    static InputStream open(DynamoSessionItem sessionItem) {
+        List<ByteBuffer> chunks = sessionItem.getSessionDataChunks();
+        if (chunks == null) {
+            return open(sessionItem.getSessionData());
+        }
+        List<InputStream> chunkStreams = new ArrayList<InputStream>(chunks.size());
+        for (ByteBuffer chunk : chunks) {
+            chunkStreams.add(open(chunk));
+        }
+        return new SequenceInputStream(Collections.enumeration(chunkStreams));
+    }
+
+    /**
+     * @return Stream over the remaining bytes of the buffer, without copying them
+     */
+    static InputStream open(ByteBuffer buffer) {
+        return new ByteBufferInputStream(buffer);
+    }
+
+    /**
+     * @return Number of bytes of session data in the item, across all its chunks
+     */
+    static int length(DynamoSessionItem sessionItem) {
+        List<ByteBuffer> chunks = sessionItem.getSessionDataChunks();
+        if (chunks == null) {
+            return sessionItem.getSessionData() == null ? 0 : sessionItem.getSessionData().remaining();
+        }
+        int length = 0;
+        for (ByteBuffer chunk : chunks) {
+            length += chunk.remaining();
+        }
+        return length;
+    }
+
+    /**
+     * Reads the stream to the end into a single buffer, without copying the bytes again once read.
+     *
+     * @param sizeHint
+     *            Expected number of bytes
+     */
+    static ByteBuffer readFully(InputStream in, int sizeHint) throws IOException {
+        SessionDataOutputStream out = new SessionDataOutputStream(Math.max(sizeHint, 64));
+        out.readFrom(in);
+        return out.toByteBuffer();
+    }
+
+    /**
+     * @return The first byte of the item's session data, or -1 if it has none
+     */
+    static int peekFirstByte(DynamoSessionItem sessionItem) {
+        List<ByteBuffer> chunks = sessionItem.getSessionDataChunks();
+        ByteBuffer first = chunks == null ? sessionItem.getSessionData() : chunks.isEmpty() ? null : chunks.get(0);
+        if (first == null || !first.hasRemaining()) {
+            return -1;
+        }
+        return first.get(first.position()) & 0xFF;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.session.StandardSession;
+
+/**
+ * Merges the state of a session stored by another node into a local copy of the same session.
+ */
+public final class SessionMerge {
+
+    private SessionMerge() {
+    }
+
+    /**
+     * Adds the persisted attributes of the stored session that the local session doesn't have to
+     * the local session, without notifying listeners. Attributes the local session already has are
+     * left as they are.
+     *
+     * @param session
+     *            Local session to merge into
+     * @param storedSession
+     *            Session as read from DynamoDB, which is only read from
+     */
+    public static void mergeStoredAttributes(Session session, Session storedSession) {
+        try {
+            // Snapshots avoid HttpSession accessors, which could expire the stored copy
+            Map<String, Object> attributes = StandardSessionSnapshot.capture(session).getAttributes();
+            Map<String, Object> storedAttributes = StandardSessionSnapshot.capture(storedSession).getAttributes();
+            for (Entry<String, Object> storedAttribute : storedAttributes.entrySet()) {
+                if (!attributes.containsKey(storedAttribute.getKey())) {
+                    ((StandardSession) session).setAttribute(storedAttribute.getKey(), storedAttribute.getValue(),
+                            false);
+                }
+            }
+        } catch (Exception e) {
+            throw new SessionConversionException("Unable to merge stored session " + session.getId(), e);
+        }
+    }
+}
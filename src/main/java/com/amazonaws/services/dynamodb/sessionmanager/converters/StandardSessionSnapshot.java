@@ -0,0 +1,235 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.catalina.Manager;
+import org.apache.catalina.Session;
+import org.apache.catalina.session.StandardSession;
+
+/**
+ * The persistent state of a {@link StandardSession}, captured from the values it writes in
+ * {@link StandardSession#writeObjectData(ObjectOutputStream)} without serializing them. This lets
+ * converters store session fields and attributes in whatever format they like while still relying
+ * on Tomcat to decide which attributes are persisted and how a session is restored.
+ * <p>
+ * The values are expected in the order Tomcat 8.0 writes and reads them. Converters call
+ * {@link #checkSupported(Manager)} before relying on that order, so a Tomcat version that persists
+ * sessions differently is rejected up front rather than having its sessions misread.
+ */
+class StandardSessionSnapshot {
+
+    private static final String PROBE_ID = StandardSessionSnapshot.class.getName() + ".probe";
+
+    private final long creationTime;
+    private final long lastAccessedTime;
+    private final int maxInactiveInterval;
+    private final boolean isNew;
+    private final boolean isValid;
+    private final long thisAccessedTime;
+    private final String id;
+    private final Map<String, Object> attributes;
+
+    StandardSessionSnapshot(long creationTime, long lastAccessedTime, int maxInactiveInterval, boolean isNew,
+            boolean isValid, long thisAccessedTime, String id, Map<String, Object> attributes) {
+        this.creationTime = creationTime;
+        this.lastAccessedTime = lastAccessedTime;
+        this.maxInactiveInterval = maxInactiveInterval;
+        this.isNew = isNew;
+        this.isValid = isValid;
+        this.thisAccessedTime = thisAccessedTime;
+        this.id = id;
+        this.attributes = attributes;
+    }
+
+    /**
+     * Checks that the running version of Tomcat writes and reads sessions in the layout
+     * {@link #capture(Session)} and {@link #restore(Manager)} expect, by restoring a probe session
+     * for the given manager and capturing it again.
+     *
+     * @throws SessionConversionException
+     *             If this version of Tomcat persists sessions differently
+     */
+    static void checkSupported(Manager manager) {
+        Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+        attributes.put(PROBE_ID, PROBE_ID);
+        StandardSessionSnapshot probe = new StandardSessionSnapshot(1000L, 2000L, 60, false, true, 3000L, PROBE_ID,
+                attributes);
+        StandardSessionSnapshot captured;
+        try {
+            captured = capture(probe.restore(manager));
+        } catch (Exception e) {
+            throw new SessionConversionException("This version of Tomcat persists sessions in an unsupported layout",
+                    e);
+        }
+        // The manager may be configured to filter out the probe attribute
+        if (!probe.hasSameFields(captured)
+                || !(captured.attributes.isEmpty() || captured.attributes.equals(probe.attributes))) {
+            throw new SessionConversionException("This version of Tomcat persists sessions in an unsupported layout");
+        }
+    }
+
+    /**
+     * Captures the state Tomcat would persist for the given session.
+     */
+    static StandardSessionSnapshot capture(Session session) throws IOException {
+        RecordingObjectOutputStream oos = new RecordingObjectOutputStream();
+        ((StandardSession) session).writeObjectData(oos);
+        Iterator<Object> values = oos.getObjects().iterator();
+
+        long creationTime = (Long) values.next();
+        long lastAccessedTime = (Long) values.next();
+        int maxInactiveInterval = (Integer) values.next();
+        boolean isNew = (Boolean) values.next();
+        boolean isValid = (Boolean) values.next();
+        long thisAccessedTime = (Long) values.next();
+        String id = (String) values.next();
+        int attributeCount = (Integer) values.next();
+        Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < attributeCount; i++) {
+            attributes.put((String) values.next(), values.next());
+        }
+        if (values.hasNext()) {
+            throw new IOException("Tomcat wrote more session data than expected");
+        }
+        return new StandardSessionSnapshot(creationTime, lastAccessedTime, maxInactiveInterval, isNew, isValid,
+                thisAccessedTime, id, attributes);
+    }
+
+    /**
+     * Restores a new {@link StandardSession} for the given manager from this snapshot.
+     */
+    StandardSession restore(Manager manager) throws IOException, ClassNotFoundException {
+        List<Object> values = new ArrayList<Object>(8 + attributes.size() * 2);
+        values.add(creationTime);
+        values.add(lastAccessedTime);
+        values.add(maxInactiveInterval);
+        values.add(isNew);
+        values.add(isValid);
+        values.add(thisAccessedTime);
+        values.add(id);
+        values.add(attributes.size());
+        for (Entry<String, Object> attribute : attributes.entrySet()) {
+            values.add(attribute.getKey());
+            values.add(attribute.getValue());
+        }
+
+        StandardSession session = new StandardSession(manager);
+        session.readObjectData(new ReplayingObjectInputStream(values));
+        return session;
+    }
+
+    private boolean hasSameFields(StandardSessionSnapshot other) {
+        return creationTime == other.creationTime && lastAccessedTime == other.lastAccessedTime
+                && maxInactiveInterval == other.maxInactiveInterval && isNew == other.isNew
+                && isValid == other.isValid && thisAccessedTime == other.thisAccessedTime && id.equals(other.id);
+    }
+
+    long getCreationTime() {
+        return creationTime;
+    }
+
+    long getLastAccessedTime() {
+        return lastAccessedTime;
+    }
+
+    int getMaxInactiveInterval() {
+        return maxInactiveInterval;
+    }
+
+    boolean isNew() {
+        return isNew;
+    }
+
+    boolean isValid() {
+        return isValid;
+    }
+
+    long getThisAccessedTime() {
+        return thisAccessedTime;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Records the objects written to it rather than serializing them.
+     */
+    private static final class RecordingObjectOutputStream extends ObjectOutputStream {
+
+        private final List<Object> objects = new ArrayList<Object>();
+
+        private RecordingObjectOutputStream() throws IOException {
+            super();
+        }
+
+        @Override
+        protected void writeObjectOverride(Object obj) {
+            objects.add(obj);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private List<Object> getObjects() {
+            return objects;
+        }
+    }
+
+    /**
+     * Hands back a fixed sequence of objects rather than deserializing them.
+     */
+    private static final class ReplayingObjectInputStream extends ObjectInputStream {
+
+        private final Iterator<Object> objects;
+
+        private ReplayingObjectInputStream(List<Object> objects) throws IOException {
+            super();
+            this.objects = objects.iterator();
+        }
+
+        @Override
+        protected Object readObjectOverride() throws IOException {
+            if (!objects.hasNext()) {
+                throw new EOFException();
+            }
+            return objects.next();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -15,7 +15,7 @@
 package com.amazonaws.services.dynamodb.sessionmanager.util;
 
 import com.amazonaws.services.dynamodb.sessionmanager.DynamoSessionItem;
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig.TableNameOverride;
@@ -28,7 +28,7 @@ import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
 
 public class DynamoUtils {
 
-    public static void createSessionTable(AmazonDynamoDBClient dynamo,
+    public static void createSessionTable(AmazonDynamoDB dynamo,
                                           String tableName,
                                           long readCapacityUnits,
                                           long writeCapacityUnits) {
@@ -50,7 +50,7 @@ public class DynamoUtils {
     /**
      * Create a new DynamoDBMapper with table name override
      */
-    public static DynamoDBMapper createDynamoMapper(AmazonDynamoDBClient dynamoDbClient, String tableName) {
+    public static DynamoDBMapper createDynamoMapper(AmazonDynamoDB dynamoDbClient, String tableName) {
         return new DynamoDBMapper(dynamoDbClient, new DynamoDBMapperConfig(new TableNameOverride(tableName)));
     }
 
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.catalina.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.TestSessionFactory;
+
+public class AsyncSessionStorageTest {
+
+    private SessionStorage storage;
+    private ExecutorService executor;
+    private AsyncSessionStorage asyncStorage;
+
+    @Before
+    public void setup() {
+        storage = mock(SessionStorage.class);
+        executor = AsyncSessionStorage.createExecutor(2);
+        asyncStorage = new AsyncSessionStorage(storage, executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void loadSessionAsync_ReturnsLoadedSession() throws Exception {
+        Session session = new TestSessionFactory().createStandardSession();
+        when(storage.loadSession("1234")).thenReturn(session);
+        assertSame(session, asyncStorage.loadSessionAsync("1234").get());
+    }
+
+    @Test
+    public void saveSessionAsync_FailedSave_ThrowsFromGet() throws Exception {
+        Session session = new TestSessionFactory().createStandardSession();
+        AmazonClientException failure = new AmazonClientException("Save failed");
+        doThrow(failure).when(storage).saveSession(session);
+        try {
+            asyncStorage.saveSessionAsync(session).get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void deleteSessionAsync_QueueFull_RunsOnCallingThread() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws InterruptedException {
+                release.await();
+                return null;
+            }
+        }).when(storage).deleteSession("blocked");
+        final List<Thread> overflowThreads = new ArrayList<Thread>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                overflowThreads.add(Thread.currentThread());
+                return null;
+            }
+        }).when(storage).deleteSession("overflow");
+
+        // Occupies both threads and fills the queue behind them
+        List<Future<Void>> blockedDeletes = new ArrayList<Future<Void>>();
+        for (int i = 0; i < 2 + 2 * 16; i++) {
+            blockedDeletes.add(asyncStorage.deleteSessionAsync("blocked"));
+        }
+        asyncStorage.deleteSessionAsync("overflow").get();
+        release.countDown();
+        for (Future<Void> delete : blockedDeletes) {
+            delete.get();
+        }
+
+        assertEquals(Collections.singletonList(Thread.currentThread()), overflowThreads);
+    }
+}
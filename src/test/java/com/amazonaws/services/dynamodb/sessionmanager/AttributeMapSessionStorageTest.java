@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.apache.catalina.session.StandardSession;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.amazonaws.services.dynamodb.sessionmanager.converters.AttributeMapSessionConverter;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionConverter;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.TestSessionFactory;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+
+public class AttributeMapSessionStorageTest {
+
+    private static final String TABLE_NAME = "sessions";
+
+    @Mock
+    private AmazonDynamoDB dynamo;
+
+    @Mock
+    private DynamoDBMapper mapper;
+
+    private StandardSession session;
+
+    private AttributeMapSessionStorage storage;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        TestSessionFactory factory = new TestSessionFactory();
+        ClassLoader classLoader = getClass().getClassLoader();
+        storage = new AttributeMapSessionStorage(dynamo, TABLE_NAME, mapper,
+                SessionConverter.createDefaultSessionConverter(factory.getManager(), classLoader),
+                new AttributeMapSessionConverter(factory.getManager(), classLoader), true);
+        session = factory.createStandardSession();
+    }
+
+    @Test
+    public void saveSession_FirstSave_PutsWholeItem() {
+        storage.saveSession(session);
+        verify(dynamo).putItem(any(PutItemRequest.class));
+        verify(dynamo, never()).updateItem(any(UpdateItemRequest.class));
+    }
+
+    @Test
+    public void saveSession_Unchanged_DoesNotWrite() {
+        storage.saveSession(session);
+        storage.saveSession(session);
+        verify(dynamo, times(1)).putItem(any(PutItemRequest.class));
+        verify(dynamo, never()).updateItem(any(UpdateItemRequest.class));
+    }
+
+    @Test
+    public void saveSession_ChangedAttribute_UpdatesOnlyThatAttribute() {
+        storage.saveSession(session);
+        session.setAttribute("newAttribute", "newValue", false);
+        storage.saveSession(session);
+
+        UpdateItemRequest request = captureUpdate();
+        assertTrue(request.getExpressionAttributeNames().containsValue("newAttribute"));
+        assertFalse(request.getExpressionAttributeNames().containsValue("someAttribute"));
+        assertFalse(request.getUpdateExpression().contains("REMOVE"));
+    }
+
+    @Test
+    public void saveSession_RemovedAttribute_RemovesOnlyThatAttribute() {
+        storage.saveSession(session);
+        session.removeAttribute("someAttribute", false);
+        storage.saveSession(session);
+
+        UpdateItemRequest request = captureUpdate();
+        assertTrue(request.getUpdateExpression().contains("REMOVE #attrs.#r0"));
+        assertEquals("someAttribute", request.getExpressionAttributeNames().get("#r0"));
+    }
+
+    @Test
+    public void saveSession_AttributeNoLongerSerializable_RemovesThatAttribute() {
+        storage.saveSession(session);
+        session.setAttribute("someAttribute", new UnserializableSessionClass(), false);
+        storage.saveSession(session);
+
+        UpdateItemRequest request = captureUpdate();
+        assertTrue(request.getUpdateExpression().contains("REMOVE #attrs.#r0"));
+        assertEquals("someAttribute", request.getExpressionAttributeNames().get("#r0"));
+    }
+
+    @Test
+    public void saveSession_ItemMissing_FallsBackToPut() {
+        when(dynamo.updateItem(any(UpdateItemRequest.class))).thenThrow(new ConditionalCheckFailedException(""));
+        storage.saveSession(session);
+        session.setAttribute("newAttribute", "newValue", false);
+        storage.saveSession(session);
+        verify(dynamo, times(2)).putItem(any(PutItemRequest.class));
+    }
+
+    @Test
+    public void saveSession_AfterDelete_PutsWholeItem() {
+        storage.saveSession(session);
+        storage.deleteSession(session.getId());
+        storage.saveSession(session);
+        verify(dynamo, times(2)).putItem(any(PutItemRequest.class));
+    }
+
+    private UpdateItemRequest captureUpdate() {
+        ArgumentCaptor<UpdateItemRequest> captor = ArgumentCaptor.forClass(UpdateItemRequest.class);
+        verify(dynamo).updateItem(captor.capture());
+        return captor.getValue();
+    }
+}
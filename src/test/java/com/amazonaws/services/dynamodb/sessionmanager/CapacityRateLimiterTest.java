@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+
+public class CapacityRateLimiterTest {
+
+    @Test
+    public void acquire_WithinBurst_DoesNotWait() {
+        CapacityRateLimiter limiter = new CapacityRateLimiter(100);
+        long start = System.currentTimeMillis();
+        limiter.consume(50);
+        limiter.acquire();
+        assertTrue(System.currentTimeMillis() - start < 100);
+    }
+
+    @Test
+    public void acquire_InDebt_WaitsUntilRepaid() {
+        CapacityRateLimiter limiter = new CapacityRateLimiter(100);
+        limiter.consume(new ConsumedCapacity().withCapacityUnits(120.0));
+        long start = System.currentTimeMillis();
+        limiter.acquire();
+        assertTrue(System.currentTimeMillis() - start >= 150);
+    }
+
+    @Test
+    public void acquire_Unlimited_NeverWaits() {
+        CapacityRateLimiter limiter = CapacityRateLimiter.unlimited();
+        long start = System.currentTimeMillis();
+        limiter.consume(1000000);
+        limiter.acquire();
+        assertTrue(System.currentTimeMillis() - start < 100);
+    }
+
+    @Test
+    public void onThrottled_HalvesRateDownToFloor() {
+        CapacityRateLimiter limiter = new CapacityRateLimiter(160);
+        limiter.onThrottled();
+        assertEquals(80, limiter.getUnitsPerSecond(), 1);
+        for (int i = 0; i < 10; i++) {
+            limiter.onThrottled();
+        }
+        assertEquals(10, limiter.getUnitsPerSecond(), 1);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.amazonaws.services.dynamodb.sessionmanager.converters.CompressionDictionary;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionDataCompression;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+
+public class CompressionDictionaryTableTest {
+
+    private static final byte[] DICTIONARY_DATA = { 1, 2, 3 };
+
+    @Mock
+    private DynamoDBMapper mapper;
+
+    private CompressionDictionaryTable dictionaryTable;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        dictionaryTable = new CompressionDictionaryTable(mapper);
+    }
+
+    @Test
+    public void publish_FirstDictionary_WritesVersionOneAndMakesItCurrent() {
+        CompressionDictionary dictionary = dictionaryTable.publish(DICTIONARY_DATA);
+
+        assertEquals(1, dictionary.getVersion());
+        ArgumentCaptor<DynamoSessionItem> captor = ArgumentCaptor.forClass(DynamoSessionItem.class);
+        verify(mapper, times(2)).save(captor.capture(), any(DynamoDBSaveExpression.class));
+        List<DynamoSessionItem> saved = captor.getAllValues();
+        assertEquals(CompressionDictionaryTable.getDictionaryId(1), saved.get(0).getSessionId());
+        assertEquals(ByteBuffer.wrap(DICTIONARY_DATA), saved.get(0).getSessionData());
+        assertEquals(CompressionDictionaryTable.CURRENT_DICTIONARY_ID, saved.get(1).getSessionId());
+        assertEquals(Long.valueOf(1), saved.get(1).getVersion());
+    }
+
+    @Test
+    public void publish_VersionPublishedByOtherNode_ReturnsOtherNodesDictionary() {
+        byte[] otherData = { 4, 5, 6 };
+        DynamoSessionItem otherItem = createDictionaryItem(CompressionDictionaryTable.getDictionaryId(1), otherData);
+        when(mapper.load(eq(DynamoSessionItem.class), eq(CompressionDictionaryTable.getDictionaryId(1)),
+                any(DynamoDBMapperConfig.class))).thenReturn(otherItem);
+        doThrow(new ConditionalCheckFailedException("")).when(mapper).save(any(DynamoSessionItem.class),
+                any(DynamoDBSaveExpression.class));
+
+        CompressionDictionary dictionary = dictionaryTable.publish(DICTIONARY_DATA);
+
+        assertEquals(1, dictionary.getVersion());
+        assertArrayEquals(otherData, dictionary.getData());
+        verify(mapper, times(1)).save(any(DynamoSessionItem.class), any(DynamoDBSaveExpression.class));
+    }
+
+    @Test
+    public void loadOrTrain_CurrentDictionaryExists_DoesNotTrain() {
+        DynamoSessionItem current = new DynamoSessionItem(CompressionDictionaryTable.CURRENT_DICTIONARY_ID);
+        current.setVersion(2L);
+        DynamoSessionItem dictionaryItem = createDictionaryItem(CompressionDictionaryTable.getDictionaryId(2),
+                DICTIONARY_DATA);
+        when(mapper.load(eq(DynamoSessionItem.class), eq(CompressionDictionaryTable.CURRENT_DICTIONARY_ID),
+                any(DynamoDBMapperConfig.class))).thenReturn(current);
+        when(mapper.load(eq(DynamoSessionItem.class), eq(CompressionDictionaryTable.getDictionaryId(2)),
+                any(DynamoDBMapperConfig.class))).thenReturn(dictionaryItem);
+
+        CompressionDictionary dictionary = dictionaryTable.loadOrTrain(10,
+                SessionDataCompression.createDecompressOnly());
+
+        assertEquals(2, dictionary.getVersion());
+        assertArrayEquals(DICTIONARY_DATA, dictionary.getData());
+        verify(mapper, never()).scanPage(eq(DynamoSessionItem.class), any(DynamoDBScanExpression.class));
+    }
+
+    private static DynamoSessionItem createDictionaryItem(String id, byte[] data) {
+        DynamoSessionItem item = new DynamoSessionItem(id);
+        item.setSessionData(ByteBuffer.wrap(data));
+        return item;
+    }
+}
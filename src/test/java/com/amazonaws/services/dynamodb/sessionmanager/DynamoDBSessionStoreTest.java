@@ -1,23 +1,43 @@
 package com.amazonaws.services.dynamodb.sessionmanager;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+
 import org.apache.catalina.Manager;
+import org.apache.catalina.Session;
 import org.apache.catalina.session.StandardSession;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionConversionException;
 import com.amazonaws.services.dynamodb.sessionmanager.converters.TestSessionFactory;
 
 public class DynamoDBSessionStoreTest {
 
     @Mock
-    private DynamoSessionStorage storage;
+    private SessionStorage storage;
 
     private StandardSession session;
 
@@ -61,6 +81,128 @@ public class DynamoDBSessionStoreTest {
         assertSessionIsNotDeleted();
     }
 
+    @Test
+    public void saveAll_Async_SavesEverySessionAndSkipsFailures() throws Exception {
+        StandardSession failingSession = new TestSessionFactory().withSessionId("failing").createStandardSession();
+        doThrow(new AmazonClientException("Save failed")).when(storage).saveSession(failingSession);
+        ExecutorService executor = AsyncSessionStorage.createExecutor(2);
+        try {
+            store = new DynamoDBSessionStore.Builder(storage)
+                    .withAsyncSessionStorage(new AsyncSessionStorage(storage, executor)).build();
+            List<Session> saved = store.saveAll(Arrays.<Session> asList(session, failingSession));
+
+            assertEquals(Collections.<Session> singletonList(session), saved);
+            assertArrayEquals(new String[] { session.getId() }, store.keys());
+            verify(storage).saveSession(failingSession);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void clear_BatchFails_StillDeletesRemainingBatches() throws Exception {
+        buildSessionStore(false);
+        for (int i = 0; i < 150; i++) {
+            store.save(new TestSessionFactory().withSessionId("session-" + i).createStandardSession());
+        }
+        doThrow(new AmazonClientException("Delete failed")).doNothing().when(storage)
+                .deleteSessions(anyCollectionOf(String.class));
+
+        store.clear();
+
+        verify(storage, timeout(5000).times(2)).deleteSessions(anyCollectionOf(String.class));
+        assertEquals(0, store.keys().length);
+    }
+
+    @Test
+    public void load_ConcurrentLoadsOfMissingSession_ReadOnce() throws Exception {
+        buildSessionStore(false);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(storage.loadSession(session.getId())).thenAnswer(new Answer<Session>() {
+            @Override
+            public Session answer(InvocationOnMock invocation) throws InterruptedException {
+                release.await();
+                return null;
+            }
+        });
+        FutureTask<Session> first = new FutureTask<Session>(loadSession());
+        FutureTask<Session> second = new FutureTask<Session>(loadSession());
+        startWithSecondWaitingOnFirst(first, second);
+        release.countDown();
+
+        assertNull(first.get());
+        assertNull(second.get());
+        verify(storage, times(1)).loadSession(session.getId());
+    }
+
+    @Test
+    public void load_ConcurrentLoadsOfSameSession_EachGetsOwnInstance() throws Exception {
+        buildSessionStore(false);
+        final CountDownLatch release = new CountDownLatch(1);
+        final StandardSession reread = new TestSessionFactory().createStandardSession();
+        when(storage.loadSession(session.getId())).thenAnswer(new Answer<Session>() {
+            @Override
+            public Session answer(InvocationOnMock invocation) throws InterruptedException {
+                release.await();
+                return session;
+            }
+        }).thenReturn(reread);
+        FutureTask<Session> first = new FutureTask<Session>(loadSession());
+        FutureTask<Session> second = new FutureTask<Session>(loadSession());
+        startWithSecondWaitingOnFirst(first, second);
+        release.countDown();
+
+        assertSame(session, first.get());
+        assertSame(reread, second.get());
+    }
+
+    @Test
+    public void load_AfterPreviousLoadCompleted_ReadsAgain() throws Exception {
+        buildSessionStore(false);
+        when(storage.loadSession(session.getId())).thenReturn(session);
+        store.load(session.getId());
+        store.load(session.getId());
+        verify(storage, times(2)).loadSession(session.getId());
+    }
+
+    @Test
+    public void load_RecentlyMissing_DoesNotReadAgainUntilSaved() throws Exception {
+        store = new DynamoDBSessionStore.Builder(storage)
+                .withMissingSessionCache(new MissingSessionCache(60000, 100)).build();
+        store.setManager(manager);
+        assertNull(store.load(session.getId()));
+        assertNull(store.load(session.getId()));
+        verify(storage, times(1)).loadSession(session.getId());
+
+        store.save(session);
+        when(storage.loadSession(session.getId())).thenReturn(session);
+        assertSame(session, store.load(session.getId()));
+    }
+
+    /**
+     * Starts the first load, then the second once the first is reading from the storage, and
+     * returns once the second is waiting on the first.
+     */
+    private void startWithSecondWaitingOnFirst(FutureTask<Session> first, FutureTask<Session> second)
+            throws InterruptedException {
+        new Thread(first).start();
+        verify(storage, timeout(5000)).loadSession(session.getId());
+        Thread secondThread = new Thread(second);
+        secondThread.start();
+        while (secondThread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+    }
+
+    private Callable<Session> loadSession() {
+        return new Callable<Session>() {
+            @Override
+            public Session call() throws Exception {
+                return store.load(session.getId());
+            }
+        };
+    }
+
     private void assertSessionIsDeleted() {
         verify(storage).deleteSession(session.getId());
     }
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Session;
+import org.apache.catalina.Store;
+import org.apache.catalina.Valve;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class DynamoDBSessionValveTest {
+
+    private static final String SESSION_ID = "1234";
+
+    @Mock
+    private Request request;
+
+    @Mock
+    private Response response;
+
+    @Mock
+    private DynamoDBSessionManager manager;
+
+    @Mock
+    private Store store;
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private Valve next;
+
+    private DynamoDBSessionValve valve;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        Context context = mock(Context.class);
+        when(request.getContext()).thenReturn(context);
+        when(context.getManager()).thenReturn(manager);
+        when(manager.getStore()).thenReturn(store);
+        when(request.getRequestedSessionId()).thenReturn(SESSION_ID);
+        when(request.getSessionInternal(false)).thenReturn(session);
+        when(session.getIdInternal()).thenReturn(SESSION_ID);
+        when(session.isValid()).thenReturn(true);
+        valve = new DynamoDBSessionValve();
+        valve.setNext(next);
+    }
+
+    @Test
+    public void invoke_ChecksForStaleSessionThenSavesAfterRequest() throws Exception {
+        valve.invoke(request, response);
+        verify(manager).isStale(SESSION_ID);
+        verify(next).invoke(request, response);
+        verify(store).save(session);
+        verify(manager, never()).releaseSession(SESSION_ID);
+    }
+
+    @Test
+    public void invoke_StaleSession_ReleasedBeforeRequest() throws Exception {
+        when(manager.isStale(SESSION_ID)).thenReturn(true);
+        valve.invoke(request, response);
+        verify(manager).releaseSession(SESSION_ID);
+    }
+
+    @Test
+    public void invoke_SessionInUseByAnotherRequest_NotCheckedAgain() throws Exception {
+        when(manager.isStale(SESSION_ID)).thenReturn(true);
+        doAnswer(new Answer<Void>() {
+            private boolean nested;
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                if (!nested) {
+                    nested = true;
+                    valve.invoke(request, response);
+                }
+                return null;
+            }
+        }).when(next).invoke(request, response);
+
+        valve.invoke(request, response);
+
+        verify(manager, times(1)).isStale(SESSION_ID);
+        verify(manager, times(1)).releaseSession(SESSION_ID);
+    }
+
+    @Test
+    public void invoke_InvalidatedSession_IsNotSaved() throws Exception {
+        when(session.isValid()).thenReturn(false);
+        valve.invoke(request, response);
+        verify(store, never()).save(any(Session.class));
+    }
+
+    @Test
+    public void invoke_ReleaseSessionsAfterRequest_ReleasesSavedSession() throws Exception {
+        valve.setReleaseSessionsAfterRequest(true);
+        valve.invoke(request, response);
+        verify(store).save(session);
+        verify(manager).releaseSession(SESSION_ID);
+    }
+}
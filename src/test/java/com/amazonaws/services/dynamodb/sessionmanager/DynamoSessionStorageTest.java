@@ -0,0 +1,300 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.catalina.session.StandardSession;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionConverter;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.TestSessionFactory;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.FailedBatch;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+
+public class DynamoSessionStorageTest {
+
+    @Mock
+    private DynamoDBMapper mapper;
+
+    private SessionConverter sessionConverter;
+
+    private StandardSession session;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        TestSessionFactory factory = new TestSessionFactory();
+        sessionConverter = SessionConverter.createDefaultSessionConverter(factory.getManager(),
+                getClass().getClassLoader());
+        session = factory.createStandardSession();
+    }
+
+    @Test
+    public void saveSession_SkipUnchangedWritesDisabled_AlwaysWrites() {
+        DynamoSessionStorage storage = new DynamoSessionStorage(mapper, sessionConverter);
+        storage.saveSession(session);
+        storage.saveSession(session);
+        verify(mapper, times(2)).save(any(DynamoSessionItem.class));
+    }
+
+    @Test
+    public void saveSession_UnchangedSession_WritesOnce() {
+        DynamoSessionStorage storage = new DynamoSessionStorage.Builder(mapper, sessionConverter)
+                .withSkipUnchangedWrites(true).build();
+        storage.saveSession(session);
+        storage.saveSession(session);
+        verify(mapper, times(1)).save(any(DynamoSessionItem.class));
+    }
+
+    @Test
+    public void saveSession_ChangedSession_WritesAgain() {
+        DynamoSessionStorage storage = new DynamoSessionStorage.Builder(mapper, sessionConverter)
+                .withSkipUnchangedWrites(true).build();
+        storage.saveSession(session);
+        session.setAttribute("newAttribute", "newValue", false);
+        storage.saveSession(session);
+        verify(mapper, times(2)).save(any(DynamoSessionItem.class));
+    }
+
+    @Test
+    public void saveSession_AfterDelete_WritesAgain() {
+        DynamoSessionStorage storage = new DynamoSessionStorage.Builder(mapper, sessionConverter)
+                .withSkipUnchangedWrites(true).build();
+        storage.saveSession(session);
+        storage.deleteSession(session.getId());
+        storage.saveSession(session);
+        verify(mapper, times(2)).save(any(DynamoSessionItem.class));
+    }
+
+    @Test
+    public void release_ForgetsVersionAndPersistedData() {
+        DynamoSessionStorage storage = new DynamoSessionStorage.Builder(mapper, sessionConverter)
+                .withSkipUnchangedWrites(true).build();
+        storage.saveSession(session);
+        storage.release(session.getId());
+        assertNull(storage.getVersion(session.getId()));
+
+        storage.saveSession(session);
+        verify(mapper, times(2)).save(any(DynamoSessionItem.class));
+    }
+
+    @Test
+    public void saveSession_UnchangedSinceQueuedWriteFlushed_DoesNotWrite() {
+        when(mapper.batchSave(anyListOf(Object.class))).thenReturn(Collections.<FailedBatch> emptyList());
+        WriteBehindQueue queue = new WriteBehindQueue(mapper);
+        DynamoSessionStorage storage = new DynamoSessionStorage.Builder(mapper, sessionConverter)
+                .withSkipUnchangedWrites(true).withWriteBehindQueue(queue).build();
+        storage.saveSession(session);
+        queue.flush();
+        storage.saveSession(session);
+        assertNull(queue.getPending(session.getId()));
+    }
+
+    @Test
+    public void saveSession_UnchangedSinceQueuedWriteFailed_QueuesWriteAgain() {
+        when(mapper.batchSave(anyListOf(Object.class))).thenThrow(new AmazonServiceException("Throttled"));
+        WriteBehindQueue queue = new WriteBehindQueue(mapper);
+        DynamoSessionStorage storage = new DynamoSessionStorage.Builder(mapper, sessionConverter)
+                .withSkipUnchangedWrites(true).withWriteBehindQueue(queue).build();
+        storage.saveSession(session);
+        DynamoSessionItem failedItem = queue.getPending(session.getId());
+        queue.run();
+        storage.saveSession(session);
+        assertNotSame(failedItem, queue.getPending(session.getId()));
+    }
+
+    @Test
+    public void saveSession_UnchangedSinceLoad_DoesNotWrite() {
+        DynamoSessionStorage storage = new DynamoSessionStorage.Builder(mapper, sessionConverter)
+                .withSkipUnchangedWrites(true).build();
+        DynamoSessionItem sessionItem = sessionConverter.toSessionItem(session);
+        when(mapper.load(any(DynamoSessionItem.class))).thenReturn(sessionItem);
+        storage.saveSession(storage.loadSession(session.getId()));
+        verify(mapper, times(0)).save(any(DynamoSessionItem.class));
+    }
+
+    @Test
+    public void saveSession_IncrementsVersion() {
+        DynamoSessionStorage storage = new DynamoSessionStorage(mapper, sessionConverter);
+        storage.saveSession(session);
+        storage.saveSession(session);
+
+        ArgumentCaptor<DynamoSessionItem> captor = ArgumentCaptor.forClass(DynamoSessionItem.class);
+        verify(mapper, times(2)).save(captor.capture());
+        assertEquals(Long.valueOf(1), captor.getAllValues().get(0).getVersion());
+        assertEquals(Long.valueOf(2), captor.getAllValues().get(1).getVersion());
+    }
+
+    @Test
+    public void loadSession_NearCachedAndUnchanged_DoesNotLoadItem() {
+        AmazonDynamoDB dynamo = mock(AmazonDynamoDB.class);
+        when(dynamo.getItem(any(GetItemRequest.class))).thenReturn(new GetItemResult().withItem(Collections
+                .singletonMap(DynamoSessionItem.VERSION_ATTRIBUTE_NAME, new AttributeValue().withN("1"))));
+        DynamoSessionStorage storage = new DynamoSessionStorage.Builder(mapper, sessionConverter)
+                .withNearCache(new SessionNearCache(dynamo, "sessions", 10)).build();
+        storage.saveSession(session);
+
+        assertEquals(session.getId(), storage.loadSession(session.getId()).getId());
+        verify(mapper, never()).load(any(DynamoSessionItem.class));
+    }
+
+    @Test
+    public void saveSession_ConflictPolicy_WritesConditionallyOnPreviousVersion() {
+        DynamoSessionStorage storage = createStorage(SessionConflictPolicy.REJECT);
+        storage.saveSession(session);
+        storage.saveSession(session);
+
+        ArgumentCaptor<DynamoSessionItem> items = ArgumentCaptor.forClass(DynamoSessionItem.class);
+        ArgumentCaptor<DynamoDBSaveExpression> conditions = ArgumentCaptor.forClass(DynamoDBSaveExpression.class);
+        verify(mapper, times(2)).save(items.capture(), conditions.capture());
+        assertFalse(conditions.getAllValues().get(0).getExpected().get(DynamoSessionItem.VERSION_ATTRIBUTE_NAME)
+                .isExists());
+        assertEquals("1", conditions.getAllValues().get(1).getExpected()
+                .get(DynamoSessionItem.VERSION_ATTRIBUTE_NAME).getValue().getN());
+    }
+
+    @Test
+    public void saveSession_ConflictWithRejectPolicy_ThrowsSessionConflictException() {
+        DynamoSessionStorage storage = createStorage(SessionConflictPolicy.REJECT);
+        failFirstConditionalWrite();
+        try {
+            storage.saveSession(session);
+        } catch (SessionConflictException expected) {
+            assertEquals(1, storage.getConflictCounters().getRejected());
+            return;
+        }
+        throw new AssertionError("Expected SessionConflictException");
+    }
+
+    @Test
+    public void saveSession_ConflictWithLastWriterWinsPolicy_OverwritesNextVersion() {
+        DynamoSessionStorage storage = createStorage(SessionConflictPolicy.LAST_WRITER_WINS);
+        failFirstConditionalWrite();
+        DynamoSessionItem storedItem = new DynamoSessionItem(session.getId());
+        storedItem.setVersion(5L);
+        when(mapper.load(any(DynamoSessionItem.class), any(DynamoDBMapperConfig.class))).thenReturn(storedItem);
+
+        storage.saveSession(session);
+
+        ArgumentCaptor<DynamoSessionItem> items = ArgumentCaptor.forClass(DynamoSessionItem.class);
+        verify(mapper, times(2)).save(items.capture(), any(DynamoDBSaveExpression.class));
+        assertEquals(Long.valueOf(6), items.getValue().getVersion());
+        assertEquals(1, storage.getConflictCounters().getOverwritten());
+    }
+
+    @Test
+    public void saveSession_ConflictWithRetryMergePolicy_MergesStoredAttributes() {
+        DynamoSessionStorage storage = createStorage(SessionConflictPolicy.RETRY_MERGE);
+        failFirstConditionalWrite();
+        Map<String, Object> storedAttributes = new HashMap<String, Object>();
+        storedAttributes.put("storedAttribute", "storedValue");
+        StandardSession storedSession = new TestSessionFactory().withSessionAttributes(storedAttributes)
+                .createStandardSession();
+        DynamoSessionItem storedItem = sessionConverter.toSessionItem(storedSession);
+        storedItem.setVersion(5L);
+        when(mapper.load(any(DynamoSessionItem.class), any(DynamoDBMapperConfig.class))).thenReturn(storedItem);
+
+        storage.saveSession(session);
+
+        assertNotNull(session.getAttribute("storedAttribute"));
+        assertNotNull(session.getAttribute("someAttribute"));
+        assertEquals(1, storage.getConflictCounters().getMerged());
+    }
+
+    @Test
+    public void loadSession_ChunksReplacedSinceManifestRead_RereadsManifest() {
+        DynamoSessionStorage storage = new DynamoSessionStorage(mapper, sessionConverter);
+        DynamoSessionItem sessionItem = sessionConverter.toSessionItem(session);
+        when(mapper.load(any(DynamoSessionItem.class))).thenReturn(createManifest("stale"));
+        when(mapper.load(any(DynamoSessionItem.class), any(DynamoDBMapperConfig.class)))
+                .thenReturn(createManifest("current"));
+        DynamoSessionItem chunk = new DynamoSessionItem(SessionItemChunker.getChunkId(session.getId(), "current", 0));
+        chunk.setSessionData(sessionItem.getSessionData());
+        when(mapper.batchLoad(anyListOf(Object.class), any(DynamoDBMapperConfig.class)))
+                .thenReturn(Collections.<String, List<Object>> emptyMap())
+                .thenReturn(Collections.singletonMap("sessions", Collections.<Object> singletonList(chunk)));
+
+        assertEquals(session.getId(), storage.loadSession(session.getId()).getId());
+    }
+
+    @Test(expected = MissingSessionChunkException.class)
+    public void loadSession_ChunkStillMissingAfterRereads_ThrowsMissingSessionChunkException() {
+        DynamoSessionStorage storage = new DynamoSessionStorage(mapper, sessionConverter);
+        when(mapper.load(any(DynamoSessionItem.class))).thenReturn(createManifest("stale"));
+        when(mapper.load(any(DynamoSessionItem.class), any(DynamoDBMapperConfig.class)))
+                .thenReturn(createManifest("stale"));
+        when(mapper.batchLoad(anyListOf(Object.class), any(DynamoDBMapperConfig.class)))
+                .thenReturn(Collections.<String, List<Object>> emptyMap());
+
+        storage.loadSession(session.getId());
+    }
+
+    @Test
+    public void loadSession_RemovedWhileReadingChunks_ReturnsNull() {
+        DynamoSessionStorage storage = new DynamoSessionStorage(mapper, sessionConverter);
+        when(mapper.load(any(DynamoSessionItem.class))).thenReturn(createManifest("stale"));
+        when(mapper.batchLoad(anyListOf(Object.class), any(DynamoDBMapperConfig.class)))
+                .thenReturn(Collections.<String, List<Object>> emptyMap());
+
+        assertNull(storage.loadSession(session.getId()));
+    }
+
+    private DynamoSessionItem createManifest(String chunkSetId) {
+        DynamoSessionItem manifest = new DynamoSessionItem(session.getId());
+        manifest.setChunkSetId(chunkSetId);
+        manifest.setChunkCount(1);
+        return manifest;
+    }
+
+    private DynamoSessionStorage createStorage(SessionConflictPolicy conflictPolicy) {
+        return new DynamoSessionStorage.Builder(mapper, sessionConverter).withConflictPolicy(conflictPolicy).build();
+    }
+
+    private void failFirstConditionalWrite() {
+        doThrow(new ConditionalCheckFailedException("")).doNothing().when(mapper)
+                .save(any(DynamoSessionItem.class), any(DynamoDBSaveExpression.class));
+    }
+
+}
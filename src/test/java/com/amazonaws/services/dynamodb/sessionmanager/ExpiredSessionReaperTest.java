@@ -14,13 +14,36 @@
  */
 package com.amazonaws.services.dynamodb.sessionmanager;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.catalina.Session;
 import org.junit.Test;
 
+import com.amazonaws.services.dynamodb.sessionmanager.CapacityReportingSessionStorage.CapacityListener;
 import com.amazonaws.services.dynamodb.sessionmanager.converters.TestSessionFactory;
 import com.amazonaws.services.dynamodb.sessionmanager.converters.TestSessionFactory.TestStandardSession;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
 
 public class ExpiredSessionReaperTest {
 
@@ -39,6 +62,119 @@ public class ExpiredSessionReaperTest {
         assertFalse(ExpiredSessionReaper.isExpired(createImmortalSession()));
     }
 
+    @Test
+    public void run_MultipleSegments_DeletesExpiredSessionsFromEverySegment() {
+        Iterable<Session> firstSegment = Arrays.<Session> asList(createExpiredSession());
+        Iterable<Session> secondSegment = Arrays.<Session> asList(createActiveSession());
+        Iterable<Session> thirdSegment = Arrays.<Session> asList(createImmortalSession(), createExpiredSession());
+        SessionStorage storage = mock(SessionStorage.class);
+        when(storage.listSessions(0, 3)).thenReturn(firstSegment);
+        when(storage.listSessions(1, 3)).thenReturn(secondSegment);
+        when(storage.listSessions(2, 3)).thenReturn(thirdSegment);
+
+        new ExpiredSessionReaper.Builder(storage).withTotalSegments(3).build().run();
+
+        verify(storage, times(2)).deleteSession("expired");
+        verify(storage, times(2)).deleteSession(anyString());
+    }
+
+    @Test
+    public void run_SegmentFails_OtherSegmentsStillReaped() {
+        Iterable<Session> secondSegment = Collections.<Session> singletonList(createExpiredSession());
+        CapacityReportingSessionStorage storage = mock(CapacityReportingSessionStorage.class);
+        when(storage.listSessions(eq(0), eq(2), any(CapacityListener.class))).thenThrow(new RuntimeException("Scan failed"));
+        when(storage.listSessions(eq(1), eq(2), any(CapacityListener.class))).thenReturn(secondSegment);
+
+        new ExpiredSessionReaper.Builder(storage).withTotalSegments(2).build().run();
+
+        verify(storage).deleteSession(eq("expired"), any(CapacityListener.class));
+    }
+
+    @Test
+    public void run_UsingExpiryAttribute_DeletesListedSessionsWithoutLoadingThem() {
+        CapacityReportingSessionStorage storage = mock(CapacityReportingSessionStorage.class);
+        when(storage.listExpiredSessionIds(anyInt(), anyInt(), anyLong(),
+                any(CapacityListener.class))).thenReturn(Arrays.asList("expired"));
+
+        new ExpiredSessionReaper.Builder(storage).withExpiryAttribute(true).build().run();
+
+        verify(storage).deleteSession(eq("expired"), any(CapacityListener.class));
+        verify(storage, never()).listSessions(anyInt(), anyInt(), any(CapacityListener.class));
+    }
+
+    @Test
+    public void run_DeleteThrottled_RetriesDelete() {
+        Iterable<Session> sessions = Collections.<Session> singletonList(createExpiredSession());
+        CapacityReportingSessionStorage storage = mock(CapacityReportingSessionStorage.class);
+        when(storage.listSessions(eq(0), eq(1), any(CapacityListener.class))).thenReturn(sessions);
+        doThrow(new ProvisionedThroughputExceededException("Throttled")).doNothing().when(storage)
+                .deleteSession(eq("expired"), any(CapacityListener.class));
+
+        new ExpiredSessionReaper.Builder(storage)
+                .withRateLimiters(new CapacityRateLimiter(1000), new CapacityRateLimiter(1000)).build().run();
+
+        verify(storage, times(2)).deleteSession(eq("expired"), any(CapacityListener.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void run_ScanThrottled_CarriesOnScanning() {
+        Iterator<String> expiredIds = mock(Iterator.class);
+        when(expiredIds.hasNext()).thenThrow(new ProvisionedThroughputExceededException("Throttled"))
+                .thenReturn(true, false);
+        when(expiredIds.next()).thenReturn("expired");
+        Iterable<String> listing = mock(Iterable.class);
+        when(listing.iterator()).thenReturn(expiredIds);
+        CapacityReportingSessionStorage storage = mock(CapacityReportingSessionStorage.class);
+        when(storage.listExpiredSessionIds(anyInt(), anyInt(), anyLong(), any(CapacityListener.class)))
+                .thenReturn(listing);
+
+        new ExpiredSessionReaper.Builder(storage).withExpiryAttribute(true)
+                .withRateLimiters(new CapacityRateLimiter(1000), new CapacityRateLimiter(1000)).build().run();
+
+        verify(storage).deleteSession(eq("expired"), any(CapacityListener.class));
+    }
+
+    @Test
+    public void run_AsyncDeletes_DeletesEveryExpiredSessionAndRetriesThrottled() {
+        List<String> expiredIds = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            expiredIds.add("expired-" + i);
+        }
+        CapacityReportingSessionStorage storage = mock(CapacityReportingSessionStorage.class);
+        when(storage.listExpiredSessionIds(anyInt(), anyInt(), anyLong(),
+                any(CapacityListener.class))).thenReturn(expiredIds);
+        doThrow(new ProvisionedThroughputExceededException("Throttled")).doNothing().when(storage)
+                .deleteSession(eq("expired-7"), any(CapacityListener.class));
+        ExecutorService executor = AsyncSessionStorage.createExecutor(4);
+        try {
+            new ExpiredSessionReaper.Builder(storage).withExpiryAttribute(true)
+                    .withRateLimiters(new CapacityRateLimiter(100000), new CapacityRateLimiter(100000))
+                    .withAsyncSessionStorage(new AsyncSessionStorage(storage, executor)).build().run();
+        } finally {
+            executor.shutdown();
+        }
+
+        verify(storage, times(51)).deleteSession(anyString(), any(CapacityListener.class));
+        verify(storage, times(2)).deleteSession(eq("expired-7"), any(CapacityListener.class));
+    }
+
+    @Test
+    public void getExpirationTime_RoundsUpToNextSecond() {
+        assertEquals(Long.valueOf(61), ExpiredSessionReaper.getExpirationTime(1, 60));
+        assertEquals(Long.valueOf(60), ExpiredSessionReaper.getExpirationTime(0, 60));
+    }
+
+    @Test
+    public void getExpirationTime_ImmortalSession_ReturnsNull() {
+        assertNull(ExpiredSessionReaper.getExpirationTime(0, -1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void build_ZeroSegments_ThrowsIllegalArgumentException() {
+        new ExpiredSessionReaper.Builder(mock(SessionStorage.class)).withTotalSegments(0).build();
+    }
+
     public static TestStandardSession createActiveSession() {
         TestStandardSession activeSession = new TestSessionFactory().withSessionId("active")
                 .withLastAccessedTime(System.currentTimeMillis()).createTestStandardSession();
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void getPercentile_NothingRecorded_ReturnsZero() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(99));
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    public void getPercentile_SmallValues_Exact() {
+        Histogram histogram = new Histogram();
+        for (int value = 1; value <= 4; value++) {
+            histogram.record(value);
+        }
+        assertEquals(2, histogram.getPercentile(50));
+        assertEquals(4, histogram.getPercentile(99));
+        assertEquals(4, histogram.getMax());
+    }
+
+    @Test
+    public void getPercentile_LargeValues_WithinBucketError() {
+        Histogram histogram = new Histogram();
+        for (int value = 1; value <= 100000; value++) {
+            histogram.record(value);
+        }
+        assertWithinBucketError(50000, histogram.getPercentile(50));
+        assertWithinBucketError(95000, histogram.getPercentile(95));
+        assertWithinBucketError(99000, histogram.getPercentile(99));
+        assertEquals(100000, histogram.getPercentile(100));
+        assertEquals(100000, histogram.getCount());
+    }
+
+    @Test
+    public void getBucketUpperBound_ContainsEveryValueOfBucket() {
+        for (long value : new long[] { 0, 7, 8, 9, 15, 16, 1000, 123456789L, Long.MAX_VALUE }) {
+            int bucket = Histogram.getBucket(value);
+            assertTrue(value <= Histogram.getBucketUpperBound(bucket));
+            assertTrue(bucket == 0 || value > Histogram.getBucketUpperBound(bucket - 1));
+        }
+    }
+
+    private static void assertWithinBucketError(long expected, long actual) {
+        assertTrue(actual + " should be at least " + expected, actual >= expected);
+        assertTrue(actual + " should be close to " + expected, actual <= expected + expected / Histogram.SUB_BUCKETS);
+    }
+}
@@ -0,0 +1,789 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeAction;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.AttributeValueUpdate;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ConditionalOperator;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.CreateTableResult;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.DeleteTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteTableResult;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
+import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputDescription;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.Select;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.amazonaws.services.dynamodbv2.model.TableStatus;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * In-process stand-in for DynamoDB, so storage code can be tested and benchmarked without AWS
+ * credentials or a network. Tables with a string hash key are kept in memory and support the
+ * item, batch and scan operations {@link DynamoSessionStorage} and
+ * {@link com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper} use, including legacy
+ * expected values and attribute updates, and condition, filter and projection expressions. Update
+ * expressions aren't supported.
+ * <p>
+ * Each request can be delayed by a fixed latency to approximate a network round trip, and
+ * requests are counted per operation.
+ */
+public class InMemoryDynamoDB extends AbstractAmazonDynamoDB {
+
+    /**
+     * Scans return at most this many items per page, like DynamoDB's 1MB page limit would for
+     * small items.
+     */
+    static final int MAX_SCAN_PAGE_ITEMS = 100;
+
+    private final ConcurrentMap<String, Table> tables = new ConcurrentHashMap<String, Table>();
+    private final ConcurrentMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<String, AtomicLong>();
+    private final long latencyNanos;
+
+    public InMemoryDynamoDB() {
+        this(0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param latency
+     *            Time each request takes before it's served
+     */
+    public InMemoryDynamoDB(long latency, TimeUnit unit) {
+        this.latencyNanos = unit.toNanos(latency);
+    }
+
+    /**
+     * @return Number of requests made so far for the operation, e.g. "GetItem"
+     */
+    public long getRequestCount(String operation) {
+        AtomicLong count = requestCounts.get(operation);
+        return count == null ? 0 : count.get();
+    }
+
+    @Override
+    public CreateTableResult createTable(CreateTableRequest request) {
+        serve("CreateTable");
+        String hashKey = null;
+        for (KeySchemaElement element : request.getKeySchema()) {
+            if (KeyType.HASH.toString().equals(element.getKeyType())) {
+                hashKey = element.getAttributeName();
+            }
+        }
+        Table table = new Table(request.getTableName(), hashKey, request.getProvisionedThroughput());
+        tables.put(request.getTableName(), table);
+        return new CreateTableResult().withTableDescription(table.describe());
+    }
+
+    @Override
+    public DescribeTableResult describeTable(DescribeTableRequest request) {
+        serve("DescribeTable");
+        return new DescribeTableResult().withTable(getTable(request.getTableName()).describe());
+    }
+
+    @Override
+    public DeleteTableResult deleteTable(DeleteTableRequest request) {
+        serve("DeleteTable");
+        Table table = getTable(request.getTableName());
+        tables.remove(request.getTableName());
+        return new DeleteTableResult().withTableDescription(table.describe());
+    }
+
+    @Override
+    public GetItemResult getItem(GetItemRequest request) {
+        serve("GetItem");
+        Table table = getTable(request.getTableName());
+        Map<String, AttributeValue> item = table.items.get(table.getKey(request.getKey()));
+        return new GetItemResult().withItem(item == null ? null
+                : project(item, request.getProjectionExpression(), request.getExpressionAttributeNames()));
+    }
+
+    @Override
+    public PutItemResult putItem(PutItemRequest request) {
+        serve("PutItem");
+        Table table = getTable(request.getTableName());
+        String key = table.getKey(request.getItem());
+        synchronized (table) {
+            checkCondition(table.items.get(key), request.getExpected(), request.getConditionalOperator(),
+                    request.getConditionExpression(), request.getExpressionAttributeNames(),
+                    request.getExpressionAttributeValues());
+            table.items.put(key, copy(request.getItem()));
+        }
+        return new PutItemResult();
+    }
+
+    @Override
+    public UpdateItemResult updateItem(UpdateItemRequest request) {
+        serve("UpdateItem");
+        if (request.getUpdateExpression() != null) {
+            throw new UnsupportedOperationException("Update expressions aren't supported");
+        }
+        Table table = getTable(request.getTableName());
+        String key = table.getKey(request.getKey());
+        synchronized (table) {
+            Map<String, AttributeValue> existing = table.items.get(key);
+            checkCondition(existing, request.getExpected(), request.getConditionalOperator(),
+                    request.getConditionExpression(), request.getExpressionAttributeNames(),
+                    request.getExpressionAttributeValues());
+            Map<String, AttributeValue> updated = existing == null ? copy(request.getKey()) : copy(existing);
+            if (request.getAttributeUpdates() != null) {
+                for (Entry<String, AttributeValueUpdate> update : request.getAttributeUpdates().entrySet()) {
+                    applyUpdate(updated, update.getKey(), update.getValue());
+                }
+            }
+            table.items.put(key, updated);
+        }
+        return new UpdateItemResult();
+    }
+
+    @Override
+    public DeleteItemResult deleteItem(DeleteItemRequest request) {
+        serve("DeleteItem");
+        Table table = getTable(request.getTableName());
+        String key = table.getKey(request.getKey());
+        Map<String, AttributeValue> deleted;
+        synchronized (table) {
+            checkCondition(table.items.get(key), request.getExpected(), request.getConditionalOperator(),
+                    request.getConditionExpression(), request.getExpressionAttributeNames(),
+                    request.getExpressionAttributeValues());
+            deleted = table.items.remove(key);
+        }
+        DeleteItemResult result = new DeleteItemResult();
+        if (request.getReturnConsumedCapacity() != null
+                && !ReturnConsumedCapacity.NONE.toString().equals(request.getReturnConsumedCapacity())) {
+            long deletedBytes = deleted == null ? 0 : sizeOf(deleted);
+            result.setConsumedCapacity(new ConsumedCapacity().withTableName(table.name)
+                    .withCapacityUnits((double) Math.max(1, (deletedBytes + 1023) / 1024)));
+        }
+        return result;
+    }
+
+    @Override
+    public BatchGetItemResult batchGetItem(BatchGetItemRequest request) {
+        serve("BatchGetItem");
+        Map<String, List<Map<String, AttributeValue>>> responses =
+                new HashMap<String, List<Map<String, AttributeValue>>>();
+        for (Entry<String, KeysAndAttributes> entry : request.getRequestItems().entrySet()) {
+            Table table = getTable(entry.getKey());
+            KeysAndAttributes keysAndAttributes = entry.getValue();
+            List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
+            for (Map<String, AttributeValue> key : keysAndAttributes.getKeys()) {
+                Map<String, AttributeValue> item = table.items.get(table.getKey(key));
+                if (item != null) {
+                    items.add(project(item, keysAndAttributes.getProjectionExpression(),
+                            keysAndAttributes.getExpressionAttributeNames()));
+                }
+            }
+            responses.put(entry.getKey(), items);
+        }
+        return new BatchGetItemResult().withResponses(responses)
+                .withUnprocessedKeys(new HashMap<String, KeysAndAttributes>());
+    }
+
+    @Override
+    public BatchWriteItemResult batchWriteItem(BatchWriteItemRequest request) {
+        serve("BatchWriteItem");
+        for (Entry<String, List<WriteRequest>> entry : request.getRequestItems().entrySet()) {
+            Table table = getTable(entry.getKey());
+            synchronized (table) {
+                for (WriteRequest writeRequest : entry.getValue()) {
+                    if (writeRequest.getPutRequest() != null) {
+                        Map<String, AttributeValue> item = writeRequest.getPutRequest().getItem();
+                        table.items.put(table.getKey(item), copy(item));
+                    } else {
+                        table.items.remove(table.getKey(writeRequest.getDeleteRequest().getKey()));
+                    }
+                }
+            }
+        }
+        return new BatchWriteItemResult().withUnprocessedItems(new HashMap<String, List<WriteRequest>>());
+    }
+
+    @Override
+    public ScanResult scan(ScanRequest request) {
+        serve("Scan");
+        Table table = getTable(request.getTableName());
+        NavigableMap<String, Map<String, AttributeValue>> remaining = table.items;
+        if (request.getExclusiveStartKey() != null) {
+            remaining = remaining.tailMap(table.getKey(request.getExclusiveStartKey()), false);
+        }
+        int limit = request.getLimit() == null ? MAX_SCAN_PAGE_ITEMS
+                : Math.min(request.getLimit(), MAX_SCAN_PAGE_ITEMS);
+        Expression filter = request.getFilterExpression() == null ? null
+                : new ExpressionParser(request.getFilterExpression()).parse();
+        boolean countOnly = Select.COUNT.toString().equals(request.getSelect());
+
+        List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
+        int scanned = 0;
+        long scannedBytes = 0;
+        String lastKey = null;
+        for (Entry<String, Map<String, AttributeValue>> entry : remaining.entrySet()) {
+            if (scanned == limit) {
+                break;
+            }
+            if (!isInSegment(entry.getKey(), request.getSegment(), request.getTotalSegments())) {
+                continue;
+            }
+            Map<String, AttributeValue> item = entry.getValue();
+            scanned++;
+            scannedBytes += sizeOf(item);
+            lastKey = entry.getKey();
+            if (filter == null || filter.evaluate(new Context(item, request.getExpressionAttributeNames(),
+                    request.getExpressionAttributeValues()))) {
+                items.add(project(item, request.getProjectionExpression(), request.getExpressionAttributeNames()));
+            }
+        }
+        ScanResult result = new ScanResult().withCount(items.size()).withScannedCount(scanned);
+        if (!countOnly) {
+            result.setItems(items);
+        }
+        if (scanned == limit && lastKey != null && remaining.higherKey(lastKey) != null) {
+            result.setLastEvaluatedKey(Collections.singletonMap(table.hashKey, new AttributeValue(lastKey)));
+        }
+        if (request.getReturnConsumedCapacity() != null
+                && !ReturnConsumedCapacity.NONE.toString().equals(request.getReturnConsumedCapacity())) {
+            double units = Math.max(1, (scannedBytes + 4095) / 4096) * (Boolean.TRUE
+                    .equals(request.getConsistentRead()) ? 1.0 : 0.5);
+            result.setConsumedCapacity(new ConsumedCapacity().withTableName(table.name).withCapacityUnits(units));
+        }
+        return result;
+    }
+
+    private void serve(String operation) {
+        AtomicLong count = requestCounts.get(operation);
+        if (count == null) {
+            requestCounts.putIfAbsent(operation, new AtomicLong());
+            count = requestCounts.get(operation);
+        }
+        count.incrementAndGet();
+        if (latencyNanos > 0) {
+            long deadline = System.nanoTime() + latencyNanos;
+            for (long remaining = latencyNanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+    }
+
+    private Table getTable(String tableName) {
+        Table table = tables.get(tableName);
+        if (table == null) {
+            throw new ResourceNotFoundException("Table " + tableName + " not found");
+        }
+        return table;
+    }
+
+    private static boolean isInSegment(String key, Integer segment, Integer totalSegments) {
+        return segment == null || totalSegments == null
+                || (key.hashCode() & Integer.MAX_VALUE) % totalSegments == segment;
+    }
+
+    private static void applyUpdate(Map<String, AttributeValue> item, String name, AttributeValueUpdate update) {
+        String action = update.getAction() == null ? AttributeAction.PUT.toString() : update.getAction();
+        if (AttributeAction.PUT.toString().equals(action)) {
+            item.put(name, copy(update.getValue()));
+        } else if (AttributeAction.DELETE.toString().equals(action) && update.getValue() == null) {
+            item.remove(name);
+        } else if (AttributeAction.ADD.toString().equals(action) && update.getValue().getN() != null) {
+            AttributeValue current = item.get(name);
+            BigDecimal sum = new BigDecimal(update.getValue().getN());
+            if (current != null) {
+                sum = sum.add(new BigDecimal(current.getN()));
+            }
+            item.put(name, new AttributeValue().withN(sum.toString()));
+        } else {
+            throw new UnsupportedOperationException("Attribute update " + action + " isn't supported for " + name);
+        }
+    }
+
+    private static void checkCondition(Map<String, AttributeValue> item, Map<String, ExpectedAttributeValue> expected,
+            String conditionalOperator, String conditionExpression, Map<String, String> names,
+            Map<String, AttributeValue> values) {
+        Map<String, AttributeValue> existing = item == null ? Collections.<String, AttributeValue> emptyMap() : item;
+        boolean passed = true;
+        if (expected != null && !expected.isEmpty()) {
+            boolean any = ConditionalOperator.OR.toString().equals(conditionalOperator);
+            passed = !any;
+            for (Entry<String, ExpectedAttributeValue> entry : expected.entrySet()) {
+                boolean matches = matchesExpected(existing.get(entry.getKey()), entry.getValue());
+                if (any && matches) {
+                    passed = true;
+                    break;
+                }
+                if (!any && !matches) {
+                    passed = false;
+                    break;
+                }
+            }
+        }
+        if (passed && conditionExpression != null) {
+            passed = new ExpressionParser(conditionExpression).parse().evaluate(new Context(existing, names, values));
+        }
+        if (!passed) {
+            throw new ConditionalCheckFailedException("The conditional request failed");
+        }
+    }
+
+    private static boolean matchesExpected(AttributeValue actual, ExpectedAttributeValue expected) {
+        String operator = expected.getComparisonOperator();
+        if (operator == null) {
+            if (Boolean.FALSE.equals(expected.getExists())) {
+                return actual == null;
+            }
+            return actual != null && (expected.getValue() == null || compare(actual, expected.getValue()) == 0);
+        }
+        AttributeValue value = expected.getValue();
+        if (value == null && expected.getAttributeValueList() != null && !expected.getAttributeValueList().isEmpty()) {
+            value = expected.getAttributeValueList().get(0);
+        }
+        switch (ComparisonOperator.fromValue(operator)) {
+        case NULL:
+            return actual == null;
+        case NOT_NULL:
+            return actual != null;
+        case EQ:
+            return actual != null && compare(actual, value) == 0;
+        case NE:
+            return actual == null || compare(actual, value) != 0;
+        case LT:
+            return actual != null && compare(actual, value) < 0;
+        case LE:
+            return actual != null && compare(actual, value) <= 0;
+        case GT:
+            return actual != null && compare(actual, value) > 0;
+        case GE:
+            return actual != null && compare(actual, value) >= 0;
+        default:
+            throw new UnsupportedOperationException("Comparison operator " + operator + " isn't supported");
+        }
+    }
+
+    /**
+     * Orders numbers numerically and strings and binaries lexicographically. Values of different
+     * types, or of types without an order, compare as equal only if they are equal.
+     */
+    private static int compare(AttributeValue a, AttributeValue b) {
+        if (a.getN() != null && b.getN() != null) {
+            return new BigDecimal(a.getN()).compareTo(new BigDecimal(b.getN()));
+        }
+        if (a.getS() != null && b.getS() != null) {
+            return a.getS().compareTo(b.getS());
+        }
+        if (a.getB() != null && b.getB() != null) {
+            return a.getB().compareTo(b.getB());
+        }
+        return a.equals(b) ? 0 : Integer.MIN_VALUE;
+    }
+
+    private static Map<String, AttributeValue> project(Map<String, AttributeValue> item, String projectionExpression,
+            Map<String, String> names) {
+        if (projectionExpression == null) {
+            return copy(item);
+        }
+        Map<String, AttributeValue> projected = new HashMap<String, AttributeValue>();
+        for (String path : projectionExpression.split(",")) {
+            String name = resolveName(path.trim(), names);
+            if (item.containsKey(name)) {
+                projected.put(name, copy(item.get(name)));
+            }
+        }
+        return projected;
+    }
+
+    private static String resolveName(String name, Map<String, String> names) {
+        if (name.startsWith("#")) {
+            String resolved = names == null ? null : names.get(name);
+            if (resolved == null) {
+                throw new IllegalArgumentException("No expression attribute name for " + name);
+            }
+            return resolved;
+        }
+        return name;
+    }
+
+    private static long sizeOf(Map<String, AttributeValue> item) {
+        long size = 0;
+        for (Entry<String, AttributeValue> attribute : item.entrySet()) {
+            AttributeValue value = attribute.getValue();
+            size += attribute.getKey().length();
+            if (value.getB() != null) {
+                size += value.getB().remaining();
+            } else if (value.getS() != null) {
+                size += value.getS().length();
+            } else {
+                size += 8;
+            }
+        }
+        return size;
+    }
+
+    private static Map<String, AttributeValue> copy(Map<String, AttributeValue> item) {
+        Map<String, AttributeValue> copy = new HashMap<String, AttributeValue>();
+        for (Entry<String, AttributeValue> attribute : item.entrySet()) {
+            copy.put(attribute.getKey(), copy(attribute.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Copies binary values so a caller reading or reusing a buffer can't change what's stored.
+     */
+    private static AttributeValue copy(AttributeValue value) {
+        if (value.getB() != null) {
+            ByteBuffer data = value.getB();
+            byte[] bytes = new byte[data.remaining()];
+            data.duplicate().get(bytes);
+            return new AttributeValue().withB(ByteBuffer.wrap(bytes));
+        }
+        if (value.getM() != null) {
+            return new AttributeValue().withM(copy(value.getM()));
+        }
+        return value.clone();
+    }
+
+    private static final class Table {
+
+        private final String name;
+        private final String hashKey;
+        private final ProvisionedThroughput throughput;
+        private final ConcurrentSkipListMap<String, Map<String, AttributeValue>> items =
+                new ConcurrentSkipListMap<String, Map<String, AttributeValue>>();
+
+        private Table(String name, String hashKey, ProvisionedThroughput throughput) {
+            this.name = name;
+            this.hashKey = hashKey;
+            this.throughput = throughput;
+        }
+
+        private String getKey(Map<String, AttributeValue> item) {
+            AttributeValue key = item.get(hashKey);
+            if (key == null || key.getS() == null) {
+                throw new IllegalArgumentException("Missing string key " + hashKey);
+            }
+            return key.getS();
+        }
+
+        private TableDescription describe() {
+            return new TableDescription().withTableName(name).withTableStatus(TableStatus.ACTIVE)
+                    .withItemCount((long) items.size())
+                    .withKeySchema(new KeySchemaElement(hashKey, KeyType.HASH))
+                    .withProvisionedThroughput(new ProvisionedThroughputDescription()
+                            .withReadCapacityUnits(throughput.getReadCapacityUnits())
+                            .withWriteCapacityUnits(throughput.getWriteCapacityUnits()));
+        }
+    }
+
+    /**
+     * The item an expression is evaluated against, with the expression's placeholders.
+     */
+    private static final class Context {
+
+        private final Map<String, AttributeValue> item;
+        private final Map<String, String> names;
+        private final Map<String, AttributeValue> values;
+
+        private Context(Map<String, AttributeValue> item, Map<String, String> names,
+                Map<String, AttributeValue> values) {
+            this.item = item;
+            this.names = names;
+            this.values = values;
+        }
+
+        /**
+         * @return The value of an attribute path such as {@code #attrs.#name}, or of a
+         *         {@code :value} placeholder, or null if there's no such attribute
+         */
+        private AttributeValue resolve(String operand) {
+            if (operand.startsWith(":")) {
+                AttributeValue value = values == null ? null : values.get(operand);
+                if (value == null) {
+                    throw new IllegalArgumentException("No expression attribute value for " + operand);
+                }
+                return value;
+            }
+            Map<String, AttributeValue> current = item;
+            AttributeValue value = null;
+            for (String part : operand.split("\\.")) {
+                if (current == null) {
+                    return null;
+                }
+                value = current.get(resolveName(part, names));
+                current = value == null ? null : value.getM();
+            }
+            return value;
+        }
+    }
+
+    private interface Expression {
+        boolean evaluate(Context context);
+    }
+
+    /**
+     * Recursive descent parser for the condition and filter expression grammar: comparisons,
+     * AND, OR, NOT, parentheses and the attribute_exists, attribute_not_exists and contains
+     * functions.
+     */
+    private static final class ExpressionParser {
+
+        private final List<String> tokens = new ArrayList<String>();
+        private int position;
+
+        private ExpressionParser(String expression) {
+            int i = 0;
+            while (i < expression.length()) {
+                char c = expression.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '(' || c == ')' || c == ',' || c == '=') {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                } else if (c == '<' || c == '>') {
+                    int end = i + 1 < expression.length()
+                            && (expression.charAt(i + 1) == '=' || expression.charAt(i + 1) == '>') ? i + 2 : i + 1;
+                    tokens.add(expression.substring(i, end));
+                    i = end;
+                } else {
+                    int end = i;
+                    while (end < expression.length() && isOperandChar(expression.charAt(end))) {
+                        end++;
+                    }
+                    if (end == i) {
+                        throw new IllegalArgumentException("Unexpected character in expression: " + expression);
+                    }
+                    tokens.add(expression.substring(i, end));
+                    i = end;
+                }
+            }
+        }
+
+        private static boolean isOperandChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '#' || c == ':' || c == '_' || c == '.';
+        }
+
+        private Expression parse() {
+            Expression expression = parseOr();
+            if (position != tokens.size()) {
+                throw new IllegalArgumentException("Unexpected token " + tokens.get(position));
+            }
+            return expression;
+        }
+
+        private Expression parseOr() {
+            final Expression left = parseAnd();
+            if (!acceptKeyword("OR")) {
+                return left;
+            }
+            final Expression right = parseOr();
+            return new Expression() {
+                @Override
+                public boolean evaluate(Context context) {
+                    return left.evaluate(context) || right.evaluate(context);
+                }
+            };
+        }
+
+        private Expression parseAnd() {
+            final Expression left = parseNot();
+            if (!acceptKeyword("AND")) {
+                return left;
+            }
+            final Expression right = parseAnd();
+            return new Expression() {
+                @Override
+                public boolean evaluate(Context context) {
+                    return left.evaluate(context) && right.evaluate(context);
+                }
+            };
+        }
+
+        private Expression parseNot() {
+            if (acceptKeyword("NOT")) {
+                final Expression negated = parseNot();
+                return new Expression() {
+                    @Override
+                    public boolean evaluate(Context context) {
+                        return !negated.evaluate(context);
+                    }
+                };
+            }
+            return parsePrimary();
+        }
+
+        private Expression parsePrimary() {
+            if (accept("(")) {
+                Expression expression = parseOr();
+                expect(")");
+                return expression;
+            }
+            String operand = next();
+            if (accept("(")) {
+                return parseFunction(operand);
+            }
+            return parseComparison(operand);
+        }
+
+        private Expression parseFunction(String function) {
+            final List<String> arguments = new ArrayList<String>();
+            do {
+                arguments.add(next());
+            } while (accept(","));
+            expect(")");
+            if ("attribute_exists".equals(function)) {
+                return new Expression() {
+                    @Override
+                    public boolean evaluate(Context context) {
+                        return context.resolve(arguments.get(0)) != null;
+                    }
+                };
+            }
+            if ("attribute_not_exists".equals(function)) {
+                return new Expression() {
+                    @Override
+                    public boolean evaluate(Context context) {
+                        return context.resolve(arguments.get(0)) == null;
+                    }
+                };
+            }
+            if ("contains".equals(function)) {
+                return new Expression() {
+                    @Override
+                    public boolean evaluate(Context context) {
+                        return contains(context.resolve(arguments.get(0)), context.resolve(arguments.get(1)));
+                    }
+                };
+            }
+            throw new UnsupportedOperationException("Function " + function + " isn't supported");
+        }
+
+        private Expression parseComparison(final String left) {
+            final String operator = next();
+            final String right = next();
+            return new Expression() {
+                @Override
+                public boolean evaluate(Context context) {
+                    AttributeValue leftValue = context.resolve(left);
+                    AttributeValue rightValue = context.resolve(right);
+                    if (leftValue == null || rightValue == null) {
+                        return "<>".equals(operator) && leftValue != rightValue;
+                    }
+                    int comparison = compare(leftValue, rightValue);
+                    if ("=".equals(operator)) {
+                        return comparison == 0;
+                    } else if ("<>".equals(operator)) {
+                        return comparison != 0;
+                    } else if (comparison == Integer.MIN_VALUE) {
+                        return false;
+                    } else if ("<".equals(operator)) {
+                        return comparison < 0;
+                    } else if ("<=".equals(operator)) {
+                        return comparison <= 0;
+                    } else if (">".equals(operator)) {
+                        return comparison > 0;
+                    } else if (">=".equals(operator)) {
+                        return comparison >= 0;
+                    }
+                    throw new UnsupportedOperationException("Operator " + operator + " isn't supported");
+                }
+            };
+        }
+
+        private static boolean contains(AttributeValue value, AttributeValue operand) {
+            if (value == null || operand == null) {
+                return false;
+            }
+            if (value.getS() != null && operand.getS() != null) {
+                return value.getS().contains(operand.getS());
+            }
+            Collection<?> elements = value.getSS() != null ? value.getSS()
+                    : value.getNS() != null ? value.getNS() : value.getL();
+            if (elements == null) {
+                return false;
+            }
+            Object element = operand.getS() != null ? operand.getS()
+                    : operand.getN() != null ? operand.getN() : operand;
+            return elements.contains(element);
+        }
+
+        private boolean acceptKeyword(String keyword) {
+            if (position < tokens.size() && tokens.get(position).equalsIgnoreCase(keyword)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean accept(String token) {
+            if (position < tokens.size() && tokens.get(position).equals(token)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) {
+                throw new IllegalArgumentException("Expected " + token + " in expression");
+            }
+        }
+
+        private String next() {
+            if (position == tokens.size()) {
+                throw new IllegalArgumentException("Unexpected end of expression");
+            }
+            return tokens.get(position++);
+        }
+    }
+}
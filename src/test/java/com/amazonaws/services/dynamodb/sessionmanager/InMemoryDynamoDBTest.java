@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import static com.amazonaws.services.dynamodb.sessionmanager.CustomAsserts.assertSessionEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.catalina.Session;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionConverter;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.TestSessionFactory;
+import com.amazonaws.services.dynamodb.sessionmanager.util.DynamoUtils;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+
+/**
+ * Runs {@link DynamoSessionStorage} against {@link InMemoryDynamoDB} through a real
+ * {@link DynamoDBMapper}, checking the stand-in behaves like DynamoDB for the requests the storage
+ * makes.
+ */
+public class InMemoryDynamoDBTest {
+
+    private static final String TABLE_NAME = "sessions";
+    private static final TestSessionFactory SESSION_FACTORY = new TestSessionFactory();
+
+    private InMemoryDynamoDB dynamo;
+    private DynamoDBMapper mapper;
+    private SessionConverter sessionConverter;
+    private DynamoSessionStorage storage;
+
+    @Before
+    public void setup() {
+        dynamo = new InMemoryDynamoDB();
+        DynamoUtils.createSessionTable(dynamo, TABLE_NAME, 10L, 10L);
+        mapper = DynamoUtils.createDynamoMapper(dynamo, TABLE_NAME);
+        sessionConverter = SessionConverter.createDefaultSessionConverter(SESSION_FACTORY.getManager(),
+                getClass().getClassLoader());
+        storage = new DynamoSessionStorage(mapper, sessionConverter);
+    }
+
+    @Test
+    public void saveSession_ThenLoadAndDelete_RoundTrips() {
+        Session session = SESSION_FACTORY.createStandardSession();
+        storage.saveSession(session);
+        assertSessionEquals(session, storage.loadSession(session.getId()));
+
+        storage.deleteSession(session.getId());
+        assertNull(storage.loadSession(session.getId()));
+    }
+
+    @Test
+    public void saveSession_LargeSession_ChunksNotCounted() {
+        Session session = createLargeSession(42);
+        storage.saveSession(session);
+
+        assertEquals(1, storage.count());
+        assertSessionEquals(session, storage.loadSession(session.getId()));
+    }
+
+    @Test
+    public void saveSession_LargeSessionReleasedThenReadFromNearCache_RetiresPreviousChunks() {
+        storage = new DynamoSessionStorage.Builder(mapper, sessionConverter)
+                .withNearCache(new SessionNearCache(dynamo, TABLE_NAME, 10)).build();
+        Session session = createLargeSession(42);
+        storage.saveSession(session);
+        storage.release(session.getId());
+        storage.loadSession(session.getId());
+
+        storage.saveSession(createLargeSession(43));
+        storage.flush();
+
+        DynamoSessionItem manifest = mapper.load(new DynamoSessionItem(session.getId()));
+        assertEquals(Long.valueOf(2), manifest.getVersion());
+        assertEquals(1 + manifest.getChunkCount(),
+                dynamo.scan(new ScanRequest().withTableName(TABLE_NAME)).getCount().intValue());
+    }
+
+    @Test
+    public void release_ThenLoadFromNearCache_RecordsVersionAgain() {
+        storage = new DynamoSessionStorage.Builder(mapper, sessionConverter)
+                .withNearCache(new SessionNearCache(dynamo, TABLE_NAME, 10)).build();
+        Session session = SESSION_FACTORY.createStandardSession();
+        storage.saveSession(session);
+        storage.release(session.getId());
+        assertNull(storage.getVersion(session.getId()));
+
+        storage.loadSession(session.getId());
+
+        assertEquals(Long.valueOf(1), storage.getVersion(session.getId()));
+        assertEquals(0, dynamo.getRequestCount("BatchGetItem"));
+    }
+
+    @Test
+    public void count_MoreSessionsThanScanPage_CountsEveryPage() {
+        int sessionCount = InMemoryDynamoDB.MAX_SCAN_PAGE_ITEMS * 2 + 1;
+        for (int i = 0; i < sessionCount; i++) {
+            storage.saveSession(new TestSessionFactory().withSessionId("session-" + i).createStandardSession());
+        }
+        assertEquals(sessionCount, storage.count());
+        assertEquals(3, dynamo.getRequestCount("Scan"));
+    }
+
+    @Test
+    public void loadSessions_SomeMissing_ReturnsFoundSessionsInOneBatch() {
+        Session first = new TestSessionFactory().withSessionId("first").createStandardSession();
+        Session second = new TestSessionFactory().withSessionId("second").createStandardSession();
+        storage.saveSession(first);
+        storage.saveSession(second);
+
+        Map<String, Session> sessions = storage.loadSessions(Arrays.asList("first", "second", "missing"));
+
+        assertEquals(2, sessions.size());
+        assertSessionEquals(first, sessions.get("first"));
+        assertSessionEquals(second, sessions.get("second"));
+        assertEquals(1, dynamo.getRequestCount("BatchGetItem"));
+    }
+
+    @Test
+    public void deleteSessions_DeletesEverySession() {
+        storage.saveSession(new TestSessionFactory().withSessionId("first").createStandardSession());
+        storage.saveSession(new TestSessionFactory().withSessionId("second").createStandardSession());
+
+        storage.deleteSessions(Arrays.asList("first", "second"));
+
+        assertEquals(0, storage.count());
+        assertEquals(1, dynamo.getRequestCount("BatchWriteItem"));
+    }
+
+    @Test
+    public void listExpiredSessionIds_EverySegment_ReturnsOnlyExpiredSessions() {
+        long now = System.currentTimeMillis();
+        storage.saveSession(new TestSessionFactory().withSessionId("expired").withLastAccessedTime(now - 120000)
+                .withMaxInactiveInterval(60).createStandardSession());
+        storage.saveSession(new TestSessionFactory().withSessionId("active").withLastAccessedTime(now)
+                .withMaxInactiveInterval(60).createStandardSession());
+
+        List<String> expiredIds = new ArrayList<String>();
+        for (int segment = 0; segment < 4; segment++) {
+            for (String sessionId : storage.listExpiredSessionIds(segment, 4, now / 1000)) {
+                expiredIds.add(sessionId);
+            }
+        }
+        assertEquals(Collections.singletonList("expired"), expiredIds);
+    }
+
+    private static Session createLargeSession(long seed) {
+        Random random = new Random(seed);
+        StringBuilder data = new StringBuilder();
+        while (data.length() < SessionItemChunker.DEFAULT_CHUNK_SIZE_BYTES * 2) {
+            data.append(Long.toString(random.nextLong(), 36));
+        }
+        return new TestSessionFactory()
+                .withSessionAttributes(Collections.<String, Object> singletonMap("data", data.toString()))
+                .createStandardSession();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import static com.amazonaws.services.dynamodb.sessionmanager.CustomAsserts.assertSessionEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.catalina.Session;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionConverter;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.TestSessionFactory;
+
+public class InMemorySessionStorageTest {
+
+    private static final TestSessionFactory SESSION_FACTORY = new TestSessionFactory();
+
+    private InMemorySessionStorage storage;
+
+    @Before
+    public void setup() {
+        storage = new InMemorySessionStorage(SessionConverter
+                .createDefaultSessionConverter(SESSION_FACTORY.getManager(), getClass().getClassLoader()));
+    }
+
+    @Test
+    public void loadSession_ReturnsCopyOfSavedSession() {
+        Session session = SESSION_FACTORY.createStandardSession();
+        storage.saveSession(session);
+
+        Session loadedSession = storage.loadSession(session.getId());
+        assertSessionEquals(session, loadedSession);
+        assertNotSame(session, loadedSession);
+        assertSessionEquals(session, storage.loadSession(session.getId()));
+    }
+
+    @Test
+    public void deleteSessions_RemovesOnlyThoseSessions() {
+        for (String sessionId : Arrays.asList("first", "second", "third")) {
+            storage.saveSession(new TestSessionFactory().withSessionId(sessionId).createStandardSession());
+        }
+        storage.deleteSessions(Arrays.asList("first", "third"));
+
+        assertEquals(Collections.singleton("second"), storage.loadSessions(Arrays.asList("first", "second",
+                "third")).keySet());
+        assertNull(storage.loadSession("first"));
+    }
+
+    @Test
+    public void count_SegmentsAddUpToTotal() {
+        for (int i = 0; i < 20; i++) {
+            storage.saveSession(new TestSessionFactory().withSessionId("session-" + i).createStandardSession());
+        }
+        int total = 0;
+        for (int segment = 0; segment < 3; segment++) {
+            total += storage.count(segment, 3);
+        }
+        assertEquals(20, storage.count());
+        assertEquals(20, total);
+    }
+
+    @Test
+    public void listExpiredSessionIds_ReturnsOnlyExpiredSessions() {
+        long now = System.currentTimeMillis();
+        storage.saveSession(new TestSessionFactory().withSessionId("expired").withLastAccessedTime(now - 120000)
+                .withMaxInactiveInterval(60).createStandardSession());
+        storage.saveSession(new TestSessionFactory().withSessionId("active").withLastAccessedTime(now)
+                .withMaxInactiveInterval(60).createStandardSession());
+
+        List<String> expiredIds = new ArrayList<String>();
+        for (String sessionId : storage.listExpiredSessionIds(0, 1, now / 1000)) {
+            expiredIds.add(sessionId);
+        }
+        assertEquals(Collections.singletonList("expired"), expiredIds);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MissingSessionCacheTest {
+
+    private static final long LONG_WINDOW_MILLIS = 60000;
+
+    @Test
+    public void isMissing_RecordedId_ReturnsTrue() {
+        MissingSessionCache cache = new MissingSessionCache(LONG_WINDOW_MILLIS, 10);
+        cache.recordMissing("1234");
+        assertTrue(cache.isMissing("1234"));
+        assertFalse(cache.isMissing("5678"));
+    }
+
+    @Test
+    public void isMissing_InvalidatedId_ReturnsFalse() {
+        MissingSessionCache cache = new MissingSessionCache(LONG_WINDOW_MILLIS, 10);
+        cache.recordMissing("1234");
+        cache.invalidate("1234");
+        assertFalse(cache.isMissing("1234"));
+    }
+
+    @Test
+    public void isMissing_AfterWindow_ReturnsFalse() throws InterruptedException {
+        MissingSessionCache cache = new MissingSessionCache(20, 10);
+        cache.recordMissing("1234");
+        Thread.sleep(25);
+        assertFalse(cache.isMissing("1234"));
+    }
+
+    @Test
+    public void recordMissing_BeyondSize_ForgetsOldestIds() {
+        MissingSessionCache cache = new MissingSessionCache(LONG_WINDOW_MILLIS, 4);
+        for (int i = 0; i < 6; i++) {
+            cache.recordMissing("id-" + i);
+        }
+        assertFalse(cache.isMissing("id-0"));
+        assertFalse(cache.isMissing("id-1"));
+        for (int i = 2; i < 6; i++) {
+            assertTrue(cache.isMissing("id-" + i));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+
+public class SessionCountCacheTest {
+
+    private static final String TABLE_NAME = "sessions";
+    private static final long ONE_HOUR = 60 * 60 * 1000;
+
+    @Mock
+    private AmazonDynamoDB dynamo;
+
+    @Mock
+    private DynamoSessionStorage storage;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void getCount_WithinRefreshInterval_DescribesTableOnce() {
+        stubItemCount(10);
+        SessionCountCache cache = new SessionCountCache(dynamo, TABLE_NAME, storage, ONE_HOUR, 0);
+        assertEquals(10, cache.getCount());
+        assertEquals(10, cache.getCount());
+        verify(dynamo, times(1)).describeTable(any(DescribeTableRequest.class));
+        verify(storage, never()).count();
+    }
+
+    @Test
+    public void getCount_LocalChanges_AppliedUntilItemCountChanges() throws InterruptedException {
+        stubItemCount(10);
+        SessionCountCache cache = new SessionCountCache(dynamo, TABLE_NAME, storage, 0, 0);
+        cache.getCount();
+        cache.sessionAdded();
+        cache.sessionAdded();
+        cache.sessionsRemoved(1);
+        assertEquals(11, cache.getCount());
+
+        stubItemCount(20);
+        assertCountBecomes(20, cache);
+    }
+
+    @Test
+    public void getCount_Stale_ReturnsLastCountWhileRefreshing() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        when(dynamo.describeTable(any(DescribeTableRequest.class))).thenReturn(
+                new DescribeTableResult().withTable(new TableDescription().withItemCount(10L)))
+                .thenAnswer(new Answer<DescribeTableResult>() {
+                    @Override
+                    public DescribeTableResult answer(InvocationOnMock invocation) throws InterruptedException {
+                        release.await();
+                        return new DescribeTableResult().withTable(new TableDescription().withItemCount(20L));
+                    }
+                });
+        SessionCountCache cache = new SessionCountCache(dynamo, TABLE_NAME, storage, 0, 0);
+        try {
+            assertEquals(10, cache.getCount());
+            assertEquals(10, cache.getCount());
+            verify(dynamo, timeout(5000).times(2)).describeTable(any(DescribeTableRequest.class));
+            // Only one refresh runs at a time
+            assertEquals(10, cache.getCount());
+            verify(dynamo, times(2)).describeTable(any(DescribeTableRequest.class));
+
+            release.countDown();
+            assertCountBecomes(20, cache);
+        } finally {
+            release.countDown();
+            cache.shutdown();
+        }
+    }
+
+    @Test
+    public void getCount_ExactCount_SumsSegments() {
+        when(storage.count(0, 2)).thenReturn(3);
+        when(storage.count(1, 2)).thenReturn(4);
+        SessionCountCache cache = new SessionCountCache(dynamo, TABLE_NAME, storage, ONE_HOUR, 2);
+        assertEquals(7, cache.getCount());
+        verify(dynamo, never()).describeTable(any(DescribeTableRequest.class));
+    }
+
+    @Test
+    public void getCount_SessionAddedWhileCounting_KeepsLocalChange() {
+        final SessionCountCache cache = new SessionCountCache(dynamo, TABLE_NAME, storage, 0, 1);
+        cache.sessionAdded();
+        when(storage.count(0, 1)).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                cache.sessionAdded();
+                return 5;
+            }
+        });
+        assertEquals(6, cache.getCount());
+    }
+
+    private static void assertCountBecomes(int expected, SessionCountCache cache) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.getCount() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, cache.getCount());
+    }
+
+    private void stubItemCount(long itemCount) {
+        when(dynamo.describeTable(any(DescribeTableRequest.class))).thenReturn(
+                new DescribeTableResult().withTable(new TableDescription().withItemCount(itemCount)));
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.FailedBatch;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig.ConsistentReads;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.DeleteRequest;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+public class SessionItemChunkerTest {
+
+    private static final String SESSION_ID = "1234";
+    private static final int CHUNK_SIZE = 10;
+
+    @Mock
+    private DynamoDBMapper mapper;
+
+    @Captor
+    private ArgumentCaptor<List<DynamoSessionItem>> chunksCaptor;
+
+    private SessionItemChunker chunker;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(mapper.batchSave(anyListOf(Object.class))).thenReturn(Collections.<FailedBatch> emptyList());
+        chunker = new SessionItemChunker(mapper, CHUNK_SIZE);
+    }
+
+    @Test
+    public void needsChunking_OnlyAboveChunkSize() {
+        assertFalse(chunker.needsChunking(createItem(CHUNK_SIZE)));
+        assertTrue(chunker.needsChunking(createItem(CHUNK_SIZE + 1)));
+    }
+
+    @Test
+    public void writeChunks_WritesChunksAndReturnsManifest() {
+        DynamoSessionItem item = createItem(25);
+        item.setVersion(7L);
+        DynamoSessionItem manifest = chunker.writeChunks(item);
+
+        List<DynamoSessionItem> chunks = captureChunks();
+        assertEquals(3, chunks.size());
+        assertEquals(SessionItemChunker.getChunkId(SESSION_ID, manifest.getChunkSetId(), 0),
+                chunks.get(0).getSessionId());
+        assertEquals(10, chunks.get(1).getSessionData().remaining());
+        assertEquals(5, chunks.get(2).getSessionData().remaining());
+        assertEquals(20, chunks.get(2).getSessionData().get(0));
+
+        assertEquals(Integer.valueOf(3), manifest.getChunkCount());
+        assertEquals(Long.valueOf(7), manifest.getVersion());
+        assertNull(manifest.getSessionData());
+        verify(mapper, never()).save(any(DynamoSessionItem.class));
+    }
+
+    @Test
+    public void writeChunks_EachWriteUsesNewChunkSet() {
+        String first = chunker.writeChunks(createItem(25)).getChunkSetId();
+        assertNotEquals(first, chunker.writeChunks(createItem(25)).getChunkSetId());
+    }
+
+    @Test
+    public void loadChunks_AttachesChunksInOrder() {
+        DynamoSessionItem manifest = chunker.writeChunks(createItem(25));
+        List<DynamoSessionItem> chunks = captureChunks();
+        List<Object> shuffled = new ArrayList<Object>(chunks);
+        Collections.reverse(shuffled);
+        when(mapper.batchLoad(anyListOf(Object.class), any(DynamoDBMapperConfig.class)))
+                .thenReturn(Collections.singletonMap("sessions", shuffled));
+
+        chunker.loadChunks(manifest);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(chunks.get(i).getSessionData(), manifest.getSessionDataChunks().get(i));
+        }
+    }
+
+    @Test
+    public void loadChunks_ReadsConsistently() {
+        DynamoSessionItem manifest = chunker.writeChunks(createItem(25));
+        List<Object> chunks = new ArrayList<Object>(captureChunks());
+        when(mapper.batchLoad(anyListOf(Object.class), any(DynamoDBMapperConfig.class)))
+                .thenReturn(Collections.singletonMap("sessions", chunks));
+
+        chunker.loadChunks(manifest);
+
+        ArgumentCaptor<DynamoDBMapperConfig> config = ArgumentCaptor.forClass(DynamoDBMapperConfig.class);
+        verify(mapper).batchLoad(anyListOf(Object.class), config.capture());
+        assertEquals(ConsistentReads.CONSISTENT, config.getValue().getConsistentReads());
+    }
+
+    @Test(expected = MissingSessionChunkException.class)
+    public void loadChunks_MissingChunk_ThrowsMissingSessionChunkException() {
+        when(mapper.batchLoad(anyListOf(Object.class), any(DynamoDBMapperConfig.class)))
+                .thenReturn(Collections.singletonMap("sessions", Collections.emptyList()));
+        DynamoSessionItem manifest = new DynamoSessionItem(SESSION_ID);
+        manifest.setChunkSetId("set");
+        manifest.setChunkCount(2);
+        chunker.loadChunks(manifest);
+    }
+
+    @Test
+    public void retireChunks_DeletesOnlyAfterGracePeriod() {
+        DynamoSessionItem manifest = chunker.writeChunks(createItem(25));
+        chunker.retireChunks(manifest);
+        chunker.writeChunks(createItem(25));
+        verify(mapper, never()).batchDelete(anyListOf(Object.class));
+
+        chunker.deleteRetiredChunks(true);
+        verify(mapper).batchDelete(anyListOf(Object.class));
+    }
+
+    @Test
+    public void retireChunks_NoGracePeriod_DeletesOnNextWrite() {
+        chunker = new SessionItemChunker(mapper, CHUNK_SIZE, 0);
+        chunker.retireChunks(chunker.writeChunks(createItem(25)));
+        chunker.writeChunks(createItem(25));
+        verify(mapper).batchDelete(anyListOf(Object.class));
+    }
+
+    @Test
+    public void deleteChunks_FailedBatch_LeavesChunksToExpire() {
+        DynamoSessionItem manifest = chunker.writeChunks(createItem(25));
+        String chunkId = SessionItemChunker.getChunkId(SESSION_ID, manifest.getChunkSetId(), 0);
+        FailedBatch failedBatch = new FailedBatch();
+        failedBatch.setUnprocessedItems(Collections.singletonMap("sessions",
+                Collections.singletonList(new WriteRequest(new DeleteRequest(Collections.singletonMap(
+                        DynamoSessionItem.SESSION_ID_ATTRIBUTE_NAME, new AttributeValue(chunkId)))))));
+        failedBatch.setException(new ProvisionedThroughputExceededException("Throttled"));
+        when(mapper.batchDelete(anyListOf(Object.class))).thenReturn(Collections.singletonList(failedBatch));
+
+        chunker.deleteChunks(manifest);
+
+        verify(mapper).batchDelete(anyListOf(Object.class));
+    }
+
+    private List<DynamoSessionItem> captureChunks() {
+        verify(mapper).batchSave(chunksCaptor.capture());
+        return chunksCaptor.getValue();
+    }
+
+    private static DynamoSessionItem createItem(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        DynamoSessionItem item = new DynamoSessionItem(SESSION_ID);
+        item.setSessionData(ByteBuffer.wrap(data));
+        return item;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodb.sessionmanager.util.DynamoUtils;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+
+public class SessionItemTableTest {
+
+    private static final String TABLE_NAME = "sessions";
+    private static final String SESSION_ID = "1234";
+
+    private InMemoryDynamoDB dynamo;
+    private DynamoDBMapper mapper;
+    private SessionItemTable itemTable;
+
+    @Before
+    public void setup() {
+        dynamo = new InMemoryDynamoDB();
+        DynamoUtils.createSessionTable(dynamo, TABLE_NAME, 10L, 10L);
+        mapper = DynamoUtils.createDynamoMapper(dynamo, TABLE_NAME);
+        itemTable = new SessionItemTable(dynamo, TABLE_NAME);
+    }
+
+    @Test
+    public void save_ReadableByMapper() {
+        itemTable.save(createSessionItem(), null);
+        assertItemEquals(createSessionItem(), mapper.load(new DynamoSessionItem(SESSION_ID)));
+        assertEquals(1, dynamo.getRequestCount("PutItem"));
+    }
+
+    @Test
+    public void load_SavedByMapper_ReturnsSameItem() {
+        mapper.save(createSessionItem());
+        assertItemEquals(createSessionItem(), itemTable.load(SESSION_ID));
+    }
+
+    @Test
+    public void load_NoItem_ReturnsNull() {
+        assertNull(itemTable.load(SESSION_ID));
+    }
+
+    @Test
+    public void save_NullFields_RemovesThemFromStoredItem() {
+        itemTable.save(createSessionItem(), null);
+        DynamoSessionItem sessionItem = new DynamoSessionItem(SESSION_ID);
+        sessionItem.setSessionData(ByteBuffer.wrap(new byte[] { 4 }));
+        itemTable.save(sessionItem, null);
+
+        Map<String, AttributeValue> item = SessionItemTable.toItem(itemTable.load(SESSION_ID));
+        assertEquals(2, item.size());
+        assertFalse(item.containsKey(DynamoSessionItem.CHUNK_SET_ID_ATTRIBUTE_NAME));
+    }
+
+    @Test(expected = ConditionalCheckFailedException.class)
+    public void save_StaleVersion_ThrowsConditionalCheckFailedException() {
+        itemTable.save(createSessionItem(), null);
+        itemTable.save(createSessionItem(), new ExpectedAttributeValue(new AttributeValue().withN("6")));
+    }
+
+    @Test
+    public void save_ExpectedVersion_Writes() {
+        itemTable.save(createSessionItem(), new ExpectedAttributeValue(false));
+        DynamoSessionItem sessionItem = createSessionItem();
+        sessionItem.setVersion(8L);
+        itemTable.save(sessionItem, new ExpectedAttributeValue(new AttributeValue().withN("7")));
+        assertEquals(Long.valueOf(8L), itemTable.load(SESSION_ID).getVersion());
+    }
+
+    @Test
+    public void delete_RemovesItem() {
+        itemTable.save(createSessionItem(), null);
+        itemTable.delete(SESSION_ID);
+        assertNull(mapper.load(new DynamoSessionItem(SESSION_ID)));
+    }
+
+    @Test
+    public void delete_ReturnConsumedCapacity_ReportsCapacityForItemSize() {
+        DynamoSessionItem sessionItem = createSessionItem();
+        sessionItem.setSessionData(ByteBuffer.wrap(new byte[2900]));
+        itemTable.save(sessionItem, null);
+        assertEquals(Double.valueOf(3),
+                itemTable.delete(SESSION_ID, ReturnConsumedCapacity.TOTAL).getCapacityUnits());
+    }
+
+    @Test
+    public void delete_NoConsumedCapacityAsked_ReturnsNull() {
+        itemTable.save(createSessionItem(), null);
+        assertNull(itemTable.delete(SESSION_ID, ReturnConsumedCapacity.NONE));
+    }
+
+    private static DynamoSessionItem createSessionItem() {
+        DynamoSessionItem sessionItem = new DynamoSessionItem(SESSION_ID);
+        sessionItem.setSessionData(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+        sessionItem.setExpiresAt(1234567890L);
+        sessionItem.setChunkCount(2);
+        sessionItem.setChunkSetId("chunks");
+        sessionItem.setVersion(7L);
+        return sessionItem;
+    }
+
+    private static void assertItemEquals(DynamoSessionItem expected, DynamoSessionItem actual) {
+        assertEquals(expected.getSessionId(), actual.getSessionId());
+        assertEquals(expected.getSessionData(), actual.getSessionData());
+        assertEquals(expected.getExpiresAt(), actual.getExpiresAt());
+        assertEquals(expected.getChunkCount(), actual.getChunkCount());
+        assertEquals(expected.getChunkSetId(), actual.getChunkSetId());
+        assertEquals(expected.getVersion(), actual.getVersion());
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+
+public class SessionNearCacheTest {
+
+    private static final String TABLE_NAME = "sessions";
+    private static final String SESSION_ID = "1234";
+
+    @Mock
+    private AmazonDynamoDB dynamo;
+
+    private SessionNearCache nearCache;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        nearCache = new SessionNearCache(dynamo, TABLE_NAME, 2);
+    }
+
+    @Test
+    public void get_VersionUnchanged_ReturnsCachedItemReadingOnlyVersion() {
+        DynamoSessionItem sessionItem = createItem(SESSION_ID, 3L);
+        nearCache.put(sessionItem);
+        stubStoredVersion("3");
+
+        assertSame(sessionItem, nearCache.get(SESSION_ID));
+        ArgumentCaptor<GetItemRequest> captor = ArgumentCaptor.forClass(GetItemRequest.class);
+        verify(dynamo).getItem(captor.capture());
+        assertEquals("#version", captor.getValue().getProjectionExpression());
+    }
+
+    @Test
+    public void get_VersionChanged_ReturnsNullAndEvicts() {
+        nearCache.put(createItem(SESSION_ID, 3L));
+        stubStoredVersion("4");
+
+        assertNull(nearCache.get(SESSION_ID));
+        assertNull(nearCache.get(SESSION_ID));
+        verify(dynamo).getItem(any(GetItemRequest.class));
+    }
+
+    @Test
+    public void get_SessionDeleted_ReturnsNull() {
+        nearCache.put(createItem(SESSION_ID, 3L));
+        when(dynamo.getItem(any(GetItemRequest.class))).thenReturn(new GetItemResult());
+        assertNull(nearCache.get(SESSION_ID));
+    }
+
+    @Test
+    public void put_MoreThanMaxSessions_EvictsLeastRecentlyUsed() {
+        nearCache.put(createItem("1", 1L));
+        nearCache.put(createItem("2", 1L));
+        nearCache.put(createItem("3", 1L));
+
+        assertNull(nearCache.get("1"));
+        verify(dynamo, never()).getItem(any(GetItemRequest.class));
+    }
+
+    private void stubStoredVersion(String version) {
+        when(dynamo.getItem(any(GetItemRequest.class))).thenReturn(new GetItemResult().withItem(
+                Collections.singletonMap(DynamoSessionItem.VERSION_ATTRIBUTE_NAME, new AttributeValue().withN(version))));
+    }
+
+    private static DynamoSessionItem createItem(String sessionId, Long version) {
+        DynamoSessionItem sessionItem = new DynamoSessionItem(sessionId);
+        sessionItem.setVersion(version);
+        return sessionItem;
+    }
+}
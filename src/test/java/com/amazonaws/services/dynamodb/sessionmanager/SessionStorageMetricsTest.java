@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.catalina.Session;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionConversionException;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.SessionConverter;
+import com.amazonaws.services.dynamodb.sessionmanager.converters.TestSessionFactory;
+import com.amazonaws.util.AWSRequestMetrics.Field;
+import com.amazonaws.util.AWSRequestMetricsFullSupport;
+
+public class SessionStorageMetricsTest {
+
+    private static final TestSessionFactory SESSION_FACTORY = new TestSessionFactory();
+
+    private SessionStorageMetrics metrics;
+
+    @Before
+    public void setup() {
+        metrics = new SessionStorageMetrics();
+    }
+
+    @Test
+    public void instrumentedStorage_RecordsOperationsAndConversions() throws Exception {
+        SessionConverter sessionConverter = InstrumentedSessionConverter.instrument(SessionConverter
+                .createDefaultSessionConverter(SESSION_FACTORY.getManager(), getClass().getClassLoader()), metrics);
+        SessionStorage storage = new InstrumentedSessionStorage(new InMemorySessionStorage(sessionConverter),
+                metrics);
+        Session session = SESSION_FACTORY.createStandardSession();
+
+        storage.saveSession(session);
+        storage.loadSession(session.getId());
+        storage.deleteSession(session.getId());
+        storage.count();
+
+        assertEquals(1L, metrics.getAttribute("SaveTimeMicrosCount"));
+        assertEquals(1L, metrics.getAttribute("LoadTimeMicrosCount"));
+        assertEquals(1L, metrics.getAttribute("RemoveTimeMicrosCount"));
+        assertEquals(1L, metrics.getAttribute("CountTimeMicrosCount"));
+        assertEquals(2L, metrics.getAttribute("ConvertTimeMicrosCount"));
+        assertTrue((Long) metrics.getAttribute("SessionSizeBytesP50") > 0);
+    }
+
+    @Test
+    public void instrumentedStorage_CorruptSession_Counted() throws Exception {
+        SessionStorage delegate = mock(SessionStorage.class);
+        when(delegate.loadSession("corrupt")).thenThrow(new SessionConversionException(""));
+        try {
+            new InstrumentedSessionStorage(delegate, metrics).loadSession("corrupt");
+            fail("Expected SessionConversionException");
+        } catch (SessionConversionException expected) {
+        }
+        assertEquals(1L, metrics.getAttribute("CorruptSessions"));
+        assertEquals(1L, metrics.getAttribute("LoadTimeMicrosCount"));
+    }
+
+    @Test
+    public void requestCollector_RecordsRetriesAndThrottles() throws Exception {
+        AWSRequestMetricsFullSupport requestMetrics = new AWSRequestMetricsFullSupport();
+        requestMetrics.startEvent(Field.ClientExecuteTime);
+        requestMetrics.setCounter(Field.RequestCount, 3);
+        requestMetrics.incrementCounter(Field.ThrottleException);
+        requestMetrics.incrementCounter(Field.ThrottleException);
+        requestMetrics.endEvent(Field.ClientExecuteTime);
+        DefaultRequest<Void> request = new DefaultRequest<Void>("AmazonDynamoDBv2");
+        request.setAWSRequestMetrics(requestMetrics);
+
+        new SessionMetricsRequestCollector(metrics).collectMetrics(request, null);
+
+        assertEquals(2L, metrics.getAttribute("Retries"));
+        assertEquals(2L, metrics.getAttribute("Throttles"));
+        assertEquals(1L, metrics.getAttribute("RequestTimeMicrosCount"));
+    }
+
+    @Test
+    public void timeReaper_RecordsEachPass() throws Exception {
+        Runnable reaper = metrics.timeReaper(mock(Runnable.class));
+        reaper.run();
+        reaper.run();
+        assertEquals(2L, metrics.getAttribute("ReapTimeMicrosCount"));
+    }
+
+    @Test
+    public void mbeanInfo_DescribesEveryAttribute() throws Exception {
+        assertEquals(8 * 5 + 7, metrics.getMBeanInfo().getAttributes().length);
+        assertEquals(0L, metrics.getAttribute("ConflictsMerged"));
+    }
+}
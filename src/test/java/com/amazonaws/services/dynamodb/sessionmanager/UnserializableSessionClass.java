@@ -0,0 +1,31 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import java.io.Serializable;
+
+/**
+ * Class to test session data with an attribute that claims to be serializable but holds a field
+ * that isn't, so it only fails once it is actually serialized
+ */
+public class UnserializableSessionClass implements Serializable {
+
+    private static final long serialVersionUID = 2963915283713476158L;
+    private final Object data = new Object();
+
+    public Object getData() {
+        return data;
+    }
+}
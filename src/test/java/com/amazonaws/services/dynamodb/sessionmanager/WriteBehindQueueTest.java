@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.FailedBatch;
+
+public class WriteBehindQueueTest {
+
+    private static final String SESSION_ID = "1234";
+
+    @Mock
+    private DynamoDBMapper mapper;
+
+    @Captor
+    private ArgumentCaptor<List<Object>> batchCaptor;
+
+    private WriteBehindQueue queue;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(mapper.batchSave(anyListOf(Object.class))).thenReturn(Collections.<FailedBatch> emptyList());
+        queue = new WriteBehindQueue(mapper);
+    }
+
+    @Test
+    public void flush_SameSessionQueuedTwice_WritesLatestOnce() {
+        DynamoSessionItem first = createItem(SESSION_ID, 1);
+        DynamoSessionItem second = createItem(SESSION_ID, 2);
+        queue.enqueue(first);
+        queue.enqueue(second);
+        queue.flush();
+
+        List<Object> written = captureBatchSave();
+        assertEquals(1, written.size());
+        assertSame(second, written.get(0));
+    }
+
+    @Test
+    public void flush_NothingQueued_DoesNotWrite() {
+        queue.flush();
+        verify(mapper, never()).batchSave(anyListOf(Object.class));
+    }
+
+    @Test
+    public void getPending_ReturnsQueuedItemUntilFlushed() {
+        DynamoSessionItem item = createItem(SESSION_ID, 1);
+        queue.enqueue(item);
+        assertSame(item, queue.getPending(SESSION_ID));
+        queue.flush();
+        assertNull(queue.getPending(SESSION_ID));
+    }
+
+    @Test
+    public void cancel_DropsQueuedWrite() {
+        queue.enqueue(createItem(SESSION_ID, 1));
+        queue.cancel(SESSION_ID);
+        queue.flush();
+        verify(mapper, never()).batchSave(anyListOf(Object.class));
+    }
+
+    @Test
+    public void run_WriteFails_RequeuesForNextFlush() {
+        DynamoSessionItem item = createItem(SESSION_ID, 1);
+        when(mapper.batchSave(anyListOf(Object.class))).thenThrow(new AmazonServiceException("Throttled"))
+                .thenReturn(Collections.<FailedBatch> emptyList());
+        queue.enqueue(item);
+        queue.run();
+        assertSame(item, queue.getPending(SESSION_ID));
+        queue.run();
+        verify(mapper, times(2)).batchSave(anyListOf(Object.class));
+        assertNull(queue.getPending(SESSION_ID));
+    }
+
+    @Test
+    public void flush_WriteSucceeds_TellsListener() {
+        WriteBehindQueue.Listener listener = mock(WriteBehindQueue.Listener.class);
+        queue.setListener(listener);
+        DynamoSessionItem item = createItem(SESSION_ID, 1);
+        queue.enqueue(item);
+        queue.flush();
+        verify(listener).written(item);
+        verify(listener, never()).failed(item);
+    }
+
+    @Test
+    public void run_WriteFails_TellsListener() {
+        WriteBehindQueue.Listener listener = mock(WriteBehindQueue.Listener.class);
+        queue.setListener(listener);
+        when(mapper.batchSave(anyListOf(Object.class))).thenThrow(new AmazonServiceException("Throttled"));
+        DynamoSessionItem item = createItem(SESSION_ID, 1);
+        queue.enqueue(item);
+        queue.run();
+        verify(listener).failed(item);
+        verify(listener, never()).written(item);
+    }
+
+    @Test
+    public void cancel_WhileFlushing_DoesNotWaitAndDropsWrite() {
+        WriteBehindQueue.Listener listener = mock(WriteBehindQueue.Listener.class);
+        queue.setListener(listener);
+        when(mapper.batchSave(anyListOf(Object.class))).thenAnswer(new Answer<List<FailedBatch>>() {
+            @Override
+            public List<FailedBatch> answer(InvocationOnMock invocation) throws Throwable {
+                Thread canceller = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        queue.cancel(SESSION_ID);
+                    }
+                });
+                canceller.start();
+                canceller.join(5000);
+                assertFalse("cancel waited for the flush", canceller.isAlive());
+                throw new AmazonServiceException("Throttled");
+            }
+        });
+        DynamoSessionItem item = createItem(SESSION_ID, 1);
+        queue.enqueue(item);
+        queue.run();
+        assertNull(queue.getPending(SESSION_ID));
+        verify(listener, never()).failed(item);
+    }
+
+    private List<Object> captureBatchSave() {
+        verify(mapper).batchSave(batchCaptor.capture());
+        return batchCaptor.getValue();
+    }
+
+    private static DynamoSessionItem createItem(String sessionId, int data) {
+        DynamoSessionItem item = new DynamoSessionItem(sessionId);
+        item.setSessionData(ByteBuffer.wrap(new byte[] { (byte) data }));
+        return item;
+    }
+}
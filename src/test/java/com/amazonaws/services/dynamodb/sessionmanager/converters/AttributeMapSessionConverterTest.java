@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import static com.amazonaws.services.dynamodb.sessionmanager.CustomAsserts.assertSessionEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.session.StandardSession;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodb.sessionmanager.CustomSessionClass;
+import com.amazonaws.services.dynamodb.sessionmanager.UnserializableSessionClass;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+public class AttributeMapSessionConverterTest {
+
+    private static final TestSessionFactory SESSION_TEMPLATE = new TestSessionFactory();
+
+    private AttributeMapSessionConverter converter;
+
+    @Before
+    public void setup() {
+        converter = new AttributeMapSessionConverter(SESSION_TEMPLATE.getManager(), getClass().getClassLoader());
+    }
+
+    @Test
+    public void roundTrip_ReturnsSameSession() {
+        StandardSession session = SESSION_TEMPLATE.createStandardSession();
+        Session roundTripSession = converter.toSession(converter.toItem(session));
+        assertSessionEquals(session, roundTripSession);
+    }
+
+    @Test
+    public void roundTrip_NoSessionData_ReturnsSameSession() {
+        StandardSession session = new TestSessionFactory().withSessionAttributes(null).createStandardSession();
+        Session roundTripSession = converter.toSession(converter.toItem(session));
+        assertSessionEquals(session, roundTripSession);
+    }
+
+    @Test
+    public void roundTrip_MixedAttributeTypes_ReturnsSameSession() {
+        StandardSession session = new TestSessionFactory().withSessionAttributes(createMixedAttributes())
+                .createStandardSession();
+        Session roundTripSession = converter.toSession(converter.toItem(session));
+        assertSessionEquals(session, roundTripSession);
+    }
+
+    @Test
+    public void toItem_UnserializableAttribute_LeavesOnlyThatAttributeOut() {
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put("string", "value");
+        attributes.put("unserializable", new UnserializableSessionClass());
+        StandardSession session = new TestSessionFactory().withSessionAttributes(attributes).createStandardSession();
+        Map<String, AttributeValue> sessionAttributes = converter.toItem(session)
+                .get(AttributeMapSessionConverter.SESSION_ATTRIBUTES_ATTRIBUTE_NAME).getM();
+        assertEquals("value", sessionAttributes.get("string").getS());
+        assertFalse(sessionAttributes.containsKey("unserializable"));
+    }
+
+    @Test
+    public void roundTrip_ByteArrayAttribute_ReturnsSameBytes() {
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put("bytes", new byte[] { 1, 2, 3 });
+        StandardSession session = new TestSessionFactory().withSessionAttributes(attributes).createStandardSession();
+        Session roundTripSession = converter.toSession(converter.toItem(session));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) roundTripSession.getSession().getAttribute("bytes"));
+    }
+
+    @Test
+    public void toItem_SimpleTypes_StoredNatively() {
+        StandardSession session = new TestSessionFactory().withSessionAttributes(createMixedAttributes())
+                .createStandardSession();
+        Map<String, AttributeValue> sessionAttributes = converter.toItem(session)
+                .get(AttributeMapSessionConverter.SESSION_ATTRIBUTES_ATTRIBUTE_NAME).getM();
+        assertEquals("value", sessionAttributes.get("string").getS());
+        assertEquals(Boolean.TRUE, sessionAttributes.get("boolean").getBOOL());
+        assertEquals("42", sessionAttributes.get("integer").getM().get("value").getN());
+        assertNotNull(sessionAttributes.get("custom").getM().get("value").getB());
+    }
+
+    @Test(expected = SessionConversionException.class)
+    public void toItem_NullSession_ThrowsSessionConversionException() {
+        converter.toItem(null);
+    }
+
+    @Test(expected = SessionConversionException.class)
+    public void toSession_MissingAttributes_ThrowsSessionConversionException() {
+        converter.toSession(new HashMap<String, AttributeValue>());
+    }
+
+    private static Map<String, Object> createMixedAttributes() {
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put("string", "value");
+        attributes.put("emptyString", "");
+        attributes.put("boolean", Boolean.TRUE);
+        attributes.put("integer", 42);
+        attributes.put("long", Long.MAX_VALUE);
+        attributes.put("double", 1.5d);
+        attributes.put("decimal", new BigDecimal("1.50"));
+        attributes.put("list", new ArrayList<String>());
+        attributes.put("custom", new CustomSessionClass("customData"));
+        return attributes;
+    }
+}
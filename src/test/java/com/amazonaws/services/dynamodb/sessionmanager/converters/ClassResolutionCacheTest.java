@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodb.sessionmanager.CustomSessionClass;
+
+public class ClassResolutionCacheTest {
+
+    private static final String CUSTOM_CLASS_NAME = CustomSessionClass.class.getName();
+
+    @Test
+    public void createObjectInputStream_ClassResolvedBefore_DoesNotAskClassLoaderAgain() throws Exception {
+        CountingClassLoader classLoader = new CountingClassLoader();
+        ClassResolutionCache cache = new ClassResolutionCache(classLoader);
+        byte[] serialized = serialize(new CustomSessionClass("data"));
+
+        assertEquals(new CustomSessionClass("data"), deserialize(cache, serialized));
+        assertEquals(new CustomSessionClass("data"), deserialize(cache, serialized));
+        assertEquals(1, classLoader.loads.get());
+    }
+
+    @Test
+    public void reset_ResolvesThroughNewClassLoader() throws Exception {
+        ClassResolutionCache cache = new ClassResolutionCache(new CountingClassLoader());
+        byte[] serialized = serialize(new CustomSessionClass("data"));
+        deserialize(cache, serialized);
+
+        CountingClassLoader reloaded = new CountingClassLoader();
+        cache.reset(reloaded);
+        deserialize(cache, serialized);
+        assertEquals(1, reloaded.loads.get());
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(value);
+        oos.close();
+        return bos.toByteArray();
+    }
+
+    private static Object deserialize(ClassResolutionCache cache, byte[] serialized) throws Exception {
+        ObjectInputStream ois = cache.createObjectInputStream(new ByteArrayInputStream(serialized));
+        try {
+            return ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+
+    /**
+     * Counts the lookups of {@link CustomSessionClass} it is asked for.
+     */
+    private static class CountingClassLoader extends ClassLoader {
+
+        private final AtomicInteger loads = new AtomicInteger();
+
+        private CountingClassLoader() {
+            super(ClassResolutionCacheTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (CUSTOM_CLASS_NAME.equals(name)) {
+                loads.incrementAndGet();
+            }
+            return super.loadClass(name, resolve);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import static com.amazonaws.services.dynamodb.sessionmanager.CustomAsserts.assertSessionEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.session.StandardSession;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodb.sessionmanager.CustomSessionClass;
+import com.amazonaws.services.dynamodb.sessionmanager.DynamoSessionItem;
+import com.amazonaws.services.dynamodb.sessionmanager.UnserializableSessionClass;
+
+public class CompactSessionConverterTest {
+
+    private static final TestSessionFactory SESSION_TEMPLATE = new TestSessionFactory();
+
+    private SessionConverter compactConverter;
+    private SessionConverter defaultConverter;
+
+    @Before
+    public void setup() {
+        ClassResolutionCache classResolutionCache = new ClassResolutionCache(getClass().getClassLoader());
+        compactConverter = SessionConverter.createDefaultSessionConverter(SESSION_TEMPLATE.getManager(),
+                classResolutionCache, SessionDataCompression.createDecompressOnly(), true);
+        defaultConverter = SessionConverter.createDefaultSessionConverter(SESSION_TEMPLATE.getManager(),
+                classResolutionCache, SessionDataCompression.createDecompressOnly(), false);
+    }
+
+    @Test
+    public void roundTrip_MixedAttributeTypes_ReturnsSameSession() {
+        StandardSession session = new TestSessionFactory().withSessionAttributes(createMixedAttributes())
+                .createStandardSession();
+        DynamoSessionItem sessionItem = compactConverter.toSessionItem(session);
+        assertEquals(CompactSessionFormat.FORMAT_MAGIC, sessionItem.getSessionData().get(0));
+        assertSessionEquals(session, compactConverter.toSession(sessionItem));
+    }
+
+    @Test
+    public void roundTrip_NoSessionData_ReturnsSameSession() {
+        StandardSession session = new TestSessionFactory().withSessionAttributes(null).createStandardSession();
+        assertSessionEquals(session, compactConverter.toSession(compactConverter.toSessionItem(session)));
+    }
+
+    @Test
+    public void roundTrip_ByteArrayAttribute_ReturnsSameBytes() {
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put("bytes", new byte[] { 1, 2, 3 });
+        StandardSession session = new TestSessionFactory().withSessionAttributes(attributes).createStandardSession();
+        Session roundTripSession = compactConverter.toSession(compactConverter.toSessionItem(session));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) roundTripSession.getSession().getAttribute("bytes"));
+    }
+
+    @Test
+    public void roundTrip_UnserializableAttribute_LeavesOnlyThatAttributeOut() {
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put("string", "value");
+        attributes.put("unserializable", new UnserializableSessionClass());
+        StandardSession session = new TestSessionFactory().withSessionAttributes(attributes).createStandardSession();
+        Session roundTripSession = compactConverter.toSession(compactConverter.toSessionItem(session));
+        assertEquals("value", roundTripSession.getSession().getAttribute("string"));
+        assertNull(roundTripSession.getSession().getAttribute("unserializable"));
+    }
+
+    @Test
+    public void roundTrip_Compressed_ReturnsSameSession() {
+        SessionConverter compressingConverter = SessionConverter.createDefaultSessionConverter(
+                SESSION_TEMPLATE.getManager(), new ClassResolutionCache(getClass().getClassLoader()),
+                new SessionDataCompression(new DeflateCompressionCodec(), 0), true);
+        StandardSession session = new TestSessionFactory().withSessionAttributes(createMixedAttributes())
+                .createStandardSession();
+        assertSessionEquals(session, compactConverter.toSession(compressingConverter.toSessionItem(session)));
+    }
+
+    @Test
+    public void toSession_JavaSerializedItem_ReadByCompactConverter() {
+        StandardSession session = SESSION_TEMPLATE.createStandardSession();
+        assertSessionEquals(session, compactConverter.toSession(defaultConverter.toSessionItem(session)));
+    }
+
+    @Test
+    public void toSessionItem_SimpleAttributes_SmallerThanJavaSerialization() {
+        StandardSession session = new TestSessionFactory().withSessionAttributes(createMixedAttributes())
+                .createStandardSession();
+        int compactSize = compactConverter.toSessionItem(session).getSessionData().remaining();
+        int serializedSize = defaultConverter.toSessionItem(session).getSessionData().remaining();
+        assertTrue(compactSize < serializedSize);
+    }
+
+    @Test(expected = SessionConversionException.class)
+    public void toSession_NewerFormatVersion_ThrowsSessionConversionException() {
+        DynamoSessionItem sessionItem = compactConverter.toSessionItem(SESSION_TEMPLATE.createStandardSession());
+        ByteBuffer sessionData = sessionItem.getSessionData();
+        sessionData.put(sessionData.position() + 1, (byte) (CompactSessionFormat.FORMAT_VERSION + 1));
+        compactConverter.toSession(sessionItem);
+    }
+
+    private static Map<String, Object> createMixedAttributes() {
+        Map<String, Object> nested = new LinkedHashMap<String, Object>();
+        nested.put("when", new Date(1234567890L));
+        nested.put("tags", new ArrayList<Object>(Arrays.asList("a", "b", null)));
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put("string", "value é€\ud800");
+        attributes.put("emptyString", "");
+        attributes.put("boolean", Boolean.TRUE);
+        attributes.put("integer", -42);
+        attributes.put("long", Long.MIN_VALUE);
+        attributes.put("double", 1.5d);
+        attributes.put("character", 'x');
+        attributes.put("nested", nested);
+        attributes.put("custom", new CustomSessionClass("customData"));
+        attributes.put("listWithCustom", new ArrayList<Object>(Arrays.asList(1, new CustomSessionClass("inList"))));
+        return attributes;
+    }
+}
@@ -15,13 +15,19 @@
 package com.amazonaws.services.dynamodb.sessionmanager.converters;
 
 import static com.amazonaws.services.dynamodb.sessionmanager.CustomAsserts.assertSessionEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
 
 import org.apache.catalina.Session;
 import org.apache.catalina.session.StandardSession;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.amazonaws.services.dynamodb.sessionmanager.DynamoSessionItem;
+
 /**
  * Tests a SessionConverter with Default implementations of TomcatSessionConverter and
  * DynamoSessionConverter
@@ -53,6 +59,63 @@ public class DefaultSessionConverterTest {
         assertSessionEquals(session, roundTripSession);
     }
 
+    @Test
+    public void roundTrip_Compressed_ReturnsSameSession() throws Exception {
+        SessionConverter compressingConverter = SessionConverter.createDefaultSessionConverter(
+                SESSION_TEMPLATE.getManager(), getClass().getClassLoader(),
+                new SessionDataCompression(new DeflateCompressionCodec(), 0));
+        Session roundTripSession = compressingConverter.toSession(compressingConverter.toSessionItem(session));
+        assertSessionEquals(session, roundTripSession);
+    }
+
+    @Test
+    public void toSession_CompressedItem_ReadByDefaultConverter() throws Exception {
+        SessionConverter compressingConverter = SessionConverter.createDefaultSessionConverter(
+                SESSION_TEMPLATE.getManager(), getClass().getClassLoader(),
+                new SessionDataCompression(new DeflateCompressionCodec(), 0));
+        Session roundTripSession = sessionConverter.toSession(compressingConverter.toSessionItem(session));
+        assertSessionEquals(session, roundTripSession);
+    }
+
+    @Test
+    public void toSessionItem_SetsExpiresAt() {
+        long expectedExpiresAt = (session.getLastAccessedTimeInternal() + session.getMaxInactiveInterval() * 1000L
+                + 999) / 1000;
+        assertEquals(Long.valueOf(expectedExpiresAt), sessionConverter.toSessionItem(session).getExpiresAt());
+    }
+
+    @Test
+    public void toSessionItem_ImmortalSession_HasNoExpiresAt() {
+        StandardSession session = new TestSessionFactory().withMaxInactiveInterval(-1).createStandardSession();
+        assertNull(sessionConverter.toSessionItem(session).getExpiresAt());
+    }
+
+    @Test
+    public void toSession_DirectBuffer_ReturnsSameSession() {
+        ByteBuffer sessionData = sessionConverter.toSessionItem(session).getSessionData();
+        ByteBuffer direct = ByteBuffer.allocateDirect(sessionData.remaining());
+        direct.put(sessionData.duplicate()).flip();
+        assertSessionEquals(session, sessionConverter.toSession(createItem(direct)));
+    }
+
+    @Test
+    public void toSession_ReadOnlyOffsetBuffer_ReturnsSameSession() {
+        ByteBuffer sessionData = sessionConverter.toSessionItem(session).getSessionData();
+        ByteBuffer padded = ByteBuffer.allocate(sessionData.remaining() + 10);
+        padded.position(10);
+        padded.put(sessionData.duplicate()).position(10);
+        assertSessionEquals(session, sessionConverter.toSession(createItem(padded.slice().asReadOnlyBuffer())));
+    }
+
+    @Test
+    public void toSessionItem_SavedBefore_SizesBufferFromLastSize() {
+        int size = sessionConverter.toSessionItem(session).getSessionData().remaining();
+        ByteBuffer sessionData = sessionConverter.toSessionItem(session).getSessionData();
+        assertEquals(size, sessionData.remaining());
+        assertTrue(sessionData.array().length <= size + size / 4);
+        assertEquals(size, session.getNote(DefaultDynamoSessionItemConverter.SERIALIZED_SIZE_NOTE));
+    }
+
     @Test(expected = SessionConversionException.class)
     public void toSessionItem_NullSession_ThrowsSessionConversionException() {
         assertNull(sessionConverter.toSessionItem(null));
@@ -69,4 +132,9 @@ public class DefaultSessionConverterTest {
         sessionConverter.toSessionItem(session);
     }
 
+    private DynamoSessionItem createItem(ByteBuffer sessionData) {
+        DynamoSessionItem sessionItem = new DynamoSessionItem(session.getId());
+        sessionItem.setSessionData(sessionData);
+        return sessionItem;
+    }
 }
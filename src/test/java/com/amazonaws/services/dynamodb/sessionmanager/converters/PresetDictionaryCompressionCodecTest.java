@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodb.sessionmanager.CustomSessionClass;
+import com.amazonaws.services.dynamodb.sessionmanager.DynamoSessionItem;
+
+public class PresetDictionaryCompressionCodecTest {
+
+    private static final int DICTIONARY_VERSION = 3;
+    private static final int DICTIONARY_SIZE = 16 * 1024;
+
+    private final DefaultDynamoSessionItemConverter itemConverter = new DefaultDynamoSessionItemConverter();
+
+    private CompressionDictionaryLoader loader;
+    private CompressionDictionary dictionary;
+
+    @Before
+    public void setup() {
+        List<byte[]> samples = new ArrayList<byte[]>();
+        for (int i = 0; i < 20; i++) {
+            samples.add(serializeSession(i));
+        }
+        dictionary = new CompressionDictionary(DICTIONARY_VERSION, CompressionDictionaryTrainer.train(samples,
+                DICTIONARY_SIZE));
+        loader = mock(CompressionDictionaryLoader.class);
+    }
+
+    @Test
+    public void train_SimilarSessions_BuildsDictionary() {
+        assertTrue(dictionary.getData().length > 0);
+    }
+
+    @Test
+    public void train_SingleSample_BuildsEmptyDictionary() {
+        List<byte[]> samples = new ArrayList<byte[]>();
+        samples.add(serializeSession(0));
+        assertEquals(0, CompressionDictionaryTrainer.train(samples, DICTIONARY_SIZE).length);
+    }
+
+    @Test
+    public void roundTrip_ReturnsSameData() throws Exception {
+        SessionDataCompression compression = new SessionDataCompression(
+                new PresetDictionaryCompressionCodec(dictionary, loader), 0);
+        ByteBuffer data = ByteBuffer.wrap(serializeSession(100));
+        ByteBuffer compressed = compression.compress(data);
+        assertEquals(PresetDictionaryCompressionCodec.FORMAT_ID, compressed.get(0));
+        assertEquals(data, compression.decompress(compressed));
+    }
+
+    @Test
+    public void compress_SmallSession_SmallerThanWithoutDictionary() throws Exception {
+        ByteBuffer data = ByteBuffer.wrap(serializeSession(100));
+        int withDictionary = new SessionDataCompression(new PresetDictionaryCompressionCodec(dictionary, loader), 0)
+                .compress(data).remaining();
+        int withoutDictionary = new SessionDataCompression(new DeflateCompressionCodec(), 0).compress(data)
+                .remaining();
+        assertTrue(withDictionary < withoutDictionary / 2);
+    }
+
+    @Test
+    public void decompress_OtherVersion_LoadsDictionaryOnce() throws Exception {
+        ByteBuffer data = ByteBuffer.wrap(serializeSession(100));
+        ByteBuffer compressed = new SessionDataCompression(
+                new PresetDictionaryCompressionCodec(dictionary, loader), 0).compress(data);
+        when(loader.loadDictionary(DICTIONARY_VERSION)).thenReturn(dictionary);
+        SessionDataCompression decompressOnly = new SessionDataCompression(null, Integer.MAX_VALUE,
+                new PresetDictionaryCompressionCodec(null, loader));
+
+        assertEquals(data, decompressOnly.decompress(compressed));
+        assertEquals(data, decompressOnly.decompress(compressed));
+        verify(loader, times(1)).loadDictionary(DICTIONARY_VERSION);
+    }
+
+    @Test(expected = IOException.class)
+    public void decompress_UnknownVersion_ThrowsIOException() throws Exception {
+        ByteBuffer compressed = new SessionDataCompression(
+                new PresetDictionaryCompressionCodec(dictionary, loader), 0)
+                        .compress(ByteBuffer.wrap(serializeSession(100)));
+        new SessionDataCompression(null, Integer.MAX_VALUE, new PresetDictionaryCompressionCodec(null, loader))
+                .decompress(compressed);
+    }
+
+    @Test(expected = AmazonClientException.class)
+    public void toSession_DictionaryFetchFails_ThrowsAmazonClientException() throws Exception {
+        ByteBuffer compressed = new SessionDataCompression(
+                new PresetDictionaryCompressionCodec(dictionary, loader), 0)
+                        .compress(ByteBuffer.wrap(serializeSession(100)));
+        when(loader.loadDictionary(DICTIONARY_VERSION)).thenThrow(new AmazonClientException("Unavailable"));
+        DynamoSessionItem sessionItem = new DynamoSessionItem("id");
+        sessionItem.setSessionData(compressed);
+
+        new DecompressingTomcatSessionConverter(mock(TomcatSessionConverter.class), new SessionDataCompression(
+                null, Integer.MAX_VALUE, new PresetDictionaryCompressionCodec(null, loader))).toSession(sessionItem);
+    }
+
+    private byte[] serializeSession(int seed) {
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put("userName", "user" + seed);
+        attributes.put("cartSize", seed);
+        attributes.put("custom", new CustomSessionClass("custom" + seed));
+        ByteBuffer sessionData = itemConverter.toSessionItem(new TestSessionFactory().withSessionId("id" + seed)
+                .withSessionAttributes(attributes).createStandardSession()).getSessionData();
+        byte[] bytes = new byte[sessionData.remaining()];
+        sessionData.get(bytes);
+        return bytes;
+    }
+}
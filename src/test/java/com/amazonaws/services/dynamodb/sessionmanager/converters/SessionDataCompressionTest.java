@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodb.sessionmanager.converters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SessionDataCompressionTest {
+
+    private static final int THRESHOLD = 64;
+
+    private final SessionDataCompression compression = new SessionDataCompression(new DeflateCompressionCodec(),
+            THRESHOLD);
+
+    @Test
+    public void compress_BelowThreshold_ReturnsDataUnchanged() throws Exception {
+        ByteBuffer data = createSerializedData(THRESHOLD - 1);
+        assertSame(data, compression.compress(data));
+    }
+
+    @Test
+    public void compress_AboveThreshold_WritesHeaderAndShrinksData() throws Exception {
+        ByteBuffer data = createSerializedData(4096);
+        ByteBuffer compressed = compression.compress(data);
+        assertEquals(DeflateCompressionCodec.FORMAT_ID, compressed.get(0));
+        assertTrue(compressed.remaining() < data.remaining() / 4);
+    }
+
+    @Test
+    public void roundTrip_ReturnsSameData() throws Exception {
+        ByteBuffer data = createSerializedData(4096);
+        assertEquals(data, compression.decompress(compression.compress(data)));
+    }
+
+    @Test
+    public void decompress_UncompressedData_ReturnsDataUnchanged() throws Exception {
+        ByteBuffer data = createSerializedData(4096);
+        assertSame(data, compression.decompress(data));
+    }
+
+    @Test
+    public void decompress_DecompressOnly_ReadsDeflateData() throws Exception {
+        ByteBuffer data = createSerializedData(4096);
+        ByteBuffer compressed = compression.compress(data);
+        assertEquals(data, SessionDataCompression.createDecompressOnly().decompress(compressed));
+    }
+
+    @Test(expected = IOException.class)
+    public void decompress_UnknownFormat_ThrowsIOException() throws Exception {
+        compression.decompress(ByteBuffer.wrap(new byte[] { 42, 1, 2, 3 }));
+    }
+
+    /**
+     * Highly compressible data that starts like a Java serialization stream
+     */
+    private static ByteBuffer createSerializedData(int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) 'a');
+        data[0] = SessionDataCompression.JAVA_SERIALIZATION_MAGIC;
+        return ByteBuffer.wrap(data);
+    }
+}
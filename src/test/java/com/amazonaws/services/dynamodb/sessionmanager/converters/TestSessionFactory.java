@@ -14,7 +14,6 @@
  */
 package com.amazonaws.services.dynamodb.sessionmanager.converters;
 
-import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -25,6 +24,9 @@ import java.util.Map.Entry;
 import org.apache.catalina.Manager;
 import org.apache.catalina.Session;
 import org.apache.catalina.session.StandardSession;
+import org.mockito.Answers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.amazonaws.services.dynamodb.sessionmanager.CustomSessionClass;
 import com.amazonaws.services.dynamodb.sessionmanager.DynamoSessionItem;
@@ -126,7 +128,16 @@ public class TestSessionFactory {
     }
 
     private static Manager getDefaultManager() {
-        Manager mockManager = mock(Manager.class, RETURNS_DEEP_STUBS);
+        Manager mockManager = mock(Manager.class, new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                // Later Tomcat 8.0 releases ask the manager whether each attribute may be persisted
+                if ("willAttributeDistribute".equals(invocation.getMethod().getName())) {
+                    return true;
+                }
+                return Answers.RETURNS_DEEP_STUBS.get().answer(invocation);
+            }
+        });
         when(mockManager.getContext().getLogger().isDebugEnabled()).thenReturn(false);
         return mockManager;
     }